@@ -0,0 +1,45 @@
+package pl.luainterpreter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.luainterpreter.interpreter.LuaChunk;
+import pl.luainterpreter.interpreter.LuaEngine;
+import pl.luainterpreter.interpreter.LuaInterpreter.Engine;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One chunk compiled once and executed in a fresh {@link pl.luainterpreter.interpreter.LuaState} per
+ * invocation. Compare the scores for {@code -t 1} up to {@code -t <cores>} to check scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentStatesBenchmark {
+
+    @Param({"fib", "nestedLoops", "tableFill"})
+    public String script;
+
+    @Param({"TREE", "BYTECODE"})
+    public Engine engine;
+
+    private LuaEngine luaEngine;
+    private LuaChunk chunk;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() {
+        luaEngine = new LuaEngine(engine);
+        chunk = luaEngine.compile(Scripts.source(script));
+        out = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void execute() {
+        luaEngine.newState(out).execute(chunk);
+    }
+}
@@ -0,0 +1,105 @@
+package pl.luainterpreter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.luainterpreter.interpreter.LuaChunk;
+import pl.luainterpreter.interpreter.LuaEngine;
+import pl.luainterpreter.interpreter.LuaInterpreter.Engine;
+import pl.luainterpreter.interpreter.LuaState;
+import pl.luainterpreter.program.InputSource;
+import pl.luainterpreter.program.OutputSink;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of coroutine switches, per operation: {@code wrapRoundTrip} and {@code resumeRoundTrip} resume a
+ * coroutine that yields right back, through a wrapped function or {@code coroutine.resume};
+ * {@code createAndFinish} creates a coroutine and runs it to its end with one yield on the way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoroutineBenchmark {
+    private static final int SWITCHES = 10000;
+
+    private static final String COUNTER = """
+            function counter()
+                local i = 0
+                while (true) do
+                    i = i + 1
+                    coroutine.yield(i)
+                end
+            end
+            """;
+
+    private static final String WRAP_ROUND_TRIP = COUNTER + """
+            tick = coroutine.wrap("counter")
+            for i = 1, 10000 do
+                tick()
+            end
+            """;
+
+    private static final String RESUME_ROUND_TRIP = COUNTER + """
+            co = coroutine.create("counter")
+            for i = 1, 10000 do
+                coroutine.resume(co)
+            end
+            """;
+
+    private static final String CREATE_AND_FINISH = """
+            function once(x)
+                coroutine.yield(x)
+                return x
+            end
+            for i = 1, 10000 do
+                local co = coroutine.create("once")
+                coroutine.resume(co, i)
+                coroutine.resume(co)
+            end
+            """;
+
+    @Param({"BYTECODE", "JIT"})
+    public Engine engine;
+
+    private LuaEngine luaEngine;
+    private OutputSink out;
+    private LuaChunk wrapRoundTrip;
+    private LuaChunk resumeRoundTrip;
+    private LuaChunk createAndFinish;
+
+    @Setup
+    public void setUp() {
+        luaEngine = new LuaEngine(engine);
+        out = OutputSink.unbuffered(new PrintStream(OutputStream.nullOutputStream()));
+        wrapRoundTrip = luaEngine.compile(WRAP_ROUND_TRIP);
+        resumeRoundTrip = luaEngine.compile(RESUME_ROUND_TRIP);
+        createAndFinish = luaEngine.compile(CREATE_AND_FINISH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SWITCHES)
+    public void wrapRoundTrip() {
+        run(wrapRoundTrip);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SWITCHES)
+    public void resumeRoundTrip() {
+        run(resumeRoundTrip);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SWITCHES)
+    public void createAndFinish() {
+        run(createAndFinish);
+    }
+
+    private void run(LuaChunk chunk) {
+        LuaState state = luaEngine.newState(out, InputSource.EMPTY);
+        state.execute(chunk);
+    }
+}
@@ -0,0 +1,60 @@
+package pl.luainterpreter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.luainterpreter.interpreter.LuaInterpreter;
+import pl.luainterpreter.interpreter.LuaInterpreter.Engine;
+import pl.luainterpreter.interpreter.ResourceLimits;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link LuaInterpreter#interpret} runs, parsing included. Script output is discarded.
+ * <p>
+ * {@code limited} runs the scripts with step, memory and call depth limits they never reach, so comparing
+ * it with the unlimited runs measures the cost of enforcing {@link ResourceLimits}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    private static final ResourceLimits LIMITS = ResourceLimits.UNLIMITED
+            .withMaxSteps(1L << 40)
+            .withMaxMemory(1L << 40)
+            .withMaxCallDepth(10_000);
+
+    @Param({"helloworld", "function", "tables", "loops", "fib", "nestedLoops", "tableFill", "concat", "logBuild", "stdlib"})
+    public String script;
+
+    @Param({"TREE", "BYTECODE", "JIT"})
+    public Engine engine;
+
+    @Param({"false", "true"})
+    public boolean limited;
+
+    private String source;
+    private ResourceLimits limits;
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() {
+        source = Scripts.source(script);
+        limits = limited ? LIMITS : ResourceLimits.UNLIMITED;
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void interpret() {
+        new LuaInterpreter(engine, limits).interpret(Scripts.parser(source));
+    }
+}
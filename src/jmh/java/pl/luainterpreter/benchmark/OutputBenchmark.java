@@ -0,0 +1,66 @@
+package pl.luainterpreter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.luainterpreter.interpreter.LuaChunk;
+import pl.luainterpreter.interpreter.LuaEngine;
+import pl.luainterpreter.interpreter.LuaInterpreter.Engine;
+import pl.luainterpreter.program.BufferedOutputSink;
+import pl.luainterpreter.program.BufferedOutputSink.FlushPolicy;
+import pl.luainterpreter.program.InputSource;
+import pl.luainterpreter.program.OutputSink;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A print heavy chunk writing to the null device through each output sink. {@code unbuffered} is one
+ * {@code println} per line on a stream set up like {@code System.out}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+    private static final String PRINT_LINES = """
+            for i = 1, 10000 do
+                print(i, i / 4, "line")
+            end
+            """;
+
+    @Param({"unbuffered", "LINE", "SIZE", "EXIT"})
+    public String sink;
+
+    @Param({"TREE", "BYTECODE"})
+    public Engine engine;
+
+    private LuaEngine luaEngine;
+    private LuaChunk chunk;
+    private FileOutputStream nullDevice;
+    private OutputSink out;
+
+    @Setup
+    public void setUp() throws IOException {
+        luaEngine = new LuaEngine(engine);
+        chunk = luaEngine.compile(PRINT_LINES);
+        nullDevice = new FileOutputStream(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+        out = sink.equals("unbuffered") ?
+                OutputSink.unbuffered(new PrintStream(new BufferedOutputStream(nullDevice, 128), true)) :
+                new BufferedOutputSink(nullDevice.getChannel(), FlushPolicy.valueOf(sink),
+                        BufferedOutputSink.DEFAULT_BUFFER_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        nullDevice.close();
+    }
+
+    @Benchmark
+    public void print() {
+        luaEngine.newState(out, InputSource.EMPTY).execute(chunk);
+    }
+}
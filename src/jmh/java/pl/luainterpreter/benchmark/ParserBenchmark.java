@@ -0,0 +1,56 @@
+package pl.luainterpreter.benchmark;
+
+import lua.LuaLexer;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.*;
+import pl.luainterpreter.interpreter.ChunkParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing alone and lexing with parsing of generated scripts, in both prediction modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"10", "1000"})
+    public int functions;
+
+    private String source;
+    private ChunkParser chunkParser;
+
+    @Setup
+    public void setUp() {
+        source = Scripts.generate(functions);
+        chunkParser = new ChunkParser();
+    }
+
+    @Benchmark
+    public int lex() {
+        CommonTokenStream tokens = new CommonTokenStream(new LuaLexer(CharStreams.fromString(source)));
+        tokens.fill();
+        return tokens.size();
+    }
+
+    /**
+     * Full LL prediction on a fresh parser, as ANTLR does by default.
+     */
+    @Benchmark
+    public Object parse() {
+        return Scripts.parser(source).chunk();
+    }
+
+    /**
+     * SLL first with LL fallback, reusing one lexer and parser.
+     */
+    @Benchmark
+    public Object parseTwoStage() {
+        return chunkParser.parse(CharStreams.fromString(source));
+    }
+}
@@ -0,0 +1,137 @@
+package pl.luainterpreter.benchmark;
+
+import lua.LuaLexer;
+import lua.LuaParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lua sources shared by the benchmarks: the bundled samples and CPU bound workloads.
+ */
+final class Scripts {
+
+    static final String FIB = """
+            function fib(n)
+                if n < 2 then
+                    return n
+                end
+                return fib(n - 1) + fib(n - 2)
+            end
+            print(fib(20))
+            """;
+
+    static final String NESTED_LOOPS = """
+            sum = 0
+            for i = 1, 300 do
+                for j = 1, 300 do
+                    sum = sum + i * j % 7
+                end
+            end
+            print(sum)
+            """;
+
+    static final String TABLE_FILL = """
+            t = {}
+            for i = 1, 100000 do
+                t[i] = i * 2
+            end
+            sum = 0
+            for i = 1, #t do
+                sum = sum + t[i]
+            end
+            print(sum)
+            """;
+
+    static final String CONCAT = """
+            s = ""
+            for i = 1, 2000 do
+                s = s .. "x"
+            end
+            print(#s)
+            """;
+
+    static final String LOG_BUILD = """
+            log = ""
+            for i = 1, 5000 do
+                log = log .. "[" .. i .. "] value=" .. i * 2 .. " status=" .. "ok" .. ";"
+            end
+            print(#log)
+            """;
+
+    static final String STDLIB = """
+            t = {}
+            for i = 1, 2000 do
+                table.insert(t, string.format("%05d:%s", math.fmod(i * 7919, 2000), string.rep("x", 3)))
+            end
+            table.sort(t)
+            s = table.concat(t, ",")
+            print(string.len(s), string.sub(s, 1, 9), math.floor(string.len(s) / 3))
+            """;
+
+    private static final String GENERATED_FUNCTION = """
+            function f%1$d(a, b)
+                local c = a + b * 2
+                if c > 10 then
+                    print("big", c)
+                elseif c > 5 then
+                    print("medium")
+                else
+                    print("small")
+                end
+                local i = 0
+                while (i < c) do
+                    i = i + 1
+                end
+                t%1$d = {1, 2.5, "three", x == c}
+                return c .. "!"
+            end
+            f%1$d(%1$d, 2)
+            """;
+
+    private Scripts() {
+    }
+
+    static String source(String name) {
+        return switch (name) {
+            case "fib" -> FIB;
+            case "nestedLoops" -> NESTED_LOOPS;
+            case "tableFill" -> TABLE_FILL;
+            case "concat" -> CONCAT;
+            case "logBuild" -> LOG_BUILD;
+            case "stdlib" -> STDLIB;
+            default -> resource(name + ".lua");
+        };
+    }
+
+    /**
+     * Generates a script of {@code functions} similar function definitions and calls.
+     */
+    static String generate(int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append(String.format(GENERATED_FUNCTION, i));
+        }
+        return source.toString();
+    }
+
+    static LuaParser parser(String source) {
+        LuaLexer lexer = new LuaLexer(CharStreams.fromString(source));
+        return new LuaParser(new CommonTokenStream(lexer));
+    }
+
+    private static String resource(String name) {
+        try (InputStream input = Scripts.class.getResourceAsStream("/" + name)) {
+            if (input == null) {
+                throw new IllegalArgumentException("No such script: " + name);
+            }
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
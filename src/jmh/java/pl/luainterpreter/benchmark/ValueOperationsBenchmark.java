@@ -0,0 +1,131 @@
+package pl.luainterpreter.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.luainterpreter.program.value.*;
+import pl.luainterpreter.program.value.Value.ValueOperations;
+
+import java.util.concurrent.TimeUnit;
+
+import static lua.LuaParser.*;
+
+/**
+ * Single value operations; run with {@code -prof gc} to check which of them allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueOperationsBenchmark {
+    private static final int TABLE_SIZE = 1024;
+
+    private Value smallInt;
+    private Value bigInt;
+    private Value floatValue;
+    private Value string;
+    private Value otherString;
+    private Value arrayKey;
+    private Value hashIntKey;
+    private Value floatKey;
+    private LuaTable table;
+
+    @Setup
+    public void setUp() {
+        smallInt = IntValue.valueOf(7);
+        bigInt = IntValue.valueOf(1_000_000);
+        floatValue = new FloatValue(2.5);
+        string = new StringValue("benchmark");
+        otherString = new StringValue("benchmarks");
+        arrayKey = IntValue.valueOf(TABLE_SIZE / 2);
+        hashIntKey = IntValue.valueOf(TABLE_SIZE * 1000L);
+        floatKey = new FloatValue(TABLE_SIZE / 4);
+
+        table = new LuaTable();
+        for (int i = 1; i <= TABLE_SIZE; i++) {
+            table.put(i, IntValue.valueOf(i));
+        }
+        table.put(string, smallInt);
+        table.put(hashIntKey, smallInt);
+    }
+
+    @Benchmark
+    public Value addSmallInts() {
+        return ValueOperations.calculate(ADD, smallInt, smallInt);
+    }
+
+    @Benchmark
+    public Value addBigInts() {
+        return ValueOperations.calculate(ADD, bigInt, bigInt);
+    }
+
+    @Benchmark
+    public Value mulFloats() {
+        return ValueOperations.calculate(MUL, floatValue, floatValue);
+    }
+
+    @Benchmark
+    public Value divInts() {
+        return ValueOperations.calculate(DIV, bigInt, smallInt);
+    }
+
+    @Benchmark
+    public Value compareInts() {
+        return ValueOperations.compare(LT, smallInt, bigInt);
+    }
+
+    @Benchmark
+    public Value compareIntFloat() {
+        return ValueOperations.compare(LT, bigInt, floatValue);
+    }
+
+    @Benchmark
+    public Value compareStrings() {
+        return ValueOperations.compare(LT, string, otherString);
+    }
+
+    @Benchmark
+    public Value equalStrings() {
+        return ValueOperations.compare(EQ, string, otherString);
+    }
+
+    @Benchmark
+    public Value negate() {
+        return ValueOperations.negate(smallInt);
+    }
+
+    @Benchmark
+    public Value length() {
+        return ValueOperations.length(table);
+    }
+
+    @Benchmark
+    public Value tableGetArray() {
+        return table.get(arrayKey);
+    }
+
+    @Benchmark
+    public Value tableGetFloatKey() {
+        return table.get(floatKey);
+    }
+
+    @Benchmark
+    public Value tableGetHashInt() {
+        return table.get(hashIntKey);
+    }
+
+    @Benchmark
+    public Value tableGetString() {
+        return table.get(string);
+    }
+
+    @Benchmark
+    public void tableSetArray() {
+        table.put(arrayKey, smallInt);
+    }
+
+    @Benchmark
+    public void tableSetString() {
+        table.put(string, smallInt);
+    }
+}
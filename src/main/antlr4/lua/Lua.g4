@@ -18,7 +18,7 @@ stat
 
 retStat : RETURN expList? SEMI? ;
 
-funcCall : NAME LPAREN expList? RPAREN ;
+funcCall : NAME (DOT NAME)? LPAREN expList? RPAREN ;
 
 libCall
     : PRINT LPAREN expList? RPAREN  #printCall
@@ -66,9 +66,12 @@ LINE_COMMENT : '--' ~[\r\n]* -> channel(HIDDEN);
 
 // literals
 NAME            : [a-zA-Z_][a-zA-Z_0-9]* ;
-STRING          : '"' ~ ["\r\n]* '"' ; //add escape sequence
+STRING          : '"' ( ESCAPE | ~["\\\r\n] )* '"' ;
 WS              : [ \t\r\n]+ -> skip ;
 
+// decoded by the compiler, \z skips the line breaks and spaces after it
+fragment ESCAPE : '\\' ( 'z' [ \t\r\n]* | '\r\n' | . ) ;
+
 // numbers
 INT : [0-9]+ ;
 FLOAT : [0-9]+ '.' [0-9]+ ;
\ No newline at end of file
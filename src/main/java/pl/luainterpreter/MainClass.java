@@ -1,23 +1,96 @@
 package pl.luainterpreter;
 
-import lua.LuaLexer;
-import lua.LuaParser;
-import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
+import pl.luainterpreter.interpreter.ChunkCache;
+import pl.luainterpreter.interpreter.ChunkParser;
+import pl.luainterpreter.interpreter.LuaChunk;
 import pl.luainterpreter.interpreter.LuaInterpreter;
+import pl.luainterpreter.interpreter.LuaInterpreter.Engine;
+import pl.luainterpreter.interpreter.ResourceLimits;
+import pl.luainterpreter.program.bytecode.Prototype;
+import pl.luainterpreter.program.profile.Profiler;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class MainClass {
+    private static final String ENGINE_OPTION = "--engine=";
+    private static final String CACHE_OPTION = "--cache-dir=";
+    private static final String PARSE_STATS_OPTION = "--parse-stats";
+    private static final String DUMP_OPTION = "--dump";
+    private static final String MAX_STEPS_OPTION = "--max-steps=";
+    private static final String MAX_MEMORY_OPTION = "--max-memory=";
+    private static final String MAX_DEPTH_OPTION = "--max-depth=";
+    private static final String PROFILE_OPTION = "--profile=";
+    private static final String PROFILE_OUT_OPTION = "--profile-out=";
+    private static final int PROFILE_ROWS = 20;
+
     public static void main(String args[]) throws IOException {
-        if (args.length != 1) {
+        Engine engine = Engine.BYTECODE;
+        String filePath = null;
+        Path cacheDir = null;
+        boolean parseStats = false;
+        boolean dump = false;
+        Profiler profiler = null;
+        Path profileOut = null;
+        ResourceLimits limits = ResourceLimits.UNLIMITED;
+        for (String arg : args) {
+            if (arg.startsWith(ENGINE_OPTION)) {
+                try {
+                    engine = Engine.valueOf(arg.substring(ENGINE_OPTION.length()).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Unknown engine. Available engines: tree, bytecode, jit.");
+                    return;
+                }
+            } else if (arg.startsWith(CACHE_OPTION)) {
+                cacheDir = Path.of(arg.substring(CACHE_OPTION.length()));
+            } else if (arg.equals(PARSE_STATS_OPTION)) {
+                parseStats = true;
+            } else if (arg.equals(DUMP_OPTION)) {
+                dump = true;
+            } else if (arg.startsWith(PROFILE_OPTION)) {
+                switch (arg.substring(PROFILE_OPTION.length())) {
+                    case "sampling" -> profiler = Profiler.sampling();
+                    case "instrumenting" -> profiler = Profiler.instrumenting();
+                    default -> {
+                        System.out.println("Unknown profiler. Available profilers: sampling, instrumenting.");
+                        return;
+                    }
+                }
+            } else if (arg.startsWith(PROFILE_OUT_OPTION)) {
+                profileOut = Path.of(arg.substring(PROFILE_OUT_OPTION.length()));
+            } else if (arg.startsWith(MAX_STEPS_OPTION) || arg.startsWith(MAX_MEMORY_OPTION)
+                    || arg.startsWith(MAX_DEPTH_OPTION)) {
+                try {
+                    long limit = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+                    if (arg.startsWith(MAX_STEPS_OPTION)) {
+                        limits = limits.withMaxSteps(limit);
+                    } else if (arg.startsWith(MAX_MEMORY_OPTION)) {
+                        limits = limits.withMaxMemory(limit);
+                    } else {
+                        limits = limits.withMaxCallDepth(Math.toIntExact(limit));
+                    }
+                } catch (NumberFormatException | ArithmeticException e) {
+                    System.out.println("Invalid limit: " + arg);
+                    return;
+                }
+            } else if (filePath == null) {
+                filePath = arg;
+            } else {
+                filePath = null;
+                break;
+            }
+        }
+
+        if (filePath == null) {
             System.out.println("Wrong number of arguments. Input lua file path should be given as an argument.");
             return;
         }
 
-        String filePath = args[0];
         File inputFile = new File(filePath);
 
         if(!inputFile.isFile()){
@@ -25,12 +98,52 @@ public class MainClass {
             return;
         }
 
-        CharStream charStream = CharStreams.fromPath(inputFile.toPath());
-        LuaLexer lexer = new LuaLexer(charStream);
-        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-        LuaParser parser = new LuaParser(tokenStream);
+        LuaInterpreter interpreter;
+        try {
+            if (dump) {
+                // both engines fold the same constants, the bytecode listing shows it for either of them
+                interpreter = new LuaInterpreter(Engine.BYTECODE, limits);
+                interpreter.setProfiler(profiler);
+                System.out.print(interpreter.compile(CharStreams.fromPath(inputFile.toPath())).getPrototype());
+            } else if (cacheDir != null) {
+                // cached chunks are bytecode, so the cache always runs them on the bytecode engine
+                interpreter = new LuaInterpreter(Engine.BYTECODE, limits);
+                interpreter.setProfiler(profiler);
+                runCached(interpreter, inputFile, new ChunkCache(cacheDir));
+            } else {
+                interpreter = new LuaInterpreter(engine, limits);
+                interpreter.setProfiler(profiler);
+                interpreter.interpret(CharStreams.fromPath(inputFile.toPath()));
+            }
+        } finally {
+            // also for a script that failed, which may be the one worth profiling
+            if (profiler != null) {
+                profiler.writeSummary(System.err, PROFILE_ROWS);
+                if (profileOut != null) {
+                    try (Writer writer = Files.newBufferedWriter(profileOut)) {
+                        profiler.writeCollapsedStacks(writer);
+                    }
+                }
+            }
+        }
+
+        if (parseStats) {
+            ChunkParser chunkParser = interpreter.getChunkParser();
+            System.err.printf("Parsed %d chunk(s) in %.3f ms, %d needed full LL%n", chunkParser.getParseCount(),
+                    chunkParser.getParseNanos() / 1e6, chunkParser.getFallbackCount());
+        }
+    }
 
-        LuaInterpreter interpreter = new LuaInterpreter();
-        interpreter.interpret(parser);
+    private static void runCached(LuaInterpreter interpreter, File inputFile, ChunkCache cache) throws IOException {
+        byte[] source = Files.readAllBytes(inputFile.toPath());
+        Prototype prototype = cache.load(source);
+        LuaChunk chunk;
+        if (prototype == null) {
+            chunk = interpreter.compile(CharStreams.fromStream(new ByteArrayInputStream(source)));
+            cache.store(source, chunk.getPrototype());
+        } else {
+            chunk = new LuaChunk(prototype);
+        }
+        interpreter.execute(chunk);
     }
 }
@@ -0,0 +1,833 @@
+package pl.luainterpreter.interpreter;
+
+import lua.LuaBaseVisitor;
+import lua.LuaParser;
+import lua.LuaParser.*;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.bytecode.Prototype;
+import pl.luainterpreter.program.value.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static pl.luainterpreter.program.bytecode.OpCode.*;
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * Lowers the parse tree to register based bytecode executed by the
+ * {@link pl.luainterpreter.program.bytecode.VirtualMachine}.
+ * <p>
+ * Expressions are compiled into the register held in {@link #target}. Locals occupy the lowest
+ * registers of a function in declaration order, temporaries are allocated above them.
+ */
+public class BytecodeCompiler extends LuaBaseVisitor<Void> {
+
+    private final ConstantFolder folder;
+    private FunctionState fs;
+    private int target;
+
+    public BytecodeCompiler() {
+        this(new StringPool());
+    }
+
+    /**
+     * Creates a compiler taking short string constants from {@code strings}, see {@link StringPool}.
+     */
+    public BytecodeCompiler(StringPool strings) {
+        this.folder = new ConstantFolder(strings);
+    }
+
+    public Prototype compile(ChunkContext ctx) {
+        fs = new FunctionState(null, "main", List.of());
+        visit(ctx.block());
+        fs.line = ctx.getStop().getLine();
+        fs.emit(createBx(RETURN, 0, 0));
+        return fs.toPrototype();
+    }
+
+    //=============================================
+    //================= HELPERS ===================
+    //=============================================
+    //region Helpers
+
+    private void expToReg(ExpContext ctx, int register) {
+        Value constant = folder.constant(ctx);
+        if (constant != null) {
+            fs.emit(createBx(LOADK, register, fs.constant(constant)));
+            return;
+        }
+        int savedTarget = target;
+        target = register;
+        visit(ctx);
+        target = savedTarget;
+    }
+
+    private int expToAnyReg(ExpContext ctx) {
+        if (ctx instanceof VarExpContext) {
+            VarContext varCtx = ((VarExpContext) ctx).var();
+            int local = fs.resolveLocal(varCtx.NAME().getText());
+            if (local >= 0 && varCtx.tableIndex().isEmpty()) {
+                return local;
+            }
+        }
+        int register = fs.allocRegister();
+        expToReg(ctx, register);
+        return register;
+    }
+
+    private int expToRK(ExpContext ctx) {
+        Value constant = folder.constant(ctx);
+        if (constant != null) {
+            return constantToRK(constant);
+        }
+        return expToAnyReg(ctx);
+    }
+
+    private int constantToRK(Value constant) {
+        int index = fs.constant(constant);
+        if (index < RK_CONSTANT) {
+            return index + RK_CONSTANT;
+        }
+        int register = fs.allocRegister();
+        fs.emit(createBx(LOADK, register, index));
+        return register;
+    }
+
+    private int indexToRK(TableIndexContext ctx) {
+        if (ctx.NAME() != null) {
+            return constantToRK(folder.string(ctx.NAME().getText()));
+        }
+        return expToRK(ctx.exp());
+    }
+
+    /**
+     * Returns the constant index of a string key that can be accessed with a field instruction, or -1.
+     */
+    private int fieldKey(TableIndexContext ctx) {
+        return fieldKey(ctx.NAME() != null ? folder.string(ctx.NAME().getText()) : folder.constant(ctx.exp()));
+    }
+
+    private int fieldKey(Value key) {
+        if (!(key instanceof StringValue)) {
+            return -1;
+        }
+        int index = fs.constant(key);
+        return index <= MAX_C ? index : -1;
+    }
+
+    private void getIndexed(int register, int table, TableIndexContext indexCtx) {
+        int field = fieldKey(indexCtx);
+        fs.emit(field >= 0 ?
+                create(GETFIELD, register, table, field) :
+                create(GETTABLE, register, table, indexToRK(indexCtx)));
+    }
+
+    private boolean isChunkLevel() {
+        // functions have no upvalues, so locals outside of any function or loop stay global
+        return fs.parent == null && fs.loopDepth == 0;
+    }
+
+    private void blockBody(BlockContext ctx) {
+        // code emitted after the block, like a loop's back jump, belongs to the enclosing statement
+        int savedLine = fs.line;
+        for (StatContext statCtx : ctx.stat()) {
+            fs.line = statCtx.getStart().getLine();
+            visit(statCtx);
+            fs.freeReg = fs.activeLocals();
+        }
+        if (ctx.retStat() != null) {
+            fs.line = ctx.retStat().getStart().getLine();
+            visit(ctx.retStat());
+            fs.freeReg = fs.activeLocals();
+        }
+        fs.line = savedLine;
+    }
+
+    private void beginLoop() {
+        fs.loopDepth++;
+        fs.breakJumps.push(new ArrayList<>());
+    }
+
+    private void endLoop() {
+        fs.loopDepth--;
+        for (int jump : fs.breakJumps.pop()) {
+            fs.patch(jump, fs.pc());
+        }
+    }
+
+    //endregion
+    //=============================================
+    //================== BLOCK ====================
+    //=============================================
+    //region Block
+
+    @Override
+    public Void visitBlock(BlockContext ctx) {
+        int scope = fs.activeLocals();
+        blockBody(ctx);
+        fs.closeScope(scope);
+        return null;
+    }
+
+    //endregion
+    //=============================================
+    //=============== STATEMENTS ==================
+    //=============================================
+    //region Statements
+
+    @Override
+    public Void visitSemicolonStat(SemicolonStatContext ctx) {
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStat(BreakStatContext ctx) {
+        if (fs.breakJumps.isEmpty()) {
+            throw new LuaError("No loop to break at line " + ctx.getStart().getLine());
+        }
+        fs.breakJumps.peek().add(fs.emit(createSBx(JMP, 0, 0)));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignStat(AssignStatContext ctx) {
+        String varName = ctx.var().NAME().getText();
+        if (ctx.LOCAL() != null && !isChunkLevel()) {
+            int register = fs.allocRegister();
+            expToReg(ctx.exp(), register);
+            fs.declareLocal(varName);
+            return null;
+        }
+
+        int local = fs.resolveLocal(varName);
+        List<TableIndexContext> indexes = ctx.var().tableIndex();
+        if (indexes.isEmpty()) {
+            if (local >= 0) {
+                expToReg(ctx.exp(), local);
+            } else {
+                fs.emit(createBx(SETGLOBAL, expToAnyReg(ctx.exp()), fs.name(varName)));
+            }
+            return null;
+        }
+
+        int table = local;
+        if (table < 0) {
+            table = fs.allocRegister();
+            fs.emit(createBx(GETGLOBAL, table, fs.name(varName)));
+        }
+        for (TableIndexContext indexCtx : indexes.subList(0, indexes.size() - 1)) {
+            int register = table >= fs.activeLocals() ? table : fs.allocRegister();
+            getIndexed(register, table, indexCtx);
+            table = register;
+            fs.freeReg = register + 1;
+        }
+        TableIndexContext keyCtx = indexes.get(indexes.size() - 1);
+        int field = fieldKey(keyCtx);
+        if (field >= 0) {
+            fs.emit(create(SETFIELD, table, field, expToRK(ctx.exp())));
+        } else {
+            int key = indexToRK(keyCtx);
+            fs.emit(create(SETTABLE, table, key, expToRK(ctx.exp())));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStat(IfStatContext ctx) {
+        List<ExpContext> conditions = ctx.exp();
+        List<BlockContext> blocks = ctx.block();
+        List<Integer> jumpsToEnd = new ArrayList<>();
+        boolean decided = false;
+        for (int i = 0; i < blocks.size(); i++) {
+            int start = fs.pc();
+            if (decided) {
+                // dead branches are still compiled, so they report the same errors
+                visit(blocks.get(i));
+                fs.discardFrom(start);
+                continue;
+            } else if (i == conditions.size()) {
+                visit(blocks.get(i)); //ELSE
+                continue;
+            }
+            ExpContext conditionCtx = folder.condition(conditions.get(i));
+            Value constant = folder.constant(conditionCtx);
+            if (constant != null) {
+                visit(blocks.get(i));
+                if (constant.isTruthy()) {
+                    decided = true;
+                } else {
+                    fs.discardFrom(start);
+                }
+                continue;
+            }
+            int condition = expToAnyReg(conditionCtx);
+            fs.freeReg = fs.activeLocals();
+            int jumpToNext = fs.emit(createSBx(JMPF, condition, 0));
+            visit(blocks.get(i));
+            if (i < blocks.size() - 1) {
+                jumpsToEnd.add(fs.emit(createSBx(JMP, 0, 0)));
+            }
+            fs.patch(jumpToNext, fs.pc());
+        }
+        for (int jump : jumpsToEnd) {
+            fs.patch(jump, fs.pc());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFuncDefStat(FuncDefStatContext ctx) {
+        String funcName = ctx.NAME().getText();
+        List<String> args = ctx.argList() == null ? List.of() : ctx.argList().NAME().stream()
+                .map(TerminalNode::getText)
+                .collect(Collectors.toList());
+        FunctionState parent = fs;
+        fs = new FunctionState(parent, funcName, args);
+        fs.line = ctx.getStart().getLine();
+        visit(ctx.block());
+        fs.line = ctx.END().getSymbol().getLine();
+        fs.emit(createBx(RETURN, 0, 0));
+        Prototype prototype = fs.toPrototype();
+        fs = parent;
+        fs.prototypes.add(prototype);
+        fs.emit(createBx(FUNCDEF, 0, fs.prototypes.size() - 1));
+        return null;
+    }
+
+    @Override
+    public Void visitRetStat(RetStatContext ctx) {
+        List<ExpContext> exps = ctx.expList() == null ? List.of() : ctx.expList().exp();
+        if (exps.size() == 1 && exps.get(0) instanceof FuncCallExpContext) {
+            FuncCallContext call = ((FuncCallExpContext) exps.get(0)).funcCall();
+            int base = fs.freeReg;
+            int numArgs = argsToRegs(call.expList(), base);
+            fs.emit(create(TAILCALL, base, numArgs, functionName(call)));
+            // only reached when the callee is a native function, which leaves its results from base on
+            fs.emit(create(RETURN, base, MULTI, 0));
+            fs.freeReg = base;
+            return null;
+        } else if (exps.size() == 1 && !(exps.get(0) instanceof FuncCallExpContext)) {
+            fs.emit(create(RETURN, expToAnyReg(exps.get(0)), 1, 0));
+            return null;
+        }
+        int base = fs.freeReg;
+        fs.emit(create(RETURN, base, expsToRegs(exps, base), 0));
+        return null;
+    }
+
+    @Override
+    public Void visitFuncCallStat(FuncCallStatContext ctx) {
+        callToReg(ctx, fs.allocRegister());
+        return null;
+    }
+
+    @Override
+    public Void visitLibCallStat(LibCallStatContext ctx) {
+        callToReg(ctx, fs.allocRegister());
+        return null;
+    }
+
+    private void callToReg(StatContext ctx, int register) {
+        int savedTarget = target;
+        target = register;
+        visitChildren(ctx);
+        target = savedTarget;
+    }
+
+    //endregion
+    //=============================================
+    //============== FUNCTION CALLS ===============
+    //=============================================
+    //region Function calls
+
+    @Override
+    public Void visitFuncCall(FuncCallContext ctx) {
+        int result = target;
+        int saved = fs.freeReg;
+        int base = result == saved - 1 && result >= fs.activeLocals() ? result : saved;
+        int numArgs = argsToRegs(ctx.expList(), base);
+        fs.emit(create(CALL, base, numArgs, functionName(ctx)));
+        fs.freeReg = saved;
+        if (result != base) {
+            fs.emit(create(MOVE, result, base, 0));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintCall(PrintCallContext ctx) {
+        int result = target;
+        int saved = fs.freeReg;
+        int numArgs = argsToRegs(ctx.expList(), saved);
+        fs.emit(create(PRINT, saved, numArgs, 0));
+        fs.freeReg = saved;
+        fs.emit(createBx(LOADK, result, fs.constant(NIL)));
+        return null;
+    }
+
+    @Override
+    public Void visitReadCall(ReadCallContext ctx) {
+        Value valueType = ctx.string() == null ? folder.string("") : folder.string(ctx.string());
+        fs.emit(createBx(READ, target, fs.constant(valueType)));
+        return null;
+    }
+
+    private int functionName(FuncCallContext ctx) {
+        int funcName = fs.name(LuaVisitor.functionName(ctx));
+        if (funcName > MAX_C) {
+            throw new LuaError("Too many names in function " + fs.name);
+        }
+        return funcName;
+    }
+
+    private int argsToRegs(ExpListContext ctx, int base) {
+        List<ExpContext> args = ctx == null ? List.of() : ctx.exp();
+        int numArgs = expsToRegs(args, base);
+        if (args.isEmpty()) {
+            fs.allocRegister();
+        }
+        return numArgs;
+    }
+
+    /**
+     * Evaluates the expressions into consecutive registers from {@code base} and returns their number, or
+     * {@code MULTI} when the last one is a call, whose results all follow the other values.
+     */
+    private int expsToRegs(List<ExpContext> exps, int base) {
+        fs.freeReg = base;
+        for (ExpContext exp : exps) {
+            expToReg(exp, fs.allocRegister());
+        }
+        return !exps.isEmpty() && exps.get(exps.size() - 1) instanceof FuncCallExpContext ? MULTI : exps.size();
+    }
+
+    //endregion
+    //=============================================
+    //=================== LOOPS ===================
+    //=============================================
+    //region Loops
+
+    @Override
+    public Void visitLoopStat(LoopStatContext ctx) {
+        return visit(ctx.loop());
+    }
+
+    @Override
+    public Void visitDoLoop(DoLoopContext ctx) {
+        fs.loopDepth++;
+        visit(ctx.block());
+        fs.loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileLoop(WhileLoopContext ctx) {
+        beginLoop();
+        int start = fs.pc();
+        ExpContext conditionCtx = folder.condition(ctx.exp());
+        Value constant = folder.constant(conditionCtx);
+        int exit = -1;
+        if (constant == null) {
+            int condition = expToAnyReg(conditionCtx);
+            fs.freeReg = fs.activeLocals();
+            exit = fs.emit(createSBx(JMPF, condition, 0));
+        }
+        visit(ctx.block());
+        fs.patch(fs.emit(createSBx(JMP, 0, 0)), start);
+        if (exit >= 0) {
+            fs.patch(exit, fs.pc());
+        }
+        endLoop();
+        if (constant != null && !constant.isTruthy()) {
+            fs.discardFrom(start);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitRepeatLoop(RepeatLoopContext ctx) {
+        beginLoop();
+        int start = fs.pc();
+        int scope = fs.activeLocals();
+        blockBody(ctx.block());
+        int condition = expToAnyReg(folder.condition(ctx.exp()));
+        fs.patch(fs.emit(createSBx(JMPF, condition, 0)), start);
+        fs.closeScope(scope);
+        endLoop();
+        return null;
+    }
+
+    @Override
+    public Void visitForLoop(ForLoopContext ctx) {
+        beginLoop();
+        int scope = fs.activeLocals();
+        int base = fs.allocRegister();
+        expToReg(ctx.exp(0), base);
+        expToReg(ctx.exp(1), fs.allocRegister());
+        int step = fs.allocRegister();
+        if (ctx.exp().size() == 3) {
+            expToReg(ctx.exp(2), step);
+        } else {
+            fs.emit(createBx(LOADK, step, fs.constant(IntValue.valueOf(1))));
+        }
+        fs.declareLocal("(for index)");
+        fs.declareLocal("(for limit)");
+        fs.declareLocal("(for step)");
+
+        int prep = fs.emit(createSBx(FORPREP, base, 0));
+        // every iteration starts at FORINDEX, so it belongs to the body's first line like in Lua,
+        // where the back jump is the only line event of the loop header
+        int forLine = fs.line;
+        fs.line = ctx.block().getStart().getLine();
+        int bodyStart = fs.emit(createBx(FORINDEX, base, 0));
+        fs.line = forLine;
+        int control = fs.allocRegister();
+        fs.declareLocal(ctx.NAME().getText());
+        visit(ctx.block());
+        if (!fs.isUsed(control)) {
+            // nothing reads the control variable, so the counter is never boxed into it
+            fs.code.set(bodyStart, createSBx(JMP, 0, 0));
+            bodyStart++;
+        }
+        fs.patch(fs.emit(createSBx(FORLOOP, base, 0)), bodyStart);
+        fs.patch(prep, fs.pc());
+        fs.closeScope(scope);
+        endLoop();
+        return null;
+    }
+
+    //endregion
+    //=============================================
+    //================ EXPRESSIONS ================
+    //=============================================
+    //region Expressions
+
+    @Override
+    public Void visitNilExp(NilExpContext ctx) {
+        return loadConstant(ctx);
+    }
+
+    @Override
+    public Void visitBooleanExp(BooleanExpContext ctx) {
+        return loadConstant(ctx);
+    }
+
+    @Override
+    public Void visitNumberExp(NumberExpContext ctx) {
+        return loadConstant(ctx);
+    }
+
+    @Override
+    public Void visitStringExp(StringExpContext ctx) {
+        return loadConstant(ctx);
+    }
+
+    private Void loadConstant(ExpContext ctx) {
+        fs.emit(createBx(LOADK, target, fs.constant(folder.constant(ctx))));
+        return null;
+    }
+
+    @Override
+    public Void visitVar(VarContext ctx) {
+        String varName = ctx.NAME().getText();
+        int local = fs.resolveLocal(varName);
+        List<TableIndexContext> indexes = ctx.tableIndex();
+        if (indexes.isEmpty()) {
+            if (local < 0) {
+                fs.emit(createBx(GETGLOBAL, target, fs.name(varName)));
+            } else if (local != target) {
+                fs.emit(create(MOVE, target, local, 0));
+            }
+            return null;
+        }
+
+        int result = target < fs.activeLocals() ? fs.allocRegister() : target;
+        int table = local;
+        if (table < 0) {
+            fs.emit(createBx(GETGLOBAL, result, fs.name(varName)));
+            table = result;
+        }
+        for (TableIndexContext indexCtx : indexes) {
+            int saved = fs.freeReg;
+            getIndexed(result, table, indexCtx);
+            fs.freeReg = saved;
+            table = result;
+        }
+        if (result != target) {
+            fs.emit(create(MOVE, target, result, 0));
+        }
+        return null;
+    }
+
+    //endregion
+    //=============================================
+    //================== TABLES ===================
+    //=============================================
+    //region Tables
+
+    @Override
+    public Void visitTableConstructor(TableConstructorContext ctx) {
+        int table = target < fs.activeLocals() ? fs.allocRegister() : target;
+        List<KeyValueContext> keyValues = ctx.keyValueList() == null ?
+                List.of() : ctx.keyValueList().keyValue();
+        int arraySize = (int) keyValues.stream().filter(keyValueCtx -> keyValueCtx.NAME() == null).count();
+        fs.emit(create(NEWTABLE, table, Math.min(arraySize, MAX_C), Math.min(keyValues.size() - arraySize, MAX_C)));
+        int numberIndex = 1;
+        for (KeyValueContext keyValueCtx : keyValues) {
+            int saved = fs.freeReg;
+            Value key = keyValueCtx.NAME() == null ?
+                    IntValue.valueOf(numberIndex++) :
+                    folder.string(keyValueCtx.NAME().getText());
+            int field = fieldKey(key);
+            if (field >= 0) {
+                fs.emit(create(SETFIELD, table, field, expToRK(keyValueCtx.exp())));
+            } else {
+                int keyRK = constantToRK(key);
+                fs.emit(create(SETTABLE, table, keyRK, expToRK(keyValueCtx.exp())));
+            }
+            fs.freeReg = saved;
+        }
+        if (table != target) {
+            fs.emit(create(MOVE, target, table, 0));
+        }
+        return null;
+    }
+
+    //endregion
+    //=============================================
+    //================ OPERATIONS =================
+    //=============================================
+    //region Operations
+
+    @Override
+    public Void visitArithmeticOp(ArithmeticOpContext ctx) {
+        int op = switch (ctx.op.getType()) {
+            case LuaParser.ADD -> ADD;
+            case LuaParser.SUB -> SUB;
+            case LuaParser.MUL -> MUL;
+            case LuaParser.DIV -> DIV;
+            case LuaParser.MOD -> MOD;
+            default -> throw new IllegalStateException("Unexpected arithmetic operation: " + ctx.op.getType());
+        };
+        return binaryOp(op, ctx.exp(0), ctx.exp(1));
+    }
+
+    @Override
+    public Void visitRelationalOp(RelationalOpContext ctx) {
+        int op = switch (ctx.op.getType()) {
+            case LuaParser.EQ -> EQ;
+            case LuaParser.NEQ -> NE;
+            case LuaParser.GT -> GT;
+            case LuaParser.GTE -> GE;
+            case LuaParser.LT -> LT;
+            case LuaParser.LTE -> LE;
+            default -> throw new IllegalStateException("Unexpected relational operation: " + ctx.op.getType());
+        };
+        return binaryOp(op, ctx.exp(0), ctx.exp(1));
+    }
+
+    @Override
+    public Void visitLogicalOp(LogicalOpContext ctx) {
+        int op = switch (ctx.op.getType()) {
+            case LuaParser.AND -> AND;
+            case LuaParser.OR -> OR;
+            default -> throw new IllegalStateException("Unexpected logical operation: " + ctx.op.getType());
+        };
+        return binaryOp(op, ctx.exp(0), ctx.exp(1));
+    }
+
+    @Override
+    public Void visitUnaryOp(UnaryOpContext ctx) {
+        RelationalOpContext comparison = folder.negatedComparison(ctx);
+        if (comparison != null) {
+            int op = ConstantFolder.negate(comparison.op.getType()) == LuaParser.EQ ? EQ : NE;
+            return binaryOp(op, comparison.exp(0), comparison.exp(1));
+        }
+        int op = switch (ctx.op.getType()) {
+            case LuaParser.NOT -> NOT;
+            case LuaParser.SUB -> UNM;
+            case LuaParser.LEN -> LEN;
+            default -> throw new IllegalStateException("Unexpected unary operation: " + ctx.op.getType());
+        };
+        int saved = fs.freeReg;
+        int operand = expToRK(ctx.exp());
+        fs.freeReg = saved;
+        fs.emit(create(op, target, operand, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitConcatOp(ConcatOpContext ctx) {
+        int saved = fs.freeReg;
+        Value pending = null;
+        for (ExpContext operand : folder.concatOperands(ctx)) {
+            // neighbouring constants are joined at compile time, "a" .. x .. "b" .. "c" has three operands
+            Value constant = folder.constant(operand);
+            if (constant != null) {
+                pending = pending == null ? constant : folder.concat(pending, constant);
+                continue;
+            }
+            if (pending != null) {
+                fs.emit(createBx(LOADK, fs.allocRegister(), fs.constant(pending)));
+                pending = null;
+            }
+            expToReg(operand, fs.allocRegister());
+        }
+        if (pending != null) {
+            fs.emit(createBx(LOADK, fs.allocRegister(), fs.constant(pending)));
+        }
+        fs.emit(create(CONCAT, target, saved, fs.freeReg - 1));
+        fs.freeReg = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitPowerOp(PowerOpContext ctx) {
+        return binaryOp(POW, ctx.exp(0), ctx.exp(1));
+    }
+
+    private Void binaryOp(int op, ExpContext left, ExpContext right) {
+        int saved = fs.freeReg;
+        int leftRK = expToRK(left);
+        int rightRK = expToRK(right);
+        fs.freeReg = saved;
+        fs.emit(create(op, target, leftRK, rightRK));
+        return null;
+    }
+
+    //endregion
+    //=============================================
+    //============== FUNCTION STATE ===============
+    //=============================================
+    //region Function state
+
+    private static class FunctionState {
+        private final FunctionState parent;
+        private final String name;
+        private final int numParams;
+        private final List<Integer> code = new ArrayList<>();
+        private final List<Integer> lines = new ArrayList<>();
+        private final List<Value> constants = new ArrayList<>();
+        private final Map<Value, Integer> constantIndexes = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndexes = new HashMap<>();
+        private final List<Prototype> prototypes = new ArrayList<>();
+        private final List<String> locals = new ArrayList<>();
+        private final Deque<List<Integer>> breakJumps = new ArrayDeque<>();
+        private final BitSet used = new BitSet();
+        private int freeReg;
+        private int maxStack;
+        private int loopDepth;
+        private int line;
+
+        private FunctionState(FunctionState parent, String name, List<String> params) {
+            this.parent = parent;
+            this.name = name;
+            this.numParams = params.size();
+            for (String param : params) {
+                allocRegister();
+                declareLocal(param);
+            }
+        }
+
+        private int emit(int instruction) {
+            code.add(instruction);
+            lines.add(line);
+            return code.size() - 1;
+        }
+
+        private int pc() {
+            return code.size();
+        }
+
+        private void patch(int jump, int destination) {
+            int offset = destination - (jump + 1);
+            if (Math.abs(offset) > MAX_SBX) {
+                throw new LuaError("Control structure too long in function " + name);
+            }
+            int instruction = code.get(jump);
+            code.set(jump, createSBx(op(instruction), a(instruction), offset));
+        }
+
+        /**
+         * Drops the code emitted from {@code pc} on, including the breaks it contains.
+         */
+        private void discardFrom(int pc) {
+            code.subList(pc, code.size()).clear();
+            lines.subList(pc, lines.size()).clear();
+            for (List<Integer> jumps : breakJumps) {
+                jumps.removeIf(jump -> jump >= pc);
+            }
+        }
+
+        private int allocRegister() {
+            int register = freeReg++;
+            if (freeReg > maxStack) {
+                maxStack = freeReg;
+                if (maxStack > MAX_REGISTERS) {
+                    throw new LuaError("Function or expression too complex in function " + name);
+                }
+            }
+            return register;
+        }
+
+        private int activeLocals() {
+            return locals.size();
+        }
+
+        private void declareLocal(String localName) {
+            locals.add(localName);
+            used.clear(locals.size() - 1);
+        }
+
+        private int resolveLocal(String localName) {
+            int local = locals.lastIndexOf(localName);
+            if (local >= 0) {
+                used.set(local);
+            }
+            return local;
+        }
+
+        private boolean isUsed(int local) {
+            return used.get(local);
+        }
+
+        private void closeScope(int activeLocals) {
+            locals.subList(activeLocals, locals.size()).clear();
+            freeReg = activeLocals;
+        }
+
+        private int constant(Value value) {
+            return index(constantIndexes, constants, value);
+        }
+
+        private int name(String varName) {
+            return index(nameIndexes, names, varName);
+        }
+
+        private static <T> int index(Map<T, Integer> indexes, List<T> pool, T element) {
+            Integer index = indexes.get(element);
+            if (index == null) {
+                index = pool.size();
+                if (index > MAX_BX) {
+                    throw new LuaError("Too many constants");
+                }
+                pool.add(element);
+                indexes.put(element, index);
+            }
+            return index;
+        }
+
+        private Prototype toPrototype() {
+            return new Prototype(name, numParams, maxStack,
+                    code.stream().mapToInt(Integer::intValue).toArray(),
+                    lines.stream().mapToInt(Integer::intValue).toArray(),
+                    constants.toArray(new Value[0]),
+                    names.toArray(new String[0]),
+                    prototypes.toArray(new Prototype[0]));
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,70 @@
+package pl.luainterpreter.interpreter;
+
+import pl.luainterpreter.program.bytecode.ChunkFormat;
+import pl.luainterpreter.program.bytecode.Prototype;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory of precompiled chunks keyed by the SHA-256 hash of the script source. Entries are
+ * written to a temporary file and moved into place, so concurrent runs never see half-written
+ * chunks; an unreadable or outdated entry is treated as a miss.
+ */
+public class ChunkCache {
+    private static final String EXTENSION = ".luac";
+
+    private final Path directory;
+
+    public ChunkCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public Prototype load(byte[] source) {
+        Path entry = entry(source);
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ChunkFormat.read(buffer);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Ignoring invalid cache entry " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void store(byte[] source, Prototype chunk) {
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "chunk", EXTENSION + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    ChunkFormat.write(chunk, out);
+                }
+                Files.move(temp, entry(source), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not cache compiled chunk: " + e.getMessage());
+        }
+    }
+
+    private Path entry(byte[] source) {
+        try {
+            StringBuilder name = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(source)) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(EXTENSION).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
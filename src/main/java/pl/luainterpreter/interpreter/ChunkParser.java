@@ -0,0 +1,88 @@
+package pl.luainterpreter.interpreter;
+
+import lua.LuaLexer;
+import lua.LuaParser;
+import lua.LuaParser.ChunkContext;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.List;
+
+/**
+ * Parses scripts in two stages: with the cheap SLL prediction first and, only when SLL bails out,
+ * once more with full LL. SLL fails only on ambiguous input or real syntax errors, so almost every
+ * script is parsed by the first stage alone.
+ * <p>
+ * The lexer and parser are reused for every script given as a {@link CharStream}; the DFA cache
+ * built during prediction is shared by all parsers, so it stays warm between scripts. Instances are
+ * not thread safe.
+ */
+public class ChunkParser {
+    private final LuaLexer lexer = new LuaLexer(null);
+    private final CommonTokenStream tokens = new CommonTokenStream(lexer);
+    private final LuaParser parser = new LuaParser(tokens);
+
+    private long parseCount;
+    private long fallbackCount;
+    private long parseNanos;
+
+    public ChunkContext parse(CharStream input) {
+        lexer.setInputStream(input);
+        tokens.setTokenSource(lexer);
+        parser.setTokenStream(tokens);
+        return parse(parser);
+    }
+
+    public ChunkContext parse(LuaParser parser) {
+        long start = System.nanoTime();
+        try {
+            parser.setErrorHandler(new BailErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            // syntax errors are reported by the LL stage only
+            List<? extends ANTLRErrorListener> listeners = List.copyOf(parser.getErrorListeners());
+            parser.removeErrorListeners();
+            try {
+                return parser.chunk();
+            } catch (ParseCancellationException e) {
+                fallbackCount++;
+                parser.reset();
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                listeners.forEach(parser::addErrorListener);
+                ChunkContext chunk = parser.chunk();
+                // the listeners reported the errors, a tree recovered from them must not run
+                if (parser.getNumberOfSyntaxErrors() > 0) {
+                    throw new ParseCancellationException(parser.getNumberOfSyntaxErrors() + " syntax error(s)");
+                }
+                return chunk;
+            } finally {
+                if (parser.getErrorListeners().isEmpty()) {
+                    listeners.forEach(parser::addErrorListener);
+                }
+            }
+        } finally {
+            parseCount++;
+            parseNanos += System.nanoTime() - start;
+        }
+    }
+
+    public long getParseCount() {
+        return parseCount;
+    }
+
+    /**
+     * Returns how many of the parsed scripts needed the second, full LL stage.
+     */
+    public long getFallbackCount() {
+        return fallbackCount;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+}
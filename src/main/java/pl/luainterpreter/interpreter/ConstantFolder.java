@@ -0,0 +1,307 @@
+package pl.luainterpreter.interpreter;
+
+import lua.LuaBaseVisitor;
+import lua.LuaParser.*;
+import org.antlr.v4.runtime.tree.RuleNode;
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.NumberValue;
+import pl.luainterpreter.program.value.StringPool;
+import pl.luainterpreter.program.value.StringValue;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.Value.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+import static lua.LuaParser.*;
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * Static optimizer shared by both compilers. It computes the value of every expression whose
+ * operands are known at compile time, once per parse tree node, so literals are parsed once and
+ * constant subexpressions like {@code 2^10} or {@code "a" .. "b"} never run.
+ * <p>
+ * An operation that fails on its constant operands is not folded, the script still raises the error
+ * when it gets there.
+ */
+class ConstantFolder extends LuaBaseVisitor<Value> {
+    private final Map<ExpContext, Value> folded = new IdentityHashMap<>();
+    private final Map<String, Value> strings = new HashMap<>();
+    private final StringPool pool;
+
+    ConstantFolder(StringPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the value of the expression, or {@code null} when it is only known at runtime.
+     */
+    Value constant(ExpContext ctx) {
+        if (folded.containsKey(ctx)) {
+            return folded.get(ctx);
+        }
+        Value value = visit(ctx);
+        folded.put(ctx, value);
+        return value;
+    }
+
+    /**
+     * Returns the string of a literal: its escape sequences decoded and its other characters encoded as UTF-8.
+     */
+    Value string(StringContext ctx) {
+        String text = ctx.getText();
+        return string(decode(text.substring(1, text.length() - 1), ctx.getStart().getLine()));
+    }
+
+    /**
+     * Returns the string of the bytes {@code text}'s chars stand for, see {@link StringValue}. Equal
+     * constants of the chunk are one instance, and short ones are also shared with other chunks through
+     * the pool.
+     */
+    Value string(String text) {
+        return strings.computeIfAbsent(text, constant -> pool.intern(new StringValue(constant)));
+    }
+
+    private static String decode(String text, int line) {
+        StringValue.Builder bytes = new StringValue.Builder(text.length());
+        int i = 0;
+        while (i < text.length()) {
+            int c = text.codePointAt(i);
+            i += Character.charCount(c);
+            if (c != '\\') {
+                appendUtf8(bytes, c);
+                continue;
+            }
+            char escape = text.charAt(i++);
+            switch (escape) {
+                case 'a' -> bytes.append((byte) 7);
+                case 'b' -> bytes.append((byte) '\b');
+                case 'f' -> bytes.append((byte) '\f');
+                case 'n', '\n' -> bytes.append((byte) '\n');
+                case 'r' -> bytes.append((byte) '\r');
+                case '\r' -> {
+                    // \ before a CRLF line break stands for one newline
+                    bytes.append((byte) '\n');
+                    if (i < text.length() && text.charAt(i) == '\n') {
+                        i++;
+                    }
+                }
+                case 't' -> bytes.append((byte) '\t');
+                case 'v' -> bytes.append((byte) 11);
+                case '\\', '"', '\'' -> bytes.append((byte) escape);
+                case 'z' -> {
+                    while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+                        i++;
+                    }
+                }
+                case 'x' -> {
+                    int end = i + 2;
+                    if (end > text.length() || Character.digit(text.charAt(i), 16) < 0
+                            || Character.digit(text.charAt(i + 1), 16) < 0) {
+                        throw invalidEscape("\\x", line);
+                    }
+                    bytes.append((byte) Integer.parseInt(text.substring(i, end), 16));
+                    i = end;
+                }
+                case 'u' -> {
+                    int end = text.indexOf('}', i);
+                    if (i >= text.length() || text.charAt(i) != '{' || end < 0 || end - i > 9
+                            || !text.substring(i + 1, end).matches("[0-9a-fA-F]+")) {
+                        throw invalidEscape("\\u", line);
+                    }
+                    long codePoint = Long.parseLong(text.substring(i + 1, end), 16);
+                    if (codePoint > Integer.MAX_VALUE) {
+                        throw invalidEscape("\\u", line);
+                    }
+                    appendUtf8(bytes, (int) codePoint);
+                    i = end + 1;
+                }
+                default -> {
+                    if (escape < '0' || escape > '9') {
+                        throw invalidEscape("\\" + escape, line);
+                    }
+                    // up to three decimal digits
+                    int end = i - 1;
+                    int value = 0;
+                    while (end < text.length() && end < i + 2 && Character.isDigit(text.charAt(end))) {
+                        value = 10 * value + text.charAt(end++) - '0';
+                    }
+                    if (value > 255) {
+                        throw invalidEscape("\\" + value, line);
+                    }
+                    bytes.append((byte) value);
+                    i = end;
+                }
+            }
+        }
+        return bytes.toStringValue().toString();
+    }
+
+    /**
+     * Appends a code point like Lua's {@code \\u} escape, in up to six bytes for values above Unicode's range.
+     */
+    private static void appendUtf8(StringValue.Builder bytes, int codePoint) {
+        if (codePoint < 0x80) {
+            bytes.append((byte) codePoint);
+            return;
+        }
+        int count = codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : codePoint < 0x200000 ? 4
+                : codePoint < 0x4000000 ? 5 : 6;
+        bytes.append((byte) ((0xFF00 >> count) | codePoint >>> 6 * (count - 1)));
+        for (int shift = 6 * (count - 2); shift >= 0; shift -= 6) {
+            bytes.append((byte) (0x80 | codePoint >>> shift & 0x3F));
+        }
+    }
+
+    private static LuaError invalidEscape(String escape, int line) {
+        return new LuaError("Invalid escape sequence '" + escape + "' in string at line " + line);
+    }
+
+    /**
+     * Strips double negations from a condition, {@code not not x} selects the same branch as {@code x}.
+     */
+    ExpContext condition(ExpContext ctx) {
+        while (isNot(ctx) && isNot(((UnaryOpContext) ctx).exp())) {
+            ctx = ((UnaryOpContext) ((UnaryOpContext) ctx).exp()).exp();
+        }
+        return ctx;
+    }
+
+    /**
+     * Returns the comparison computing {@code not (a op b)} directly, or {@code null} if there is none.
+     * Only equality can be inverted, {@code not (a < b)} differs from {@code a >= b} for NaN.
+     */
+    RelationalOpContext negatedComparison(UnaryOpContext ctx) {
+        if (ctx.op.getType() == NOT && ctx.exp() instanceof RelationalOpContext) {
+            RelationalOpContext comparison = (RelationalOpContext) ctx.exp();
+            int op = comparison.op.getType();
+            return op == EQ || op == NEQ ? comparison : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the operands of a chain of concatenations in order, so it can be evaluated in one pass.
+     */
+    List<ExpContext> concatOperands(ConcatOpContext ctx) {
+        List<ExpContext> operands = new ArrayList<>();
+        addConcatOperands(ctx, operands);
+        return operands;
+    }
+
+    private void addConcatOperands(ExpContext ctx, List<ExpContext> operands) {
+        if (ctx instanceof ConcatOpContext && constant(ctx) == null) {
+            addConcatOperands(((ConcatOpContext) ctx).exp(0), operands);
+            addConcatOperands(((ConcatOpContext) ctx).exp(1), operands);
+        } else {
+            operands.add(ctx);
+        }
+    }
+
+    /**
+     * Joins two constant operands of a concatenation chain.
+     */
+    Value concat(Value left, Value right) {
+        return string(left.toString() + right.toString());
+    }
+
+    static int negate(int comparisonOp) {
+        return comparisonOp == EQ ? NEQ : EQ;
+    }
+
+    private static boolean isNot(ExpContext ctx) {
+        return ctx instanceof UnaryOpContext && ((UnaryOpContext) ctx).op.getType() == NOT;
+    }
+
+    @Override
+    public Value visitChildren(RuleNode node) {
+        // variables, calls and table constructors are never constant
+        return null;
+    }
+
+    @Override
+    public Value visitNilExp(NilExpContext ctx) {
+        return NIL;
+    }
+
+    @Override
+    public Value visitBooleanExp(BooleanExpContext ctx) {
+        return BooleanValue.valueOf(ctx.logical().TRUE() != null);
+    }
+
+    @Override
+    public Value visitNumberExp(NumberExpContext ctx) {
+        NumberContext numberCtx = ctx.number();
+        return NumberValue.parse(numberCtx.INT() != null ? numberCtx.INT().getText() : numberCtx.FLOAT().getText());
+    }
+
+    @Override
+    public Value visitStringExp(StringExpContext ctx) {
+        return string(ctx.string());
+    }
+
+    @Override
+    public Value visitArithmeticOp(ArithmeticOpContext ctx) {
+        int op = ctx.op.getType();
+        return fold(ctx.exp(0), ctx.exp(1), (left, right) -> ValueOperations.calculate(op, left, right));
+    }
+
+    @Override
+    public Value visitRelationalOp(RelationalOpContext ctx) {
+        int op = ctx.op.getType();
+        return fold(ctx.exp(0), ctx.exp(1), (left, right) -> ValueOperations.compare(op, left, right));
+    }
+
+    @Override
+    public Value visitLogicalOp(LogicalOpContext ctx) {
+        return fold(ctx.exp(0), ctx.exp(1), (left, right) -> BooleanValue.valueOf(ctx.op.getType() == AND ?
+                left.isTruthy() && right.isTruthy() :
+                left.isTruthy() || right.isTruthy()));
+    }
+
+    @Override
+    public Value visitUnaryOp(UnaryOpContext ctx) {
+        Value operand = constant(ctx.exp());
+        if (operand == null) {
+            return null;
+        }
+        try {
+            return switch (ctx.op.getType()) {
+                case NOT -> ValueOperations.not(operand);
+                case SUB -> ValueOperations.negate(operand);
+                case LEN -> ValueOperations.length(operand);
+                default -> throw new IllegalStateException("Unexpected unary operation: " + ctx.op.getType());
+            };
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Value visitConcatOp(ConcatOpContext ctx) {
+        return fold(ctx.exp(0), ctx.exp(1), this::concat);
+    }
+
+    @Override
+    public Value visitPowerOp(PowerOpContext ctx) {
+        return fold(ctx.exp(0), ctx.exp(1), ValueOperations::calculatePower);
+    }
+
+    private Value fold(ExpContext leftCtx, ExpContext rightCtx, BinaryOperator<Value> operation) {
+        Value left = constant(leftCtx);
+        Value right = constant(rightCtx);
+        if (left == null || right == null) {
+            return null;
+        }
+        try {
+            return operation.apply(left, right);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
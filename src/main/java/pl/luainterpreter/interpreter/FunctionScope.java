@@ -0,0 +1,115 @@
+package pl.luainterpreter.interpreter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Assigns frame slots to the locals of a single function while it is being compiled.
+ * Slots of locals whose block has ended are reused by later declarations.
+ */
+class FunctionScope {
+    private final FunctionScope parent;
+    private final List<String> locals = new ArrayList<>();
+    private final List<String> globals = new ArrayList<>();
+    private final List<String> callees = new ArrayList<>();
+    private final BitSet used = new BitSet();
+    private int frameSize;
+    private int loopDepth;
+    private int breakableDepth;
+
+    FunctionScope(FunctionScope parent, List<String> params) {
+        this.parent = parent;
+        params.forEach(this::declare);
+    }
+
+    FunctionScope getParent() {
+        return parent;
+    }
+
+    int declare(String name) {
+        locals.add(name);
+        frameSize = Math.max(frameSize, locals.size());
+        used.clear(locals.size() - 1);
+        return locals.size() - 1;
+    }
+
+    int resolve(String name) {
+        int slot = locals.lastIndexOf(name);
+        if (slot >= 0) {
+            used.set(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns whether the local in the slot was read or assigned since its declaration.
+     */
+    boolean isUsed(int slot) {
+        return used.get(slot);
+    }
+
+    int global(String name) {
+        int slot = globals.indexOf(name);
+        if (slot < 0) {
+            globals.add(name);
+            slot = globals.size() - 1;
+        }
+        return slot;
+    }
+
+    String[] getGlobalNames() {
+        return globals.toArray(new String[0]);
+    }
+
+    int callee(String name) {
+        int slot = callees.indexOf(name);
+        if (slot < 0) {
+            callees.add(name);
+            slot = callees.size() - 1;
+        }
+        return slot;
+    }
+
+    String[] getCalleeNames() {
+        return callees.toArray(new String[0]);
+    }
+
+    int openBlock() {
+        return locals.size();
+    }
+
+    void closeBlock(int mark) {
+        locals.subList(mark, locals.size()).clear();
+    }
+
+    void enterLoop() {
+        loopDepth++;
+    }
+
+    void exitLoop() {
+        loopDepth--;
+    }
+
+    void enterBreakable() {
+        breakableDepth++;
+    }
+
+    void exitBreakable() {
+        breakableDepth--;
+    }
+
+    boolean canBreak() {
+        // do ... end counts as a loop for scoping only, break needs a real loop around it
+        return breakableDepth > 0;
+    }
+
+    boolean isChunkLevel() {
+        // functions have no upvalues, so locals outside of any function or loop stay global
+        return parent == null && loopDepth == 0;
+    }
+
+    int getFrameSize() {
+        return frameSize;
+    }
+}
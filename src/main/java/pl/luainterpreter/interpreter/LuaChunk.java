@@ -0,0 +1,48 @@
+package pl.luainterpreter.interpreter;
+
+import pl.luainterpreter.program.bytecode.Prototype;
+import pl.luainterpreter.program.function.FunctionDef;
+
+/**
+ * Compiled script. One chunk can be executed by any number of {@link LuaState}s, also in parallel:
+ * globals, functions, locals and call stacks belong to the states.
+ * <p>
+ * The chunk does hold caches that every state running it updates without locks:
+ * <ul>
+ *     <li>the field slot hints of constant key accesses, in the nodes of the tree and in
+ *     {@link Prototype#getFieldSlots()};</li>
+ *     <li>the tiered compilation state of each prototype: call and back-edge counters, the compiled code,
+ *     the deoptimization count and the speculations that failed.</li>
+ * </ul>
+ * These races are benign. A hint is an int that is checked against the table before it is used, so a
+ * stale one only costs a lookup. A lost counter update only delays a compilation. Compiled code is
+ * published through a volatile field, and compiling and deoptimizing synchronize on the prototype.
+ */
+public final class LuaChunk {
+    private final FunctionDef function;
+    private final Prototype prototype;
+
+    public LuaChunk(FunctionDef function) {
+        this.function = function;
+        this.prototype = null;
+    }
+
+    public LuaChunk(Prototype prototype) {
+        this.function = null;
+        this.prototype = prototype;
+    }
+
+    /**
+     * Returns the compiled node tree, or {@code null} for a bytecode chunk.
+     */
+    public FunctionDef getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the compiled bytecode, or {@code null} for a node tree chunk.
+     */
+    public Prototype getPrototype() {
+        return prototype;
+    }
+}
@@ -0,0 +1,110 @@
+package pl.luainterpreter.interpreter;
+
+import lua.LuaParser;
+import lua.LuaParser.ChunkContext;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import pl.luainterpreter.interpreter.LuaInterpreter.Engine;
+import pl.luainterpreter.program.BufferedOutputSink;
+import pl.luainterpreter.program.BufferedOutputSink.FlushPolicy;
+import pl.luainterpreter.program.InputSource;
+import pl.luainterpreter.program.OutputSink;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.library.StandardLibrary;
+import pl.luainterpreter.program.value.StringPool;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entry point for embedding the interpreter: compiles scripts into shareable {@link LuaChunk}s and
+ * creates the isolated {@link LuaState}s that execute them.
+ * <p>
+ * An engine is thread safe. Every thread parses with its own {@link ChunkParser}; each state has its
+ * own globals, functions, call stack, input and output, and must be used by one thread at a time.
+ */
+public class LuaEngine {
+    private final Engine engine;
+    private final ResourceLimits limits;
+    private final ThreadLocal<ChunkParser> chunkParser = ThreadLocal.withInitial(ChunkParser::new);
+    private final Map<String, NativeFunction> nativeFunctions = new ConcurrentHashMap<>(StandardLibrary.FUNCTIONS);
+    private final StringPool strings = new StringPool();
+
+    public LuaEngine() {
+        this(Engine.BYTECODE);
+    }
+
+    public LuaEngine(Engine engine) {
+        this(engine, ResourceLimits.UNLIMITED);
+    }
+
+    /**
+     * Creates an engine whose states abort scripts exceeding the given limits.
+     */
+    public LuaEngine(Engine engine, ResourceLimits limits) {
+        this.engine = engine;
+        this.limits = limits;
+    }
+
+    /**
+     * Makes a Java function callable by {@code name} from scripts run in this engine's states, e.g.
+     * {@code "string.trim"}. Replaces a standard library function of the same name.
+     */
+    public void register(String name, NativeFunction function) {
+        nativeFunctions.put(name, function);
+    }
+
+    public LuaChunk compile(String source) {
+        return compile(CharStreams.fromString(source));
+    }
+
+    public LuaChunk compile(CharStream input) {
+        return compile(chunkParser.get().parse(input));
+    }
+
+    public LuaChunk compile(LuaParser parser) {
+        return compile(chunkParser.get().parse(parser));
+    }
+
+    private LuaChunk compile(ChunkContext tree) {
+        return switch (engine) {
+            case TREE -> new LuaChunk(new LuaVisitor(strings).compile(tree));
+            case BYTECODE, JIT -> new LuaChunk(new BytecodeCompiler(strings).compile(tree));
+        };
+    }
+
+    /**
+     * Creates a state printing to {@link OutputSink#stdout()}.
+     */
+    public LuaState newState() {
+        return newState(OutputSink.stdout(), InputSource.stdin());
+    }
+
+    public LuaState newState(PrintStream out) {
+        return newState(out, InputSource.stdin());
+    }
+
+    /**
+     * Creates a state printing to {@code out} through a buffer written out whenever it fills and when a
+     * chunk finishes. Each write holds whole lines, so states may share a stream.
+     */
+    public LuaState newState(PrintStream out, InputSource in) {
+        return newState(new BufferedOutputSink(out, FlushPolicy.SIZE), in);
+    }
+
+    public LuaState newState(OutputSink out, InputSource in) {
+        return new LuaState(out, in, limits, nativeFunctions, strings, engine == Engine.JIT);
+    }
+
+    /**
+     * Returns the parser used by the calling thread, e.g. to read its parse time counters.
+     */
+    public ChunkParser getChunkParser() {
+        return chunkParser.get();
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+}
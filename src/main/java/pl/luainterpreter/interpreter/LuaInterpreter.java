@@ -1,27 +1,82 @@
 package pl.luainterpreter.interpreter;
 
 import lua.LuaParser;
-import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.RecognitionException;
-import org.antlr.v4.runtime.tree.ParseTree;
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.profile.Profiler;
 
 
+/**
+ * Runs single scripts, each in a fresh {@link LuaState}. See {@link LuaEngine} for running
+ * compiled chunks repeatedly or concurrently.
+ */
 public class LuaInterpreter {
 
-    public void interpret(LuaParser parser) {
-        prepareParser(parser);
-        LuaVisitor visitor = new LuaVisitor();
+    public enum Engine {
+        TREE,
+        BYTECODE,
+        /** The bytecode engine compiling hot functions and loops to JVM bytecode. */
+        JIT
+    }
+
+    private final LuaEngine luaEngine;
+    private Profiler profiler;
 
+    public LuaInterpreter() {
+        this(Engine.BYTECODE);
+    }
+
+    public LuaInterpreter(Engine engine) {
+        this(engine, ResourceLimits.UNLIMITED);
+    }
+
+    public LuaInterpreter(Engine engine, ResourceLimits limits) {
+        this.luaEngine = new LuaEngine(engine, limits);
+    }
+
+    public void interpret(CharStream input) {
         try {
-            ParseTree tree = parser.chunk();
-            visitor.visit(tree);
+            execute(luaEngine.compile(input));
+        } catch (RecognitionException e) {
+            e.printStackTrace();
+        } catch (LuaError e) {
+            System.err.println("lua: " + e.getMessage());
+        }
+    }
 
+    public void interpret(LuaParser parser) {
+        try {
+            execute(luaEngine.compile(parser));
         } catch (RecognitionException e) {
             e.printStackTrace();
+        } catch (LuaError e) {
+            System.err.println("lua: " + e.getMessage());
         }
     }
 
-    private void prepareParser(LuaParser parser) {
-        parser.setErrorHandler(new BailErrorStrategy());
+    /**
+     * Compiles the script without running it, e.g. to store it in a {@link ChunkCache}.
+     */
+    public LuaChunk compile(CharStream input) {
+        return luaEngine.compile(input);
+    }
+
+    public void execute(LuaChunk chunk) {
+        LuaState state = luaEngine.newState();
+        state.setProfiler(profiler);
+        state.execute(chunk);
+    }
+
+    /**
+     * Profiles the scripts run from now on; their results add up in the profiler. {@code null} turns
+     * profiling off, which leaves the engines without any profiling overhead.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public ChunkParser getChunkParser() {
+        return luaEngine.getChunkParser();
     }
 }
@@ -0,0 +1,105 @@
+package pl.luainterpreter.interpreter;
+
+import pl.luainterpreter.program.InputSource;
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.OutputSink;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.bytecode.VirtualMachine;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.library.StandardLibrary;
+import pl.luainterpreter.program.profile.Profiler;
+import pl.luainterpreter.program.value.StringPool;
+import pl.luainterpreter.program.value.Value;
+
+import java.util.Map;
+
+/**
+ * Independent interpreter state: globals, defined functions, call stack, and the sources of
+ * {@code read} and {@code print}. Chunks executed one after another in the same state see each other's
+ * globals and functions. Not thread safe.
+ */
+public class LuaState {
+    private final Program program;
+    private final boolean jit;
+    private VirtualMachine virtualMachine;
+
+    LuaState(OutputSink out, InputSource in, ResourceLimits limits, Map<String, NativeFunction> nativeFunctions,
+             StringPool strings, boolean jit) {
+        this.jit = jit;
+        this.program = new Program(out, in);
+        program.setNativeFunctions(nativeFunctions);
+        program.setStringPool(strings);
+        StandardLibrary.openConstants(program);
+        program.setStepLimit(limits.getMaxSteps());
+        program.setMemoryLimit(limits.getMaxMemory());
+        program.setMaxCallDepth(limits.getMaxCallDepth());
+    }
+
+    /**
+     * Executes the chunk in this state. Everything the chunk printed is flushed to the output sink when
+     * it returns, also when it fails.
+     *
+     * @throws LuaError if the script fails, e.g. by exceeding the {@link ResourceLimits} of the state
+     */
+    public void execute(LuaChunk chunk) {
+        Profiler profiler = program.getProfiler();
+        if (profiler != null) {
+            profiler.start();
+        }
+        try {
+            run(chunk);
+        } finally {
+            if (profiler != null) {
+                profiler.stop();
+            }
+            program.getOut().flush();
+        }
+    }
+
+    /**
+     * Profiles the chunks executed from now on, or stops profiling with {@code null}.
+     */
+    public void setProfiler(Profiler profiler) {
+        program.setProfiler(profiler);
+    }
+
+    private void run(LuaChunk chunk) {
+        if (chunk.getFunction() != null) {
+            int callDepth = program.getCallDepth();
+            try {
+                program.callFunction(chunk.getFunction(), program.getTop(), 0);
+                program.executeFunction(chunk.getFunction());
+            } finally {
+                program.unwind(callDepth);
+            }
+        } else {
+            if (virtualMachine == null) {
+                virtualMachine = new VirtualMachine(program, jit);
+                program.setCoroutineFactory(virtualMachine::newCoroutine);
+            }
+            virtualMachine.execute(chunk.getPrototype());
+        }
+    }
+
+    /**
+     * Returns the number of steps (loop iterations and function calls) taken by all chunks so far.
+     */
+    public long getSteps() {
+        return program.getSteps();
+    }
+
+    /**
+     * Returns the approximate number of bytes allocated for tables and strings so far.
+     */
+    public long getMemory() {
+        return program.getMemory();
+    }
+
+    public Value getGlobal(String name) {
+        return program.getGlobalVar(name);
+    }
+
+    public void setGlobal(String name, Value value) {
+        program.setGlobalVar(name, value);
+    }
+}
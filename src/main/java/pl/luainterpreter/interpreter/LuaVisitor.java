@@ -3,25 +3,79 @@ package pl.luainterpreter.interpreter;
 import lua.LuaBaseVisitor;
 import lua.LuaParser.*;
 import org.antlr.v4.runtime.tree.TerminalNode;
-import pl.luainterpreter.program.function.Function;
+import pl.luainterpreter.program.LuaError;
 import pl.luainterpreter.program.function.FunctionDef;
-import pl.luainterpreter.program.Program;
-import pl.luainterpreter.program.value.Value;
-import pl.luainterpreter.program.value.Value.ValueOperations;
-import pl.luainterpreter.program.value.ValueList;
+import pl.luainterpreter.program.node.*;
+import pl.luainterpreter.program.value.*;
 
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
-import static lua.LuaParser.*;
-import static pl.luainterpreter.program.value.Value.NIL;
-import static pl.luainterpreter.program.value.Value.ValueOperations.calculate;
-import static pl.luainterpreter.program.value.Value.ValueOperations.compare;
+/**
+ * Compiles the parse tree once into a tree of executable {@link Node}s.
+ */
+public class LuaVisitor extends LuaBaseVisitor<Node> {
 
-public class LuaVisitor extends LuaBaseVisitor<Value> {
+    private static final Expression[] NO_EXPRESSIONS = new Expression[0];
 
-    private final Program program = new Program();
+    private final ConstantFolder folder;
+    private FunctionScope scope;
+
+    public LuaVisitor() {
+        this(new StringPool());
+    }
+
+    /**
+     * Creates a compiler taking short string constants from {@code strings}, see {@link StringPool}.
+     */
+    public LuaVisitor(StringPool strings) {
+        this.folder = new ConstantFolder(strings);
+    }
+
+    public FunctionDef compile(ChunkContext ctx) {
+        scope = new FunctionScope(null, List.of());
+        Block body = (Block) visit(ctx);
+        return new FunctionDef("main", List.of(), body, scope.getFrameSize(), scope.getGlobalNames(),
+                scope.getCalleeNames());
+    }
+
+    private Expression expression(ExpContext ctx) {
+        Value constant = folder.constant(ctx);
+        return constant != null ? new ConstantExp(constant) : (Expression) visit(ctx);
+    }
+
+    private Expression condition(ExpContext ctx) {
+        return expression(folder.condition(ctx));
+    }
+
+    private Block block(BlockContext ctx) {
+        return (Block) visit(ctx);
+    }
+
+    private ExpList expList(ExpListContext ctx) {
+        return ctx == null ? new ExpList(NO_EXPRESSIONS) : (ExpList) visit(ctx);
+    }
+
+    private Expression variable(String varName) {
+        int slot = scope.resolve(varName);
+        return slot >= 0 ? new LocalExp(slot) : new GlobalExp(scope.global(varName));
+    }
+
+    private Expression indexed(Expression table, List<TableIndexContext> indexes) {
+        for (TableIndexContext indexCtx : indexes) {
+            Expression index = (Expression) visit(indexCtx);
+            Value key = fieldKey(index);
+            table = key != null ? new FieldExp(table, key) : new IndexExp(table, index);
+        }
+        return table;
+    }
+
+    private static Value fieldKey(Expression index) {
+        if (index instanceof ConstantExp && ((ConstantExp) index).getValue() instanceof StringValue) {
+            return ((ConstantExp) index).getValue();
+        }
+        return null;
+    }
 
     //=============================================
     //================== BLOCK ====================
@@ -29,21 +83,35 @@ public class LuaVisitor extends LuaBaseVisitor<Value> {
     //region Block
 
     @Override
-    public Value visitBlock(BlockContext ctx) {
-        for (StatContext statCtx : ctx.stat())
-        {
-            Value retValue = visit(statCtx);
-            if (program.isInLoopBreak()) {
-                return NIL;
-            }
-            if (retValue.isReturn()) {
-                return retValue;
+    public Node visitChunk(ChunkContext ctx) {
+        return visit(ctx.block());
+    }
+
+    @Override
+    public Node visitBlock(BlockContext ctx) {
+        int mark = scope.openBlock();
+        Block block = blockInScope(ctx);
+        scope.closeBlock(mark);
+        return block;
+    }
+
+    private Block blockInScope(BlockContext ctx) {
+        List<Statement> statements = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        for (StatContext statCtx : ctx.stat()) {
+            Node statement = visit(statCtx);
+            if (statement != null) {
+                statements.add((Statement) statement);
+                lines.add(statCtx.getStart().getLine());
             }
         }
+        Statement retStat = null;
         if (ctx.retStat() != null) {
-            return visit(ctx.retStat());
+            retStat = (Statement) visit(ctx.retStat());
+            lines.add(ctx.retStat().getStart().getLine());
         }
-        return NIL;
+        return new Block(statements.toArray(new Statement[0]), retStat,
+                lines.stream().mapToInt(Integer::intValue).toArray());
     }
 
     //endregion
@@ -52,128 +120,131 @@ public class LuaVisitor extends LuaBaseVisitor<Value> {
     //=============================================
     //region Statements
 
-
     @Override
-    public Value visitSemicolonStat(SemicolonStatContext ctx) {
-        return NIL;
+    public Node visitSemicolonStat(SemicolonStatContext ctx) {
+        return null;
     }
 
     @Override
-    public Value visitBreakStat(BreakStatContext ctx) {
-        program.breakLoop();
-        return NIL;
+    public Node visitBreakStat(BreakStatContext ctx) {
+        if (!scope.canBreak()) {
+            throw new LuaError("No loop to break at line " + ctx.getStart().getLine());
+        }
+        return new BreakStat();
     }
 
     @Override
-    public Value visitAssignStat(AssignStatContext ctx) {
+    public Node visitAssignStat(AssignStatContext ctx) {
         String varName = ctx.var().NAME().getText();
-        List<Value> indexList = new ArrayList<>();
-        for (TableIndexContext indexCtx : ctx.var().tableIndex()) {
-            indexList.add(visit(indexCtx));
+        Expression exp = expression(ctx.exp());
+        if (ctx.LOCAL() != null && !scope.isChunkLevel()) {
+            return new LocalAssignStat(scope.declare(varName), exp);
         }
-        Value value = visit(ctx.exp());
-        if (ctx.LOCAL() != null) {
-            program.addLocalVar(varName, value);
-        } else {
-            program.setVar(varName, value, indexList);
+
+        List<TableIndexContext> indexes = ctx.var().tableIndex();
+        if (indexes.isEmpty()) {
+            int slot = scope.resolve(varName);
+            return slot >= 0 ? new LocalAssignStat(slot, exp) : new GlobalAssignStat(scope.global(varName), exp);
         }
-        return NIL;
+        Expression table = indexed(variable(varName), indexes.subList(0, indexes.size() - 1));
+        Expression index = (Expression) visit(indexes.get(indexes.size() - 1));
+        Value key = fieldKey(index);
+        return key != null ? new FieldAssignStat(table, key, exp) : new TableAssignStat(table, index, exp);
     }
 
     @Override
-    public Value visitIfStat(IfStatContext ctx) {
-        Iterator<ExpContext> conditionIterator = ctx.exp().iterator();
-        Iterator<BlockContext> blockIterator = ctx.block().iterator();
-
-        while(conditionIterator.hasNext())
-        {
-            ExpContext expContext = conditionIterator.next(); //IF / ELSEIF
-            BlockContext blockContext = blockIterator.next();
-            boolean condition = visit(expContext).get(Boolean.class);
-            if (condition) {
-                return visit(blockContext);
+    public Node visitIfStat(IfStatContext ctx) {
+        List<Expression> conditions = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        Block elseBlock = null;
+        boolean decided = false;
+        for (int i = 0; i < ctx.block().size(); i++) {
+            // dead branches are still compiled, so they report the same errors
+            Block block = block(ctx.block(i));
+            if (decided) {
+                continue;
+            } else if (i == ctx.exp().size()) {
+                elseBlock = block; //ELSE
+                continue;
+            }
+            Expression condition = condition(ctx.exp(i));
+            if (!(condition instanceof ConstantExp)) {
+                conditions.add(condition);
+                blocks.add(block);
+            } else if (((ConstantExp) condition).getValue().isTruthy()) {
+                // the branch always runs when reached, the following ones never do
+                elseBlock = block;
+                decided = true;
             }
         }
-        if (blockIterator.hasNext())
-        {
-            return visit(blockIterator.next()); //ELSE
+        if (conditions.isEmpty()) {
+            return elseBlock;
         }
-
-        return NIL;
+        return new IfStat(conditions.toArray(NO_EXPRESSIONS), blocks.toArray(new Block[0]), elseBlock);
     }
 
     @Override
-    public Value visitFuncDefStat(FuncDefStatContext ctx) {
+    public Node visitFuncDefStat(FuncDefStatContext ctx) {
         String funcName = ctx.NAME().getText();
-        List<String> args = ctx.argList().NAME().stream()
+        List<String> args = ctx.argList() == null ? List.of() : ctx.argList().NAME().stream()
                 .map(TerminalNode::getText)
                 .collect(Collectors.toList());
-        program.addFunctionDef(new FunctionDef(funcName, args, ctx.block()));
-        return NIL;
+        scope = new FunctionScope(scope, args);
+        Block body = block(ctx.block());
+        FunctionDef functionDef = new FunctionDef(funcName, args, body, scope.getFrameSize(), scope.getGlobalNames(),
+                scope.getCalleeNames());
+        scope = scope.getParent();
+        return new FuncDefStat(functionDef);
+    }
+
+    @Override
+    public Node visitRetStat(RetStatContext ctx) {
+        ExpList exps = expList(ctx.expList());
+        if (scope.getParent() != null && exps.size() == 1 && exps.get(0) instanceof CallExp) {
+            CallExp call = (CallExp) exps.get(0);
+            return new TailCallStat(call.getCallee(), call.getArgs());
+        }
+        return new RetStat(exps);
+    }
+
+    @Override
+    public Node visitFuncCallStat(FuncCallStatContext ctx) {
+        return new CallStat((Expression) visit(ctx.funcCall()));
     }
 
     @Override
-    public Value visitRetStat(RetStatContext ctx) {
-        Value retValue = new Value(visit(ctx.expList()));
-        retValue.setReturn(true);
-        return retValue;
+    public Node visitLibCallStat(LibCallStatContext ctx) {
+        return new CallStat((Expression) visit(ctx.libCall()));
     }
+
     //endregion
     //=============================================
     //============== FUNCTION CALLS ===============
     //=============================================
     //region Function calls
     @Override
-    public Value visitFuncCall(FuncCallContext ctx) {
-        String funcName = ctx.NAME().getText();
-        Value argValues = visit(ctx.expList());
-        List<Value> argValueList;
-        if (argValues instanceof ValueList) {
-            argValueList = ((ValueList) argValues).getList();
-        } else {
-            argValueList = List.of(argValues);
-        }
-        Function func = program.callFunction(funcName, argValueList);
-        Value funcValue = visit(func.getCtx());
-        funcValue.setReturn(false);
-        program.endFunction();
-        return funcValue;
+    public Node visitFuncCall(FuncCallContext ctx) {
+        String funcName = functionName(ctx);
+        return new CallExp(funcName, scope.callee(funcName), expList(ctx.expList()));
     }
 
-    @Override
-    public Value visitPrintCall(PrintCallContext ctx) {
-        Value printValue = visit(ctx.expList());
-        String printString = "";
-        if (printValue instanceof ValueList)
-        {
-            printString = ((ValueList) printValue).getList().stream()
-                    .map(Value::toString)
-                    .collect(Collectors.joining("\t"));
-        } else {
-            printString = printValue.toString();
-        }
+    /**
+     * Returns the called name, qualified by its library like {@code string.format}.
+     */
+    static String functionName(FuncCallContext ctx) {
+        List<TerminalNode> names = ctx.NAME();
+        return names.size() == 1 ? names.get(0).getText() : names.get(0).getText() + "." + names.get(1).getText();
+    }
 
-        System.out.println(printString);
-        return NIL;
+    @Override
+    public Node visitPrintCall(PrintCallContext ctx) {
+        return new PrintCall(expList(ctx.expList()));
     }
 
     @Override
-    public Value visitReadCall(ReadCallContext ctx) {
-        String valueType = visit(ctx.string()).toString();
-        Scanner sc = new Scanner(System.in);
-        String value = sc.nextLine();
-        sc.close();
-        boolean isFloat = value.contains(".");
-        switch (valueType) {
-            case "*n", "*number" -> {
-                return isFloat ?
-                        new Value(Float.parseFloat(value), Float.class) :
-                        new Value(Integer.parseInt(value), Integer.class);
-            }
-            default -> {
-                return new Value(value, String.class);
-            }
-        }
+    public Node visitReadCall(ReadCallContext ctx) {
+        String valueType = ctx.string() == null ? "" : folder.string(ctx.string()).toString();
+        return new ReadCall(valueType);
     }
     //endregion
     //=============================================
@@ -181,63 +252,54 @@ public class LuaVisitor extends LuaBaseVisitor<Value> {
     //=============================================
     //region Loops
     @Override
-    public Value visitLoopStat(LoopStatContext ctx) {
-        program.enterLoop(ctx.getStart().getText());
-        visit(ctx.loop());
-        program.exitLoop();
-        return NIL;
+    public Node visitLoopStat(LoopStatContext ctx) {
+        scope.enterLoop();
+        Node loop = visit(ctx.loop());
+        scope.exitLoop();
+        return loop;
     }
 
     @Override
-    public Value visitDoLoop(DoLoopContext ctx) {
-        visit(ctx.block());
-        return NIL;
+    public Node visitDoLoop(DoLoopContext ctx) {
+        return new DoLoop(block(ctx.block()));
     }
 
     @Override
-    public Value visitWhileLoop(WhileLoopContext ctx) {
-        while(visit(ctx.exp()).get(Boolean.class)) {
-            visit(ctx.block());
-            if (program.isInLoopBreak()) {
-                return NIL;
-            }
+    public Node visitWhileLoop(WhileLoopContext ctx) {
+        Expression condition = condition(ctx.exp());
+        scope.enterBreakable();
+        Block block = block(ctx.block());
+        scope.exitBreakable();
+        if (condition instanceof ConstantExp && !((ConstantExp) condition).getValue().isTruthy()) {
+            return null;
         }
-        return NIL;
+        return new WhileLoop(condition, block);
     }
 
     @Override
-    public Value visitRepeatLoop(RepeatLoopContext ctx) {
-        do {
-            visit(ctx.block());
-            if (program.isInLoopBreak()) {
-                return NIL;
-            }
-        } while (!visit(ctx.exp()).get(Boolean.class));
-        return NIL;
+    public Node visitRepeatLoop(RepeatLoopContext ctx) {
+        int mark = scope.openBlock();
+        scope.enterBreakable();
+        Block block = blockInScope(ctx.block());
+        scope.exitBreakable();
+        Expression condition = condition(ctx.exp());
+        scope.closeBlock(mark);
+        return new RepeatLoop(block, condition);
     }
 
     @Override
-    public Value visitForLoop(ForLoopContext ctx) {
-        String controlVar = ctx.NAME().getText();
-        Value controlValue = visit(ctx.exp(0));
-        Value stopValue = visit(ctx.exp(1));
-        Value step = ctx.exp().size() == 3 ? visit(ctx.exp(2)) : new Value(1, Integer.class);
-        boolean stepPositive = compare(GT, step, new Value(0, Integer.class)).get(Boolean.class);
-        int stopConditionOp = stepPositive ? GT : LT;
-
-        if (compare(stopConditionOp, controlValue, stopValue).get(Boolean.class)) {
-            return NIL;
-        }
-        program.addLocalVar(controlVar, controlValue);
-        do {
-            visit(ctx.block());
-            if (program.isInLoopBreak()) {
-                return NIL;
-            }
-            controlValue = calculate(ADD, program.getVar(controlVar), step);
-            program.setVar(controlVar, controlValue);
-        } while (!compare(stopConditionOp, controlValue, stopValue).get(Boolean.class));
-        return NIL;
+    public Node visitForLoop(ForLoopContext ctx) {
+        Expression start = expression(ctx.exp(0));
+        Expression stop = expression(ctx.exp(1));
+        Expression step = ctx.exp().size() == 3 ? expression(ctx.exp(2)) : null;
+        int mark = scope.openBlock();
+        int controlSlot = scope.declare(ctx.NAME().getText());
+        scope.enterBreakable();
+        Block block = block(ctx.block());
+        scope.exitBreakable();
+        boolean controlUsed = scope.isUsed(controlSlot);
+        scope.closeBlock(mark);
+        return new ForLoop(controlSlot, controlUsed, start, stop, step, block);
     }
 
     //endregion
@@ -246,67 +308,15 @@ public class LuaVisitor extends LuaBaseVisitor<Value> {
     //=============================================
     //region Expressions
     @Override
-    public Value visitNilExp(NilExpContext ctx) {
-        return NIL;
+    public Node visitVar(VarContext ctx) {
+        return indexed(variable(ctx.NAME().getText()), ctx.tableIndex());
     }
 
     @Override
-    public Value visitLogical(LogicalContext ctx) {
-        if (ctx.FALSE() != null)
-        {
-            return new Value(false, Boolean.class);
-        }
-        else if (ctx.TRUE() != null)
-        {
-            return new Value(true, Boolean.class);
-        }
-        return NIL;
-    }
-
-    @Override
-    public Value visitVar(VarContext ctx) {
-        String varName = ctx.NAME().getText();
-        List<Value> indexList = new ArrayList<>();
-        for (TableIndexContext indexCtx : ctx.tableIndex()) {
-            indexList.add(visit(indexCtx));
-        }
-        return program.getVar(varName, indexList);
-    }
-
-    @Override
-    public Value visitNumber(NumberContext ctx) {
-        if (ctx.INT() != null)
-        {
-            return new Value(Integer.valueOf(ctx.INT().getText()), Integer.class);
-        }
-        else if (ctx.FLOAT() != null)
-        {
-            return new Value(Float.valueOf(ctx.FLOAT().getText()), Float.class);
-        }
-        return NIL;
-    }
-
-    @Override
-    public Value visitString(StringContext ctx) {
-        String text = ctx.getText();
-        text = text.substring(1, text.length()-1);
-        return new Value(text, String.class);
-    }
-
-    @Override
-    public Value visitExpList(ExpListContext ctx) {
-        List<Value> values = new ArrayList<>();
-        for(ExpContext exp : ctx.exp())
-        {
-            values.add(visit(exp));
-        }
-
-        if (values.size() == 1)
-        {
-            return values.get(0);
-        }
-
-        return new ValueList(values);
+    public Node visitExpList(ExpListContext ctx) {
+        return new ExpList(ctx.exp().stream()
+                .map(this::expression)
+                .toArray(Expression[]::new));
     }
     //endregion
     //=============================================
@@ -314,54 +324,30 @@ public class LuaVisitor extends LuaBaseVisitor<Value> {
     //=============================================
     //region Tables
 
-
-    @Override
-    public Value visitKeyValue(KeyValueContext ctx) {
-        Value key = ctx.NAME() == null ? NIL : new Value(ctx.NAME().getText(), String.class);
-        Value value = visit(ctx.exp());
-        return new Value(Map.entry(key, value), Entry.class);
-    }
-
-    @Override
-    public Value visitKeyValueList(KeyValueListContext ctx) {
-        int numberIndex = 1;
-        List<Value> keyValueList = new ArrayList<>();
-        for (KeyValueContext keyValueContext : ctx.keyValue()) {
-            Value entryValue = visit(keyValueContext);
-            Entry entry = entryValue.get(Entry.class);
-            if (NIL.equals(entry.getKey())) {
-                Value key = new Value(numberIndex++, Integer.class);
-                keyValueList.add(new Value(Map.entry(key, entry.getValue()), Entry.class));
-            } else {
-                keyValueList.add(entryValue);
-            }
-        }
-
-        return new Value(keyValueList, List.class);
-    }
-
     @Override
-    public Value visitTableIndex(TableIndexContext ctx) {
+    public Node visitTableIndex(TableIndexContext ctx) {
         if (ctx.NAME() != null) {
-            return new Value(ctx.NAME().getText(), String.class);
+            return new ConstantExp(folder.string(ctx.NAME().getText()));
         } else {
-            return visit(ctx.exp());
+            return expression(ctx.exp());
         }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public Value visitTableConstructor(TableConstructorContext ctx) {
-        Map<Value, Value> tableMap = new HashMap<>();
-        if (ctx.keyValueList() != null) {
-            List<Value> entryList = visit(ctx.keyValueList()).get(List.class);
-            for(Value entryValue : entryList) {
-                Entry<Value, Value> entry = entryValue.get(Entry.class);
-                tableMap.put(entry.getKey(), entry.getValue());
-            }
+    public Node visitTableConstructor(TableConstructorContext ctx) {
+        List<KeyValueContext> keyValues = ctx.keyValueList() == null ?
+                List.of() : ctx.keyValueList().keyValue();
+        Value[] keys = new Value[keyValues.size()];
+        Expression[] values = new Expression[keyValues.size()];
+        int numberIndex = 1;
+        for (int i = 0; i < keys.length; i++) {
+            KeyValueContext keyValueCtx = keyValues.get(i);
+            keys[i] = keyValueCtx.NAME() == null ?
+                    IntValue.valueOf(numberIndex++) :
+                    folder.string(keyValueCtx.NAME().getText());
+            values[i] = expression(keyValueCtx.exp());
         }
-
-        return new Value(tableMap, Map.class);
+        return new TableConstructorExp(keys, values, numberIndex - 1);
     }
 
     //endregion
@@ -370,54 +356,50 @@ public class LuaVisitor extends LuaBaseVisitor<Value> {
     //=============================================
     //region Operations
     @Override
-    public Value visitArithmeticOp(ArithmeticOpContext ctx) {
-        Value left = visit(ctx.exp(0));
-        Value right = visit(ctx.exp(1));
-        return calculate(ctx.op.getType(), left, right);
+    public Node visitArithmeticOp(ArithmeticOpContext ctx) {
+        return new ArithmeticExp(ctx.op.getType(), expression(ctx.exp(0)), expression(ctx.exp(1)));
     }
 
     @Override
-    public Value visitRelationalOp(RelationalOpContext ctx) {
-        Value left = visit(ctx.exp(0));
-        Value right = visit(ctx.exp(1));
-        return compare(ctx.op.getType(), left, right);
+    public Node visitRelationalOp(RelationalOpContext ctx) {
+        return new RelationalExp(ctx.op.getType(), expression(ctx.exp(0)), expression(ctx.exp(1)));
     }
 
     @Override
-    public Value visitLogicalOp(LogicalOpContext ctx) {
-        boolean left = visit(ctx.exp(0)).get(Boolean.class);
-        boolean right = visit(ctx.exp(1)).get(Boolean.class);
-
-        return switch (ctx.op.getType()) {
-            case AND -> new Value(left && right, Boolean.class);
-            case OR -> new Value(left || right, Boolean.class);
-            default -> throw new IllegalStateException("Unexpected logical operation: " + ctx.op.getType());
-        };
+    public Node visitLogicalOp(LogicalOpContext ctx) {
+        return new LogicalExp(ctx.op.getType(), expression(ctx.exp(0)), expression(ctx.exp(1)));
     }
 
     @Override
-    public Value visitUnaryOp(UnaryOpContext ctx) {
-        Value value = visit(ctx.exp());
-        return switch (ctx.op.getType()) {
-            case NOT -> new Value(!value.get(Boolean.class), Boolean.class);
-            case SUB -> ValueOperations.negate(value);
-            case LEN -> new Value(value.get(List.class).size(), Integer.class);
-            default -> throw new IllegalStateException("Unexpected unary operation: " + ctx.op.getType());
-        };
+    public Node visitUnaryOp(UnaryOpContext ctx) {
+        RelationalOpContext comparison = folder.negatedComparison(ctx);
+        if (comparison != null) {
+            return new RelationalExp(ConstantFolder.negate(comparison.op.getType()),
+                    expression(comparison.exp(0)), expression(comparison.exp(1)));
+        }
+        return new UnaryExp(ctx.op.getType(), expression(ctx.exp()));
     }
 
     @Override
-    public Value visitConcatOp(ConcatOpContext ctx) {
-        Value left = visit(ctx.exp(0));
-        Value right = visit(ctx.exp(1));
-        return new Value(left.toString() + right.toString(), String.class);
+    public Node visitConcatOp(ConcatOpContext ctx) {
+        List<Expression> operands = new ArrayList<>();
+        for (ExpContext operandCtx : folder.concatOperands(ctx)) {
+            Expression operand = expression(operandCtx);
+            int last = operands.size() - 1;
+            if (operand instanceof ConstantExp && last >= 0 && operands.get(last) instanceof ConstantExp) {
+                // neighbouring constants are joined at compile time, "a" .. x .. "b" .. "c" has three operands
+                operands.set(last, new ConstantExp(folder.concat(((ConstantExp) operands.get(last)).getValue(),
+                        ((ConstantExp) operand).getValue())));
+            } else {
+                operands.add(operand);
+            }
+        }
+        return new ConcatExp(operands.toArray(NO_EXPRESSIONS));
     }
 
     @Override
-    public Value visitPowerOp(PowerOpContext ctx) {
-        Value left = visit(ctx.exp(0));
-        Value right = visit(ctx.exp(1));
-        return ValueOperations.calculatePower(left, right);
+    public Node visitPowerOp(PowerOpContext ctx) {
+        return new PowerExp(expression(ctx.exp(0)), expression(ctx.exp(1)));
     }
     //endregion
 }
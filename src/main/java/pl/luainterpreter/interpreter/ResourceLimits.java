@@ -0,0 +1,46 @@
+package pl.luainterpreter.interpreter;
+
+/**
+ * Limits applied to every {@link LuaState} of a {@link LuaEngine}. Steps are loop iterations and
+ * function calls; memory is the approximate number of bytes allocated for tables and strings,
+ * counted without subtracting what has become garbage; call depth is the number of active Lua calls.
+ */
+public final class ResourceLimits {
+    public static final int DEFAULT_MAX_CALL_DEPTH = 200_000;
+    public static final ResourceLimits UNLIMITED =
+            new ResourceLimits(Long.MAX_VALUE, Long.MAX_VALUE, DEFAULT_MAX_CALL_DEPTH);
+
+    private final long maxSteps;
+    private final long maxMemory;
+    private final int maxCallDepth;
+
+    private ResourceLimits(long maxSteps, long maxMemory, int maxCallDepth) {
+        this.maxSteps = maxSteps;
+        this.maxMemory = maxMemory;
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    public ResourceLimits withMaxSteps(long maxSteps) {
+        return new ResourceLimits(maxSteps, maxMemory, maxCallDepth);
+    }
+
+    public ResourceLimits withMaxMemory(long maxMemory) {
+        return new ResourceLimits(maxSteps, maxMemory, maxCallDepth);
+    }
+
+    public ResourceLimits withMaxCallDepth(int maxCallDepth) {
+        return new ResourceLimits(maxSteps, maxMemory, maxCallDepth);
+    }
+
+    public int getMaxCallDepth() {
+        return maxCallDepth;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+}
@@ -0,0 +1,162 @@
+package pl.luainterpreter.interpreter;
+
+import pl.luainterpreter.program.InputSource;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs compiled chunks concurrently, each submission in a fresh {@link LuaState} on its own virtual
+ * thread. On JVMs without virtual threads a fixed pool of platform threads is used instead.
+ * <p>
+ * At most {@code capacity} submissions are queued or running at a time: {@link #submit} blocks and
+ * {@link #trySubmit} rejects while the executor is full. A submission running longer than its timeout
+ * is cancelled; the script stops at its next loop iteration, function call or {@code read}.
+ */
+public class ScriptExecutor implements AutoCloseable {
+    private final LuaEngine engine;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final boolean virtual;
+
+    public ScriptExecutor(LuaEngine engine, int capacity) {
+        this(engine, capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ScriptExecutor(LuaEngine engine, int capacity, int platformThreads) {
+        this.engine = engine;
+        this.permits = new Semaphore(capacity);
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        this.virtual = virtualExecutor != null;
+        this.executor = virtual ? virtualExecutor : Executors.newFixedThreadPool(platformThreads, daemonThreads("lua-script"));
+        this.timer = new ScheduledThreadPoolExecutor(1, daemonThreads("lua-script-timeout"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Submits a chunk, waiting while the executor is full.
+     *
+     * @param timeout maximal run time, or {@code null} for none
+     * @return future of the state the chunk ran in, e.g. to read its globals
+     */
+    public Future<LuaState> submit(LuaChunk chunk, PrintStream out, InputSource in, Duration timeout)
+            throws InterruptedException {
+        permits.acquire();
+        return start(chunk, out, in, timeout);
+    }
+
+    /**
+     * Submits a chunk if the executor is not full.
+     *
+     * @throws RejectedExecutionException if {@code capacity} submissions are already queued or running
+     */
+    public Future<LuaState> trySubmit(LuaChunk chunk, PrintStream out, InputSource in, Duration timeout) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Script executor is full");
+        }
+        return start(chunk, out, in, timeout);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Returns how many more submissions are accepted before the executor is full.
+     */
+    public int availableCapacity() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        timer.shutdownNow();
+    }
+
+    private Future<LuaState> start(LuaChunk chunk, PrintStream out, InputSource in, Duration timeout) {
+        LuaState state = engine.newState(out, in);
+        Submission submission = new Submission(() -> {
+            state.execute(chunk);
+            return state;
+        });
+        try {
+            executor.execute(submission);
+        } catch (RejectedExecutionException e) {
+            submission.release();
+            throw e;
+        }
+        if (timeout != null) {
+            submission.timeout = timer.schedule(() -> submission.cancel(true), timeout.toNanos(), TimeUnit.NANOSECONDS);
+            if (submission.isDone()) {
+                submission.timeout.cancel(false);
+            }
+        }
+        return submission;
+    }
+
+    /**
+     * Gives its permit back once its thread is done, or right away when cancelled before it started.
+     */
+    private class Submission extends FutureTask<LuaState> {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean started;
+        private volatile Future<?> timeout;
+
+        Submission(Callable<LuaState> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            try {
+                super.run();
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        protected void done() {
+            Future<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (!started) {
+                release();
+            }
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor} reflectively, so the interpreter still
+     * builds and runs on JDKs without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = threads.newThread(runnable);
+            thread.setName(name + "-" + thread.getName());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
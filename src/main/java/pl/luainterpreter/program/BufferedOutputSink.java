@@ -0,0 +1,172 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.value.FloatValue;
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.StringValue;
+import pl.luainterpreter.program.value.Value;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Sink writing printed lines straight into a byte buffer, strings as their bytes and numbers as their
+ * digits, and writing the buffer out as its {@link FlushPolicy} says. The buffer always holds whole
+ * lines: a line longer than the buffer grows it, so every write to the target ends with a newline.
+ */
+public class BufferedOutputSink implements OutputSink {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final double MAX_PLAIN_FLOAT = 1e14;
+
+    public enum FlushPolicy {
+        /** Writes every line out right away, for interactive use. */
+        LINE,
+        /** Writes the lines out whenever they fill the buffer. */
+        SIZE,
+        /** Keeps all lines until the chunk finishes or the script reads input, growing the buffer. */
+        EXIT
+    }
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final FlushPolicy policy;
+    private final int bufferSize;
+    private final byte[] digits = new byte[20];
+    private ByteBuffer buffer;
+
+    public BufferedOutputSink(OutputStream out, FlushPolicy policy) {
+        this(out, policy, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferedOutputSink(OutputStream out, FlushPolicy policy, int bufferSize) {
+        this(out, null, policy, bufferSize);
+    }
+
+    /**
+     * Creates a sink writing to a channel from a direct buffer, so a file or socket channel needs no copy.
+     */
+    public BufferedOutputSink(WritableByteChannel channel, FlushPolicy policy, int bufferSize) {
+        this(null, channel, policy, bufferSize);
+    }
+
+    private BufferedOutputSink(OutputStream out, WritableByteChannel channel, FlushPolicy policy, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.out = out;
+        this.channel = channel;
+        this.policy = policy;
+        this.bufferSize = bufferSize;
+        this.buffer = allocate(bufferSize);
+    }
+
+    @Override
+    public void print(Value[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                ensureRemaining(1);
+                buffer.put((byte) '\t');
+            }
+            write(values[i]);
+        }
+        ensureRemaining(1);
+        buffer.put((byte) '\n');
+        if (policy == FlushPolicy.LINE || policy == FlushPolicy.SIZE && buffer.position() >= bufferSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        try {
+            if (channel != null) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } else {
+                out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+        if (buffer.capacity() > 4 * bufferSize) {
+            buffer = allocate(bufferSize);
+        }
+    }
+
+    private void write(Value value) {
+        if (value instanceof IntValue) {
+            writeLong(((IntValue) value).longValue());
+        } else if (value instanceof FloatValue && isPlainFloat(((FloatValue) value).doubleValue())) {
+            // integral floats below 1e14 print as their digits followed by ".0"
+            writeLong((long) ((FloatValue) value).doubleValue());
+            ensureRemaining(2);
+            buffer.put((byte) '.').put((byte) '0');
+        } else if (value instanceof StringValue) {
+            // strings hold the bytes to print, UTF-8 for text from the source or the input
+            StringValue string = (StringValue) value;
+            ensureRemaining(string.length());
+            string.writeTo(buffer);
+        } else {
+            writeChars(value.toString());
+        }
+    }
+
+    private static boolean isPlainFloat(double value) {
+        return value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_FLOAT
+                && (value != 0 || 1 / value > 0);
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeChars(Long.toString(value));
+            return;
+        }
+        ensureRemaining(digits.length);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes the bytes the chars of {@code text} stand for, see {@link StringValue}.
+     */
+    private void writeChars(String text) {
+        int length = text.length();
+        ensureRemaining(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            buffer.put((byte) (c <= 0xFF ? c : '?'));
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return channel != null ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,173 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.ValueList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * Lua coroutine: a call of a Lua function with its own call stack, which stops in the middle at
+ * {@code coroutine.yield} and goes on from there at the next {@code coroutine.resume}.
+ * <p>
+ * The engine running the state creates coroutines (see {@link Program#setCoroutineFactory}) and runs
+ * their calls in {@link #run}; this class keeps their status and hands the values over. Values go
+ * between resume and yield packed like the results of a call: {@code nil} for none, the value itself
+ * for one and a {@link ValueList} for more.
+ */
+public abstract class Coroutine extends Value {
+    /** Returned by {@code coroutine.yield} to the engine, which then suspends the running coroutine. */
+    public static final Value YIELD = new Value() {
+        @Override
+        public String getTypeName() {
+            return "yield";
+        }
+    };
+
+    /** Coroutines resuming each other nest in Java, like C calls in Lua. */
+    private static final int MAX_NESTING = 200;
+
+    public enum Status {
+        SUSPENDED,
+        RUNNING,
+        NORMAL,
+        DEAD;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Creates the coroutines of a state, calling the Lua function {@code function}.
+     */
+    @FunctionalInterface
+    public interface Factory {
+
+        /**
+         * Returns a new suspended coroutine, or {@code null} when there is no Lua function of that name.
+         */
+        Coroutine create(String function, boolean wrapped);
+    }
+
+    private final boolean wrapped;
+    private Status status = Status.SUSPENDED;
+    private Value yielded;
+    private int nesting;
+
+    protected Coroutine(boolean wrapped) {
+        this.wrapped = wrapped;
+    }
+
+    /**
+     * Starts the call with {@code values[first]} to {@code values[first + count - 1]} as its arguments,
+     * or continues it with them as the result of its {@code coroutine.yield}. Returns the result of the
+     * function once it returns, or {@link #YIELD} when it yields.
+     */
+    protected abstract Value run(Value[] values, int first, int count);
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns whether this coroutine was made by {@code coroutine.wrap}, so it is called like a function.
+     */
+    public boolean isWrapped() {
+        return wrapped;
+    }
+
+    /**
+     * Suspends the running coroutine of {@code program} with {@code values}; the engine must return the
+     * result of this method from the native call.
+     */
+    public static Value yield(Program program, Value values) {
+        Coroutine running = program.getRunningCoroutine();
+        if (running == null) {
+            throw new LuaError("attempt to yield from outside a coroutine");
+        }
+        running.yielded = values;
+        return YIELD;
+    }
+
+    /**
+     * Resumes like {@code coroutine.resume}: returns {@code true} followed by the yielded or returned
+     * values, or {@code false} and the error message if the coroutine fails.
+     */
+    public Value resume(Program program, Value[] values, int first, int count) {
+        Value result;
+        try {
+            result = transfer(program, values, first, count);
+        } catch (LuaError e) {
+            return new ValueList(List.of(BooleanValue.FALSE, program.newString(String.valueOf(e.getMessage()))));
+        }
+        List<Value> results = new ArrayList<>(2);
+        results.add(BooleanValue.TRUE);
+        if (result instanceof ValueList) {
+            results.addAll(((ValueList) result).getList());
+        } else if (result != NIL) {
+            results.add(result);
+        }
+        return new ValueList(results);
+    }
+
+    /**
+     * Resumes like a function made by {@code coroutine.wrap}: returns the yielded or returned values, and
+     * raises the error if the coroutine fails.
+     */
+    public Value call(Program program, Value[] values, int first, int count) {
+        return transfer(program, values, first, count);
+    }
+
+    private Value transfer(Program program, Value[] values, int first, int count) {
+        if (status != Status.SUSPENDED) {
+            throw new LuaError(status == Status.DEAD ?
+                    "cannot resume dead coroutine" : "cannot resume non-suspended coroutine");
+        }
+        Coroutine previous = program.getRunningCoroutine();
+        nesting = previous == null ? 1 : previous.nesting + 1;
+        if (nesting > MAX_NESTING) {
+            throw new LuaError("stack overflow (too many nested coroutines)");
+        }
+        if (previous != null) {
+            previous.status = Status.NORMAL;
+        }
+        status = Status.RUNNING;
+        program.setRunningCoroutine(this);
+        try {
+            Value result = run(values, first, count);
+            if (result == YIELD) {
+                status = Status.SUSPENDED;
+                result = yielded;
+                yielded = null;
+            } else {
+                status = Status.DEAD;
+            }
+            return result;
+        } finally {
+            if (status == Status.RUNNING) {
+                // the call failed, its stack is gone
+                status = Status.DEAD;
+            }
+            program.setRunningCoroutine(previous);
+            if (previous != null) {
+                previous.status = Status.RUNNING;
+            }
+        }
+    }
+
+    @Override
+    public String getTypeName() {
+        return wrapped ? "function" : "thread";
+    }
+
+    @Override
+    public String toString() {
+        return getTypeName() + ": 0x" + String.format("%08x", System.identityHashCode(this));
+    }
+}
@@ -0,0 +1,29 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.function.FunctionDef;
+
+/**
+ * Holds the Lua function a {@link Program} defines under one name, or {@code null} while there is none.
+ * Like a {@link GlobalCell}, a cell lives as long as its program, so call sites keep the cell instead of
+ * looking the name up on every call.
+ */
+public final class FunctionCell {
+    private final String name;
+    private FunctionDef function;
+
+    FunctionCell(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FunctionDef getFunction() {
+        return function;
+    }
+
+    public void setFunction(FunctionDef function) {
+        this.function = function;
+    }
+}
@@ -0,0 +1,23 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * Holds the value of one global variable of a {@link Program}. A global keeps its cell for the
+ * lifetime of the program, so code may keep a reference to the cell instead of looking the name up
+ * on every access.
+ */
+public final class GlobalCell {
+    private Value value = Value.NIL;
+
+    GlobalCell() {
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public void setValue(Value value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,59 @@
+package pl.luainterpreter.program;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lines read by {@code read()}. A source blocks until a line is available and returns
+ * {@code null} at the end of input.
+ */
+@FunctionalInterface
+public interface InputSource {
+
+    InputSource EMPTY = () -> null;
+
+    String readLine();
+
+    /**
+     * Returns the source reading the process' standard input. It is shared by all programs and never
+     * closes {@code System.in}.
+     */
+    static InputSource stdin() {
+        return StdinSource.INSTANCE;
+    }
+
+    static InputSource of(Reader reader) {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        return () -> {
+            try {
+                return lines.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Returns a source taking lines from a queue until it takes the {@code endOfInput} instance. Waiting on
+     * the queue parks the thread, so a waiting script on a virtual thread does not hold a carrier thread.
+     */
+    static InputSource of(BlockingQueue<String> lines, String endOfInput) {
+        return () -> {
+            try {
+                String line = lines.take();
+                if (line == endOfInput) {
+                    lines.add(endOfInput);
+                    return null;
+                }
+                return line;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Script interrupted");
+            }
+        };
+    }
+}
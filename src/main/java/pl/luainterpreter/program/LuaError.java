@@ -0,0 +1,14 @@
+package pl.luainterpreter.program;
+
+/**
+ * Error of a script: raised while it runs, e.g. by arithmetic on nil, a call to an undefined function or
+ * exceeding the limits of its state, or while it is compiled, e.g. by a {@code break} outside a loop.
+ * A running script is aborted; globals it has set so far stay in its state.
+ */
+public class LuaError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public LuaError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,77 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.NumberValue;
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * Preparation of numeric {@code for} loops shared by both engines, following Lua 5.4: a loop whose
+ * initial value and step are integers counts with integers, any other loop with floats. Integer loops
+ * compute their number of iterations up front, so the counter never overflows.
+ */
+public final class NumericFor {
+    private static final double TWO_POW_63 = 0x1p63;
+
+    private NumericFor() {
+    }
+
+    public static NumberValue checkNumber(Value value, String what) {
+        NumberValue number = value.toNumber();
+        if (number == null) {
+            throw new LuaError("'for' " + what + " must be a number");
+        }
+        return number;
+    }
+
+    public static void checkStep(double step) {
+        if (step == 0) {
+            throw new LuaError("'for' step is zero");
+        }
+    }
+
+    /**
+     * Returns whether an integer loop from {@code start} runs at all.
+     */
+    public static boolean runs(long start, NumberValue limit, long step) {
+        if (!(limit instanceof IntValue)) {
+            double bound = step > 0 ? Math.floor(limit.doubleValue()) : Math.ceil(limit.doubleValue());
+            // a limit beyond the integers is either never reached or always passed
+            if (Double.isNaN(bound) || bound < -TWO_POW_63) {
+                return step < 0;
+            } else if (bound >= TWO_POW_63) {
+                return step > 0;
+            }
+        }
+        long bound = integerLimit(limit, step);
+        return step > 0 ? start <= bound : start >= bound;
+    }
+
+    /**
+     * Returns how many times a running integer loop repeats after its first iteration, as an unsigned number.
+     */
+    public static long repeats(long start, NumberValue limit, long step) {
+        long bound = integerLimit(limit, step);
+        if (step > 0) {
+            return Long.divideUnsigned(bound - start, step);
+        }
+        return Long.divideUnsigned(start - bound, -(step + 1) + 1L);
+    }
+
+    private static long integerLimit(NumberValue limit, long step) {
+        if (limit instanceof IntValue) {
+            return limit.longValue();
+        }
+        double bound = step > 0 ? Math.floor(limit.doubleValue()) : Math.ceil(limit.doubleValue());
+        if (Double.isNaN(bound) || bound < -TWO_POW_63) {
+            return Long.MIN_VALUE;
+        }
+        return bound >= TWO_POW_63 ? Long.MAX_VALUE : (long) bound;
+    }
+
+    /**
+     * Returns whether a float loop continues with {@code index}.
+     */
+    public static boolean continues(double index, double limit, double step) {
+        return step > 0 ? index <= limit : index >= limit;
+    }
+}
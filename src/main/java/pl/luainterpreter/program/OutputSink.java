@@ -0,0 +1,38 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.value.Value;
+
+import java.io.PrintStream;
+
+/**
+ * Destination of {@code print}. Every state has its own sink, which is flushed when a chunk finishes,
+ * also with an error, and before the script waits for input.
+ */
+public interface OutputSink {
+
+    /**
+     * Writes {@code values[from]} to {@code values[to - 1]} separated by tabs and followed by {@code '\n'},
+     * on every platform.
+     */
+    void print(Value[] values, int from, int to);
+
+    void flush();
+
+    /**
+     * Returns a sink buffering the process' standard output, flushed after every line when the process
+     * runs in a terminal and whenever the buffer fills otherwise. Writes go to {@code System.out} as it
+     * is when the sink is created.
+     */
+    static OutputSink stdout() {
+        return new BufferedOutputSink(System.out, System.console() != null ?
+                BufferedOutputSink.FlushPolicy.LINE : BufferedOutputSink.FlushPolicy.SIZE);
+    }
+
+    /**
+     * Returns a sink printing every line with its own {@link PrintStream#println} call, so the lines show
+     * up right away and never mix with the lines other writers print to the same stream.
+     */
+    static OutputSink unbuffered(PrintStream out) {
+        return new PrintStreamSink(out);
+    }
+}
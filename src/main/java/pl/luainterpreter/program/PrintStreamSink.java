@@ -0,0 +1,32 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.value.StringValue;
+import pl.luainterpreter.program.value.Value;
+
+import java.io.PrintStream;
+
+final class PrintStreamSink implements OutputSink {
+    private final PrintStream out;
+
+    PrintStreamSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void print(Value[] values, int from, int to) {
+        StringValue.Builder line = new StringValue.Builder();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                line.append((byte) '\t');
+            }
+            line.append(values[i]);
+        }
+        line.append((byte) '\n');
+        line.writeTo(out);
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+}
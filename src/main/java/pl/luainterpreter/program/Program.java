@@ -1,132 +1,664 @@
 package pl.luainterpreter.program;
 
-import pl.luainterpreter.program.function.Function;
+import pl.luainterpreter.program.function.Arguments;
 import pl.luainterpreter.program.function.FunctionDef;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.library.StandardLibrary;
+import pl.luainterpreter.program.node.Block;
+import pl.luainterpreter.program.node.Completion;
+import pl.luainterpreter.program.profile.Profiler;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.MemoryMeter;
+import pl.luainterpreter.program.value.NumberValue;
+import pl.luainterpreter.program.value.StringPool;
+import pl.luainterpreter.program.value.StringValue;
 import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.ValueList;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 
-import static java.util.Collections.emptyList;
+/**
+ * State of a running script: globals, defined functions, limits, and the call stack of the tree engine.
+ * <p>
+ * Tree engine calls keep their locals in one value stack, each call a window starting at its first
+ * argument, and the global cells and callee cells of every call in the frame arrays.
+ * A caller evaluates the arguments onto the top of the stack, where the callee's frame then begins, and
+ * the callee's results are moved down to the same place, so a call allocates nothing.
+ */
+public class Program implements MemoryMeter {
+    private static final int CHECK_INTERVAL = 1024;
+    private static final int INITIAL_STACK_SIZE = 1024;
+    private static final int INITIAL_FRAMES = 64;
+    private static final int STRING_HEADER_BYTES = 40;
+    private static final int LAZY_STRING_LENGTH = 256;
+    private static final int COROUTINE_BYTES = 512;
+    /** Lua calls of the tree engine nesting on the Java stack of the thread that runs the script. */
+    private static final int TREE_CALLS_ON_CALLER = 200;
+    /** Lua calls of the tree engine nesting on the Java stack of each {@link StackSegment}. */
+    private static final int TREE_CALLS_PER_SEGMENT = 10_000;
 
-public class Program {
-    private final Map<String, Value> variables;
-    private final Map<String, FunctionDef> functions;
-    private final Stack<Function> functionStack = new Stack<>();
-    private boolean loopBreak = false;
+    private final Map<String, GlobalCell> globals;
+    private final Map<String, FunctionCell> functions;
+    private Map<String, NativeFunction> nativeFunctions = StandardLibrary.FUNCTIONS;
+    private final Arguments arguments = new Arguments();
+    private StringPool strings = new StringPool();
+    private SplittableRandom random;
+    private Value[] stack = new Value[INITIAL_STACK_SIZE];
+    private int frameBase;
+    private int top;
+    private int[] frameBases = new int[INITIAL_FRAMES];
+    private GlobalCell[][] frameGlobals = new GlobalCell[INITIAL_FRAMES][];
+    private FunctionCell[][] frameCallees = new FunctionCell[INITIAL_FRAMES][];
+    private int frameCount;
+    private GlobalCell[] globalCells;
+    private FunctionCell[] calleeCells;
+    // weak keys, so the chunks a long-lived state has run can still be collected with their cells
+    private final Map<Object, GlobalCell[]> resolvedGlobals = new WeakHashMap<>();
+    private Object lastResolved;
+    private GlobalCell[] lastResolvedCells;
+    private final Map<FunctionDef, FunctionCell[]> resolvedCallees = new WeakHashMap<>();
+    private FunctionDef lastLinked;
+    private FunctionCell[] lastLinkedCells;
+    private int returnBase;
+    private int returnCount;
+    private FunctionCell tailCallee;
+    private int tailCallBase;
+    private int tailCallArgs;
+    private final List<StackSegment> segments = new ArrayList<>();
+    private int segmentCount;
+    private int threadCallLimit = TREE_CALLS_ON_CALLER;
+    private final OutputSink out;
+    private final InputSource in;
+    private Profiler profiler;
+    private Coroutine.Factory coroutineFactory;
+    private Coroutine runningCoroutine;
+
+    private long stepLimit = Long.MAX_VALUE;
+    private long steps;
+    private int stepPeriod = CHECK_INTERVAL;
+    private int stepCountdown = CHECK_INTERVAL;
+    private int maxCallDepth = Integer.MAX_VALUE;
+    private long memoryLimit = Long.MAX_VALUE;
+    private long memory;
 
     public Program() {
-        this.variables = new HashMap<>();
+        this(OutputSink.stdout(), InputSource.stdin());
+    }
+
+    public Program(OutputSink out, InputSource in) {
+        this.globals = new HashMap<>();
         this.functions = new HashMap<>();
+        this.out = out;
+        this.in = in;
+    }
+
+    public OutputSink getOut() {
+        return out;
+    }
+
+    /**
+     * Limits the number of steps (loop iterations and function calls) a script may take.
+     */
+    public void setStepLimit(long stepLimit) {
+        this.stepLimit = stepLimit;
+        resetStepCountdown();
+    }
+
+    /**
+     * Limits the approximate number of bytes a script may allocate for tables and strings.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public void setMaxCallDepth(int maxCallDepth) {
+        this.maxCallDepth = maxCallDepth;
+    }
+
+    public int getMaxCallDepth() {
+        return maxCallDepth;
+    }
+
+    public long getSteps() {
+        return steps + stepPeriod - stepCountdown;
+    }
+
+    public long getMemory() {
+        return memory;
     }
 
-    public Value getVar(String name) {
-        return getVar(name, emptyList());
+    /**
+     * Sets the Java functions scripts may call, see {@link StandardLibrary#FUNCTIONS} for the default ones.
+     */
+    public void setNativeFunctions(Map<String, NativeFunction> nativeFunctions) {
+        this.nativeFunctions = nativeFunctions;
     }
 
-    public Value getVar(String name, List<Value> indexList) {
-        Function currentFunction = functionStack.empty() ? null : functionStack.peek();
-        boolean isTableVar = !indexList.isEmpty();
-        Value varValue = null;
-        if (currentFunction != null) {
-            varValue = currentFunction.getVar(name);
+    /**
+     * Sets the pool the short strings built by scripts are interned in, shared with the chunks they run.
+     */
+    public void setStringPool(StringPool strings) {
+        this.strings = strings;
+    }
+
+    /**
+     * Attaches a profiler the engines report calls and lines to, or detaches it with {@code null}.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Called at loop back-edges and function calls. Counts a step and, every {@link #CHECK_INTERVAL}
+     * steps, stops the script if its thread was interrupted or it ran out of steps.
+     */
+    public void checkpoint() {
+        if (--stepCountdown <= 0) {
+            checkLimits();
         }
-        if (varValue == null) {
-            varValue = variables.get(name);
+    }
+
+    /**
+     * Passes {@code steps} checkpoints at once, e.g. for the iterations of a loop with an empty body.
+     * {@code steps} is unsigned.
+     */
+    public void checkpoint(long steps) {
+        while (steps != 0) {
+            int passed = Long.compareUnsigned(steps, stepCountdown) < 0 ? (int) steps : stepCountdown;
+            stepCountdown -= passed;
+            steps -= passed;
+            if (stepCountdown <= 0) {
+                checkLimits();
+            }
         }
-        varValue = isTableVar ? getTableVar(varValue, indexList) : varValue;
-        return varValue == null ? Value.NIL : varValue;
     }
 
-    @SuppressWarnings("unchecked")
-    public Value getTableVar(Value value, List<Value> indexList) {
-        for (Value index : indexList) {
-            Map<Value, Value> tableMap = value.get(Map.class);
-            value = tableMap.get(index);
+    private void checkLimits() {
+        steps += stepPeriod;
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Script interrupted");
         }
-        return value;
+        if (steps >= stepLimit) {
+            stepCountdown = stepPeriod = 0;
+            throw new LuaError("step limit of " + stepLimit + " exceeded");
+        }
+        resetStepCountdown();
     }
 
-    public void setVar(String name, Value value) {
-        setVar(name, value, emptyList());
+    private void resetStepCountdown() {
+        stepPeriod = stepCountdown = (int) Math.max(1, Math.min(CHECK_INTERVAL, stepLimit - steps));
     }
 
-    public void setVar(String name, Value value, List<Value> indexList) {
-        Function currentFunction = functionStack.empty() ? null : functionStack.peek();
-        if (currentFunction != null && currentFunction.getVar(name) != null) {
-            if (indexList.isEmpty()) {
-                currentFunction.addVar(name, value);
-            } else {
-                addTableVar(currentFunction.getVar(name), value, indexList);
-            }
+    @Override
+    public void allocate(long bytes) {
+        memory += bytes;
+        if (memory > memoryLimit) {
+            memory -= bytes;
+            throw new LuaError("not enough memory: limit of " + memoryLimit + " bytes exceeded");
+        }
+    }
 
-        } else {
-            addGlobalVar(name,value, indexList);
+    /**
+     * Fails like {@link #allocate(long)} would, without counting the bytes. Lets a function check the size
+     * of a result before building it.
+     */
+    public void checkAllocation(long bytes) {
+        if (bytes > memoryLimit - memory) {
+            throw new LuaError("not enough memory: limit of " + memoryLimit + " bytes exceeded");
         }
     }
 
-    public void addGlobalVar(String name, Value value, List<Value> indexList) {
-        if (!indexList.isEmpty()) {
-            addTableVar(variables.get(name), value, indexList);
-        } else {
-            variables.put(name, value);
+    /**
+     * Returns a string of the bytes {@code value}'s chars stand for, see {@link StringValue}; a short one
+     * may be an equal string from the {@link StringPool}.
+     */
+    public StringValue newString(String value) {
+        allocate(STRING_HEADER_BYTES + value.length());
+        return strings.intern(new StringValue(value));
+    }
+
+    public StringValue newString(StringValue.Builder builder) {
+        allocate(STRING_HEADER_BYTES + builder.length());
+        return strings.intern(builder.toStringValue());
+    }
+
+    /**
+     * Concatenates {@code values[from]} to {@code values[to - 1]} in one pass. When the first operand is a
+     * long string the others are appended to its buffer, so building a string piece by piece is linear.
+     */
+    public StringValue concat(Value[] values, int from, int to) {
+        Value first = values[from];
+        if (first instanceof StringValue && ((StringValue) first).length() >= LAZY_STRING_LENGTH) {
+            StringValue.Builder buffer = ((StringValue) first).appendBuffer();
+            int start = buffer.length();
+            appendAll(buffer, values, from + 1, to);
+            allocate(STRING_HEADER_BYTES + buffer.length() - start);
+            return buffer.share();
         }
+        StringValue.Builder builder = new StringValue.Builder();
+        appendAll(builder, values, from, to);
+        return newString(builder);
     }
 
-    public void addLocalVar(String name, Value value) {
-        if (functionStack.empty()) {
-            addGlobalVar(name, value, List.of());
-        } else {
-            functionStack.peek().addVar(name, value);
+    private static void appendAll(StringValue.Builder builder, Value[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            builder.append(values[i]);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public void addTableVar(Value startTable, Value value, List<Value> indexList) {
-        Iterator<Value> indexIterator = indexList.iterator();
-        Value table = startTable;
-        while (indexIterator.hasNext()) {
-            Value index = indexIterator.next();
-            Map<Value, Value> tableMap = table.get(Map.class);
-            if (!indexIterator.hasNext()) {
-                tableMap.put(index, value);
+    public LuaTable newTable(int arraySize, int hashSize) {
+        return new LuaTable(this, arraySize, hashSize);
+    }
+
+    public Value getLocalVar(int slot) {
+        return stack[frameBase + slot];
+    }
+
+    public void setLocalVar(int slot, Value value) {
+        stack[frameBase + slot] = value;
+    }
+
+    /**
+     * Returns the first free slot of the value stack, where the arguments of a call are pushed.
+     */
+    public int getTop() {
+        return top;
+    }
+
+    public void push(Value value) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * top);
+        }
+        stack[top++] = value;
+    }
+
+    public Value getGlobalVar(int slot) {
+        return globalCells[slot].getValue();
+    }
+
+    public void setGlobalVar(int slot, Value value) {
+        globalCells[slot].setValue(value);
+    }
+
+    public Value getGlobalVar(String name) {
+        GlobalCell cell = globals.get(name);
+        return cell == null ? Value.NIL : cell.getValue();
+    }
+
+    public void setGlobalVar(String name, Value value) {
+        getGlobalCell(name).setValue(value);
+    }
+
+    /**
+     * Returns the cell of a global variable, creating it if the variable was never assigned.
+     */
+    public GlobalCell getGlobalCell(String name) {
+        GlobalCell cell = globals.get(name);
+        if (cell == null) {
+            cell = new GlobalCell();
+            globals.put(name, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the cells of the globals used by compiled code, resolved once per program. Compiled
+     * functions are shared by all programs, so they cannot hold the cells themselves. Code is compared
+     * by identity, and the cells are kept only while the code is reachable.
+     */
+    public GlobalCell[] getGlobalCells(Object code, String[] names) {
+        if (code != lastResolved) {
+            GlobalCell[] cells = resolvedGlobals.get(code);
+            if (cells == null) {
+                cells = new GlobalCell[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    cells[i] = getGlobalCell(names[i]);
+                }
+                resolvedGlobals.put(code, cells);
             }
-            table = tableMap.get(index);
+            lastResolved = code;
+            lastResolvedCells = cells;
         }
+        return lastResolvedCells;
     }
 
-    public Function callFunction(String name, List<Value> argValues) {
-        FunctionDef functionDef = functions.get(name);
-        int depth = functionStack.empty() ? 0 : functionStack.peek().getDepth();
-        Function function = new Function(functionDef, argValues, ++depth);
-        functionStack.push(function);
-        return function;
+    public Value getTableVar(Value table, Value index) {
+        return table.checkTable().get(index);
     }
 
-    public void enterLoop(String name) {
-        Function loop = new Function(name);
-        functionStack.push(loop);
+    public void setTableVar(Value table, Value index, Value value) {
+        table.checkTable().put(index, value);
     }
 
-    public void breakLoop()
-    {
-        loopBreak = true;
+    public FunctionDef getFunctionDef(String name) {
+        FunctionCell cell = functions.get(name);
+        return cell == null ? null : cell.getFunction();
     }
 
-    public boolean isInLoopBreak()
-    {
-        return loopBreak;
+    public FunctionCell getFunctionCell(String name) {
+        FunctionCell cell = functions.get(name);
+        if (cell == null) {
+            cell = new FunctionCell(name);
+            functions.put(name, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the cell of the function the running call calls by its {@code slot}-th callee name.
+     */
+    public FunctionCell getCallee(int slot) {
+        return calleeCells[slot];
     }
 
-    public void exitLoop() {
-        loopBreak = false;
-        functionStack.pop();
+    private FunctionCell[] getCalleeCells(FunctionDef functionDef) {
+        if (functionDef != lastLinked) {
+            FunctionCell[] cells = resolvedCallees.get(functionDef);
+            if (cells == null) {
+                String[] names = functionDef.getCalleeNames();
+                cells = new FunctionCell[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    cells[i] = getFunctionCell(names[i]);
+                }
+                resolvedCallees.put(functionDef, cells);
+            }
+            lastLinked = functionDef;
+            lastLinkedCells = cells;
+        }
+        return lastLinkedCells;
     }
 
+    /**
+     * Starts a call whose {@code numArgs} arguments were pushed from {@code base} on. The arguments become
+     * the first locals of the new frame, and its other locals start out nil.
+     */
+    public void callFunction(FunctionDef functionDef, int base, int numArgs) {
+        if (frameCount >= maxCallDepth) {
+            throw new LuaError("stack overflow");
+        }
+        int frameSize = functionDef.getFrameSize();
+        if (base + frameSize > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(base + frameSize, 2 * stack.length));
+        }
+        // extra arguments are dropped, their slots belong to locals
+        Arrays.fill(stack, base + Math.min(numArgs, functionDef.getArgNames().size()), base + frameSize, Value.NIL);
+        if (frameCount == frameBases.length) {
+            int size = 2 * frameCount;
+            frameBases = Arrays.copyOf(frameBases, size);
+            frameGlobals = Arrays.copyOf(frameGlobals, size);
+            frameCallees = Arrays.copyOf(frameCallees, size);
+        }
+        globalCells = getGlobalCells(functionDef, functionDef.getGlobalNames());
+        calleeCells = getCalleeCells(functionDef);
+        frameBases[frameCount] = base;
+        frameGlobals[frameCount] = globalCells;
+        frameCallees[frameCount] = calleeCells;
+        frameCount++;
+        frameBase = base;
+        top = base + frameSize;
+        if (profiler != null) {
+            profiler.enter(functionDef.getName());
+        }
+    }
+
+    /**
+     * Executes the body of the call started by {@link #callFunction}.
+     * <p>
+     * The tree engine evaluates every Lua call in a Java call. Past {@link #TREE_CALLS_ON_CALLER} nested
+     * calls, and then every {@link #TREE_CALLS_PER_SEGMENT}, the recursion goes on on the stack of a
+     * {@link StackSegment} while this thread waits, so the call depth is limited only by
+     * {@link #getMaxCallDepth()}.
+     */
+    public Completion executeFunction(FunctionDef functionDef) {
+        Block body = functionDef.getBody();
+        if (frameCount <= threadCallLimit) {
+            return body.execute(this);
+        }
+        if (segmentCount == segments.size()) {
+            segments.add(new StackSegment());
+        }
+        StackSegment segment = segments.get(segmentCount++);
+        int callerLimit = threadCallLimit;
+        threadCallLimit = frameCount + TREE_CALLS_PER_SEGMENT;
+        try {
+            return segment.execute(() -> body.execute(this));
+        } finally {
+            threadCallLimit = callerLimit;
+            segmentCount--;
+        }
+    }
+
+    /**
+     * Notes the {@code count} values an executed {@code return} pushed from {@code first} on, until the call
+     * that is being left takes them.
+     */
+    public void setReturnValues(int first, int count) {
+        returnBase = first;
+        returnCount = count;
+    }
+
+    /**
+     * Moves the values of the {@code return} that ended the left call down to {@code base}, where the call's
+     * arguments began, and returns their number; a call that ended without {@code return} has none.
+     */
+    public int takeReturnValues(int base, boolean returned) {
+        int count = returned ? returnCount : 0;
+        System.arraycopy(stack, returnBase, stack, base, count);
+        top = base + count;
+        return count;
+    }
+
+    /**
+     * Pops the {@code count} results of a call left at {@code base} and returns the first, or nil.
+     */
+    public Value popResults(int base, int count) {
+        top = base;
+        return count == 0 ? Value.NIL : stack[base];
+    }
+
+    /**
+     * Holds the target of an executed tail call, whose {@code numArgs} arguments were pushed from
+     * {@code base} on, until the call that is being left makes it.
+     */
+    public void setTailCall(FunctionCell callee, int base, int numArgs) {
+        tailCallee = callee;
+        tailCallBase = base;
+        tailCallArgs = numArgs;
+    }
+
+    public FunctionCell takeTailCallee() {
+        FunctionCell callee = tailCallee;
+        tailCallee = null;
+        return callee;
+    }
+
+    /**
+     * Moves the arguments of the tail call down to {@code base}, where the left call's frame began, and
+     * returns their number.
+     */
+    public int moveTailCallArgs(int base) {
+        System.arraycopy(stack, tailCallBase, stack, base, tailCallArgs);
+        top = base + tailCallArgs;
+        return tailCallArgs;
+    }
+
+    public int getCallDepth() {
+        return frameCount;
+    }
+
+    /**
+     * Drops the calls left on the stack by a script aborted with an exception.
+     */
+    public void unwind(int callDepth) {
+        while (frameCount > callDepth) {
+            endFunction();
+        }
+        returnCount = 0;
+        tailCallee = null;
+    }
+
+    /**
+     * Ends the running call, popping its frame and arguments off the value stack.
+     */
     public void endFunction() {
-        functionStack.pop();
+        if (profiler != null) {
+            profiler.exit();
+        }
+        top = frameBases[--frameCount];
+        if (frameCount > 0) {
+            frameBase = frameBases[frameCount - 1];
+            globalCells = frameGlobals[frameCount - 1];
+            calleeCells = frameCallees[frameCount - 1];
+        } else {
+            frameBase = 0;
+            globalCells = null;
+            calleeCells = null;
+        }
     }
 
     public void addFunctionDef(FunctionDef functionDef) {
-        functions.put(functionDef.getName(), functionDef);
+        getFunctionCell(functionDef.getName()).setFunction(functionDef);
+    }
+
+    public NativeFunction getNativeFunction(String name) {
+        return nativeFunctions.get(name);
+    }
+
+    /**
+     * Calls a native function with {@code values[first]} to {@code values[first + count - 1]}. Only the
+     * coroutine functions call back into Lua, and they copy their arguments first, so all calls share one
+     * {@link Arguments} view.
+     */
+    public Value callNative(NativeFunction function, String name, Value[] values, int first, int count) {
+        if (profiler == null) {
+            return function.call(this, arguments.set(name, values, first, count));
+        }
+        profiler.enter(name);
+        try {
+            return function.call(this, arguments.set(name, values, first, count));
+        } finally {
+            profiler.exit();
+        }
+    }
+
+    /**
+     * Calls the native function {@code name} with the arguments pushed from {@code base} on, replaces them
+     * with its results and returns the number of results. The values of a {@link ValueList} become separate
+     * results.
+     */
+    public int callNative(String name, int base, int numArgs) {
+        NativeFunction function = nativeFunctions.get(name);
+        Value result = function == null ?
+                callGlobal(name, stack, base, numArgs) :
+                callNative(function, name, stack, base, numArgs);
+        if (!(result instanceof ValueList)) {
+            if (base == stack.length) {
+                stack = Arrays.copyOf(stack, 2 * base);
+            }
+            stack[base] = result;
+            top = base + 1;
+            return 1;
+        }
+        List<Value> values = ((ValueList) result).getList();
+        if (base + values.size() >= stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(2 * stack.length, base + values.size() + 1));
+        }
+        for (int k = 0; k < values.size(); k++) {
+            stack[base + k] = values.get(k);
+        }
+        top = base + values.size();
+        return values.size();
+    }
+
+    /**
+     * Calls the global variable {@code name}, for a name with neither a Lua nor a native function. Only
+     * functions made by {@code coroutine.wrap} are values that can be called.
+     */
+    public Value callGlobal(String name, Value[] values, int first, int count) {
+        Value value = getGlobalVar(name);
+        if (!(value instanceof Coroutine) || !((Coroutine) value).isWrapped()) {
+            throw new LuaError("Call to undefined function: " + name);
+        }
+        return ((Coroutine) value).call(this, values, first, count);
+    }
+
+    /**
+     * Lets scripts create coroutines, made by the engine running the state.
+     */
+    public void setCoroutineFactory(Coroutine.Factory coroutineFactory) {
+        this.coroutineFactory = coroutineFactory;
+    }
+
+    /**
+     * Returns a new coroutine calling the Lua function {@code function}, or {@code null} if there is none.
+     * Fails on the tree engine, which sets no factory: its calls nest in Java and cannot be suspended.
+     */
+    public Coroutine newCoroutine(String function, boolean wrapped) {
+        if (coroutineFactory == null) {
+            throw new LuaError("coroutines are not supported by the tree engine, use the bytecode or jit engine");
+        }
+        Coroutine coroutine = coroutineFactory.create(function, wrapped);
+        if (coroutine != null) {
+            allocate(COROUTINE_BYTES);
+        }
+        return coroutine;
+    }
+
+    /**
+     * Returns the coroutine running now, or {@code null} in the main call of the chunk.
+     */
+    public Coroutine getRunningCoroutine() {
+        return runningCoroutine;
+    }
+
+    void setRunningCoroutine(Coroutine coroutine) {
+        this.runningCoroutine = coroutine;
+    }
+
+    /**
+     * Prints the values pushed from {@code base} on, and pops them.
+     */
+    public void print(int base) {
+        out.print(stack, base, top);
+        top = base;
+    }
+
+    /**
+     * Returns the generator of {@code math.random}, seeded randomly until the script seeds it.
+     */
+    public SplittableRandom getRandom() {
+        if (random == null) {
+            random = new SplittableRandom();
+        }
+        return random;
+    }
+
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    public Value read(String valueType) {
+        // a prompt printed before reading must show up before the script waits
+        out.flush();
+        String value = in.readLine();
+        if (value == null) {
+            return Value.NIL;
+        }
+        switch (valueType) {
+            case "*n", "*number" -> {
+                NumberValue number = NumberValue.parse(value);
+                return number == null ? Value.NIL : number;
+            }
+            default -> {
+                StringValue line = StringValue.fromText(value);
+                allocate(STRING_HEADER_BYTES + line.length());
+                return strings.intern(line);
+            }
+        }
     }
 }
@@ -0,0 +1,104 @@
+package pl.luainterpreter.program;
+
+import pl.luainterpreter.program.node.Completion;
+
+import java.util.function.Supplier;
+
+/**
+ * Thread with a Java stack of its own, on which the tree engine goes on with a recursion too deep for
+ * the stack of the calling thread, see {@link Program#executeFunction}. The caller waits while the thread
+ * runs, so the state is still used by one thread at a time.
+ * <p>
+ * The thread is kept for the next call reaching the same depth and ends after {@link #IDLE_MILLIS} without
+ * one. An interrupt of the waiting caller is passed on to the thread, so limits and timeouts still stop it.
+ */
+final class StackSegment {
+    private static final long STACK_BYTES = 64L << 20;
+    private static final long IDLE_MILLIS = 10_000;
+
+    private final Object lock = new Object();
+    private Thread thread;
+    private Supplier<Completion> task;
+    private Completion result;
+    private Throwable failure;
+    private boolean done;
+
+    /**
+     * Runs {@code task} on the thread of this segment and returns its result, or throws what it threw.
+     */
+    Completion execute(Supplier<Completion> task) {
+        boolean interrupted = false;
+        synchronized (lock) {
+            this.task = task;
+            done = false;
+            if (thread == null) {
+                thread = new Thread(null, this::serve, "lua-stack-segment", STACK_BYTES);
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                lock.notifyAll();
+            }
+            while (!done) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    thread.interrupt();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable thrown = failure;
+        Completion completion = result;
+        failure = null;
+        result = null;
+        if (thrown instanceof RuntimeException) {
+            throw (RuntimeException) thrown;
+        } else if (thrown instanceof Error) {
+            throw (Error) thrown;
+        } else if (thrown != null) {
+            throw new IllegalStateException(thrown);
+        }
+        return completion;
+    }
+
+    private void serve() {
+        while (true) {
+            Supplier<Completion> next;
+            synchronized (lock) {
+                long idleSince = System.currentTimeMillis();
+                while (task == null) {
+                    long idle = System.currentTimeMillis() - idleSince;
+                    if (idle >= IDLE_MILLIS) {
+                        thread = null;
+                        return;
+                    }
+                    try {
+                        lock.wait(IDLE_MILLIS - idle);
+                    } catch (InterruptedException e) {
+                        // an interrupt meant for a task that has already finished
+                    }
+                }
+                next = task;
+                task = null;
+            }
+            Completion completion = null;
+            Throwable thrown = null;
+            try {
+                completion = next.get();
+            } catch (Throwable e) {
+                thrown = e;
+            }
+            synchronized (lock) {
+                // interrupts from the caller came while the task ran and are not meant for the next one
+                Thread.interrupted();
+                result = completion;
+                failure = thrown;
+                done = true;
+                lock.notifyAll();
+            }
+        }
+    }
+}
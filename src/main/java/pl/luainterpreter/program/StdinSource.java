@@ -0,0 +1,10 @@
+package pl.luainterpreter.program;
+
+import java.io.InputStreamReader;
+
+final class StdinSource {
+    static final InputSource INSTANCE = InputSource.of(new InputStreamReader(System.in));
+
+    private StdinSource() {
+    }
+}
@@ -0,0 +1,171 @@
+package pl.luainterpreter.program.bytecode;
+
+import pl.luainterpreter.program.value.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * Binary form of a compiled chunk, the counterpart of {@code luac} output. A header with a magic
+ * number and {@link #VERSION} is followed by the main {@link Prototype}; nested prototypes are
+ * written depth first. All numbers are big endian.
+ */
+public final class ChunkFormat {
+    private static final int MAGIC = 0x1B4C7561; // "\033Lua"
+    private static final int VERSION = 9;
+
+    private static final byte NIL_CONSTANT = 0;
+    private static final byte FALSE_CONSTANT = 1;
+    private static final byte TRUE_CONSTANT = 2;
+    private static final byte INT_CONSTANT = 3;
+    private static final byte FLOAT_CONSTANT = 4;
+    private static final byte STRING_CONSTANT = 5;
+
+    private ChunkFormat() {
+    }
+
+    public static void write(Prototype chunk, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writePrototype(chunk, out);
+    }
+
+    /**
+     * Reads a chunk written by {@link #write}.
+     *
+     * @throws IllegalStateException if the data is not a chunk of the current version
+     */
+    public static Prototype read(ByteBuffer in) {
+        if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IllegalStateException("Not a precompiled chunk of version " + VERSION);
+        }
+        try {
+            Prototype chunk = readPrototype(in, new HashMap<>());
+            if (in.hasRemaining()) {
+                throw new IllegalStateException("Trailing data after precompiled chunk");
+            }
+            return chunk;
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Malformed precompiled chunk", e);
+        }
+    }
+
+    private static void writePrototype(Prototype proto, DataOutputStream out) throws IOException {
+        writeString(proto.getName(), out);
+        out.writeInt(proto.getNumParams());
+        out.writeInt(proto.getMaxStack());
+
+        out.writeInt(proto.getCode().length);
+        for (int instruction : proto.getCode()) {
+            out.writeInt(instruction);
+        }
+        for (int line : proto.getLines()) {
+            out.writeInt(line);
+        }
+
+        out.writeInt(proto.getConstants().length);
+        for (Value constant : proto.getConstants()) {
+            writeConstant(constant, out);
+        }
+
+        out.writeInt(proto.getNames().length);
+        for (String name : proto.getNames()) {
+            writeString(name, out);
+        }
+
+        out.writeInt(proto.getPrototypes().length);
+        for (Prototype nested : proto.getPrototypes()) {
+            writePrototype(nested, out);
+        }
+    }
+
+    /**
+     * Reads a prototype and its nested prototypes, which share one instance of equal string constants
+     * like the compiler's output does.
+     */
+    private static Prototype readPrototype(ByteBuffer in, Map<StringValue, StringValue> strings) {
+        String name = readString(in);
+        int numParams = in.getInt();
+        int maxStack = in.getInt();
+
+        int[] code = new int[in.getInt()];
+        in.asIntBuffer().get(code);
+        in.position(in.position() + code.length * Integer.BYTES);
+        int[] lines = new int[code.length];
+        in.asIntBuffer().get(lines);
+        in.position(in.position() + lines.length * Integer.BYTES);
+
+        Value[] constants = new Value[in.getInt()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = readConstant(in, strings);
+        }
+
+        String[] names = new String[in.getInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+
+        Prototype[] prototypes = new Prototype[in.getInt()];
+        for (int i = 0; i < prototypes.length; i++) {
+            prototypes[i] = readPrototype(in, strings);
+        }
+        return new Prototype(name, numParams, maxStack, code, lines, constants, names, prototypes);
+    }
+
+    private static void writeConstant(Value constant, DataOutputStream out) throws IOException {
+        if (constant == NIL) {
+            out.writeByte(NIL_CONSTANT);
+        } else if (constant instanceof BooleanValue) {
+            out.writeByte(constant.isTruthy() ? TRUE_CONSTANT : FALSE_CONSTANT);
+        } else if (constant instanceof IntValue) {
+            out.writeByte(INT_CONSTANT);
+            out.writeLong(((IntValue) constant).longValue());
+        } else if (constant instanceof FloatValue) {
+            out.writeByte(FLOAT_CONSTANT);
+            out.writeDouble(((FloatValue) constant).doubleValue());
+        } else if (constant instanceof StringValue) {
+            out.writeByte(STRING_CONSTANT);
+            // the bytes of the string as they are, it need not be text
+            byte[] bytes = constant.toString().getBytes(StandardCharsets.ISO_8859_1);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            throw new IllegalStateException("Unexpected constant type: " + constant.getTypeName());
+        }
+    }
+
+    private static Value readConstant(ByteBuffer in, Map<StringValue, StringValue> strings) {
+        byte type = in.get();
+        return switch (type) {
+            case NIL_CONSTANT -> NIL;
+            case FALSE_CONSTANT -> BooleanValue.FALSE;
+            case TRUE_CONSTANT -> BooleanValue.TRUE;
+            case INT_CONSTANT -> IntValue.valueOf(in.getLong());
+            case FLOAT_CONSTANT -> new FloatValue(in.getDouble());
+            case STRING_CONSTANT -> {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                yield strings.computeIfAbsent(new StringValue(bytes), string -> string);
+            }
+            default -> throw new IllegalStateException("Unexpected constant tag: " + type);
+        };
+    }
+
+    private static void writeString(String value, DataOutputStream out) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
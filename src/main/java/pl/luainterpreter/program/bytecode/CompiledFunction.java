@@ -0,0 +1,91 @@
+package pl.luainterpreter.program.bytecode;
+
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.StringValue;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.ValueList;
+
+/**
+ * Base class of the JVM classes the {@link JitCompiler} generates from prototypes, with the operations
+ * their code calls.
+ */
+abstract class CompiledFunction {
+    /** Returned by code ending in a tail call, which its caller makes, see {@link VirtualMachine#tailCall}. */
+    static final Value TAIL_CALL = new Marker();
+    /** Returned when the registers do not hold the types the code was compiled for at its entry. */
+    static final Value REJECTED = new Marker();
+    /** Returned when the code left other than one result on the stack, see {@link VirtualMachine#results}. */
+    static final Value RESULTS = new Marker();
+
+    final Prototype proto;
+    final Value[] constants;
+    final int[] fieldSlots;
+
+    CompiledFunction(Prototype proto) {
+        this.proto = proto;
+        this.constants = proto.getConstants();
+        this.fieldSlots = proto.getFieldSlots();
+    }
+
+    /**
+     * Runs the prototype in the frame at {@code base}, from pc 0 for a call or from the target of a
+     * backward jump for a loop the interpreter was running. Returns the single result, or one of the markers.
+     */
+    abstract Value call(VirtualMachine vm, int base, int entryPc);
+
+    static long mod(long left, long right) {
+        if (right == 0) {
+            throw new LuaError("attempt to perform 'n%0'");
+        }
+        return Math.floorMod(left, right);
+    }
+
+    static double mod(double left, double right) {
+        double mod = left % right;
+        return mod != 0 && (mod < 0) != (right < 0) ? mod + right : mod;
+    }
+
+    static long length(Value value) {
+        if (value instanceof LuaTable) {
+            return ((LuaTable) value).length();
+        } else if (value instanceof StringValue) {
+            return ((StringValue) value).length();
+        } else if (value instanceof ValueList) {
+            return ((ValueList) value).getList().size();
+        }
+        throw new LuaError("attempt to get length of a " + value.getTypeName() + " value");
+    }
+
+    static Value index(Value table, long key) {
+        return table.checkTable().get(key);
+    }
+
+    static Value index(Value table, Value key) {
+        return table.checkTable().get(key);
+    }
+
+    static void setIndex(Value table, long key, Value value) {
+        table.checkTable().put(key, value);
+    }
+
+    static void setIndex(Value table, Value key, Value value) {
+        table.checkTable().put(key, value);
+    }
+
+    static Value and(Value left, Value right) {
+        return left.isTruthy() && right.isTruthy() ? BooleanValue.TRUE : BooleanValue.FALSE;
+    }
+
+    static Value or(Value left, Value right) {
+        return left.isTruthy() || right.isTruthy() ? BooleanValue.TRUE : BooleanValue.FALSE;
+    }
+
+    private static final class Marker extends Value {
+        @Override
+        public String getTypeName() {
+            return "marker";
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package pl.luainterpreter.program.bytecode;
+
+import pl.luainterpreter.program.value.FloatValue;
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * Tiering policy of the {@link VirtualMachine}. A prototype starts out interpreted; the machine counts
+ * its calls and the backward jumps of its loops, and once either passes its threshold the prototype is
+ * compiled by the {@link JitCompiler}. Later calls run the compiled code, and a hot loop switches to it
+ * in the middle of the call (on-stack replacement).
+ * <p>
+ * Compiled code speculates on the types of registers. When a register turns out to hold another type
+ * the code is deoptimized: the call goes on in the interpreter, the speculation that failed is not made
+ * again, and the prototype gets compiled again once it is hot again. A prototype that deoptimizes too
+ * often, or cannot be compiled, stays interpreted.
+ * <p>
+ * Counters and compiled code belong to the prototype, so all states running a chunk share them. The
+ * counters are not synchronized; a lost update only delays the compilation.
+ */
+final class Jit {
+    static final int CALL_THRESHOLD = Integer.getInteger("lua.jit.calls", 1000);
+    static final int LOOP_THRESHOLD = Integer.getInteger("lua.jit.loops", 10000);
+    /** Compiled calls nest in Java; deeper calls are interpreted so that the Java stack cannot overflow. */
+    static final int MAX_DEPTH = 200;
+
+    private static final int MAX_DEOPTIMIZATIONS = 8;
+
+    private Jit() {
+    }
+
+    /**
+     * Counts a call of {@code proto} with the arguments at {@code base} and returns its compiled code,
+     * or {@code null} while it is interpreted.
+     */
+    static CompiledFunction compiledFor(Prototype proto, Value[] stack, int base, int numArgs) {
+        CompiledFunction compiled = proto.compiled;
+        if (compiled != null || ++proto.calls < CALL_THRESHOLD || proto.notCompilable) {
+            return compiled;
+        }
+        return compile(proto, stack, base, numArgs);
+    }
+
+    /**
+     * Counts a loop iteration of {@code proto}, whose registers start at {@code base}.
+     */
+    static CompiledFunction compiledForLoop(Prototype proto, Value[] stack, int base) {
+        CompiledFunction compiled = proto.compiled;
+        if (compiled != null || ++proto.backEdges < LOOP_THRESHOLD || proto.notCompilable) {
+            return compiled;
+        }
+        return compile(proto, stack, base, proto.getNumParams());
+    }
+
+    private static CompiledFunction compile(Prototype proto, Value[] stack, int base, int numArgs) {
+        synchronized (proto) {
+            if (proto.compiled == null && !proto.notCompilable) {
+                // parameters are expected to keep the number types of the call that made the prototype hot
+                int[] paramTypes = new int[proto.getNumParams()];
+                for (int i = 0; i < paramTypes.length; i++) {
+                    Value arg = i < numArgs ? stack[base + i] : null;
+                    paramTypes[i] = arg instanceof IntValue ? JitCompiler.INT :
+                            arg instanceof FloatValue ? JitCompiler.FLOAT : JitCompiler.SPECULATIVE;
+                }
+                try {
+                    proto.compiled = new JitCompiler(proto, paramTypes).compile();
+                } catch (RuntimeException | LinkageError e) {
+                    // e.g. a method too large for the JVM
+                    proto.notCompilable = true;
+                }
+            }
+            proto.calls = 0;
+            proto.backEdges = 0;
+            return proto.compiled;
+        }
+    }
+
+    /**
+     * Drops the compiled code of {@code proto} because the speculation made for {@code definition} (see
+     * {@link JitCompiler}) failed. Calls running the code go on with it, it stays correct.
+     */
+    static void deoptimize(Prototype proto, int definition) {
+        synchronized (proto) {
+            proto.unspeculated.set(definition);
+            proto.compiled = null;
+            if (++proto.deoptimizations >= MAX_DEOPTIMIZATIONS) {
+                proto.notCompilable = true;
+            }
+        }
+    }
+}
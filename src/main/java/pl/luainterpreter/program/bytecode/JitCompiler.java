@@ -0,0 +1,1511 @@
+package pl.luainterpreter.program.bytecode;
+
+import lua.LuaParser;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import pl.luainterpreter.program.GlobalCell;
+import pl.luainterpreter.program.NumericFor;
+import pl.luainterpreter.program.OutputSink;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.FloatValue;
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.NumberValue;
+import pl.luainterpreter.program.value.StringValue;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.Value.ValueOperations;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static pl.luainterpreter.program.bytecode.OpCode.*;
+
+/**
+ * Compiles a {@link Prototype} into a JVM class extending {@link CompiledFunction}, so that HotSpot
+ * can inline and register-allocate the Lua code.
+ * <p>
+ * Registers become local variables of the generated method. Every definition of a register starts a
+ * value; the values that meet at some use (reaching definitions joined by their uses) share a local,
+ * so a register reused for unrelated values gets one local per use. A local holds a {@code long} when
+ * all definitions of its value produce integers, a {@code double} when they produce floats, and a
+ * {@link Value} otherwise. Integer loops count in {@code long} locals as well.
+ * <p>
+ * Definitions whose type is only known at run time (table reads, globals, call results, arithmetic on
+ * such values) do not make their value a {@link Value}: the local gets the type of the other
+ * definitions, and the speculative definition is guarded. So are parameters, which are expected to keep
+ * the types they had when the prototype got hot. A failed guard deoptimizes: the code writes its live
+ * registers and loop counters back to the stack and lets the interpreter finish the call, see
+ * {@link Jit#deoptimize}.
+ * <p>
+ * The method can also be entered at the target of every backward jump, loading the live registers from
+ * the stack of the interpreted frame; a value of the wrong type there rejects the entry.
+ */
+final class JitCompiler {
+    static final int NONE = 0;
+    static final int INT = 1;
+    static final int FLOAT = 2;
+    static final int ANY = 3;
+    /** Type of a definition known only at run time. */
+    static final int SPECULATIVE = 4;
+    /** Type of the state of a numeric loop, defined by {@code FORPREP}. */
+    static final int LOOP = 5;
+
+    private static final int MAX_INSTRUCTIONS = 4000;
+
+    private static final int THIS = 0;
+    private static final int VM = 1;
+    private static final int BASE = 2;
+    private static final int ENTRY_PC = 3;
+    private static final int PROGRAM = 4;
+    private static final int CONSTANTS = 5;
+    private static final int CALLEES = 6;
+    private static final int FIELD_SLOTS = 7;
+    private static final int GLOBALS = 8;
+    private static final int TEMP = 9;
+    private static final int TEMP2 = 10;
+    private static final int FIRST_LOCAL = 11;
+
+    private static final String COMPILED = Type.getInternalName(CompiledFunction.class);
+
+    private final Prototype proto;
+    private final int[] code;
+    private final Value[] k;
+    private final int size;
+    private final int registers;
+    private final int[] paramTypes;
+
+    private int[][] uses;
+    private int[] defs;
+    private BitSet[] defsOf;
+    private BitSet[] reaching;
+    private BitSet[] live;
+    private int[][] useDefs;
+    private int[] parent;
+    private int[] webTypes;
+    private int[] webUses;
+    private List<List<Integer>> webDefs;
+    private int[] webLoops;
+    private boolean[] intLoops;
+    private int[] slots;
+    private int[] loopSlots;
+    private boolean[] jumpTargets;
+    private TreeSet<Integer> entries;
+
+    private MethodVisitor mv;
+    private Label[] labels;
+    private final List<Runnable> stubs = new ArrayList<>();
+
+    JitCompiler(Prototype proto, int[] paramTypes) {
+        this.proto = proto;
+        this.code = proto.getCode();
+        this.k = proto.getConstants();
+        this.size = code.length;
+        this.registers = proto.getMaxStack();
+        this.paramTypes = paramTypes;
+    }
+
+    CompiledFunction compile() {
+        if (size > MAX_INSTRUCTIONS) {
+            throw new IllegalStateException("Prototype too large to compile: " + proto.getName());
+        }
+        analyze();
+        byte[] bytes = generate();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (CompiledFunction) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Prototype.class)).invoke(proto);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unexpected failure loading compiled " + proto.getName(), e);
+        }
+    }
+
+    //=============================================
+    //================= ANALYSIS ==================
+    //=============================================
+    //region Analysis
+
+    private void analyze() {
+        uses = new int[size][];
+        defs = new int[size];
+        defsOf = new BitSet[registers];
+        for (int r = 0; r < registers; r++) {
+            defsOf[r] = new BitSet();
+            defsOf[r].set(size + r);
+        }
+        jumpTargets = new boolean[size + 1];
+        entries = new TreeSet<>();
+        entries.add(0);
+        intLoops = new boolean[size];
+        for (int pc = 0; pc < size; pc++) {
+            uses[pc] = readRegisters(pc);
+            defs[pc] = writtenRegister(code[pc]);
+            if (defs[pc] >= 0) {
+                defsOf[defs[pc]].set(pc);
+            }
+            int op = op(code[pc]);
+            if (op == JMP || op == JMPF || op == FORPREP || op == FORLOOP) {
+                int target = pc + 1 + sbx(code[pc]);
+                jumpTargets[target] = true;
+                if (target <= pc) {
+                    entries.add(target);
+                }
+            }
+            if (op == FORPREP && op(code[pc + sbx(code[pc])]) != FORLOOP) {
+                throw new IllegalStateException("Unexpected loop layout at pc " + pc);
+            }
+        }
+        reachingDefinitions();
+        liveRegisters();
+        joinValues();
+        inferTypes();
+        allocateLocals();
+    }
+
+    private int[] readRegisters(int pc) {
+        int i = code[pc];
+        return switch (op(i)) {
+            case MOVE -> new int[]{b(i)};
+            case SETGLOBAL, JMPF, FORLOOP, FORINDEX -> new int[]{a(i)};
+            case GETTABLE -> registers(b(i), c(i));
+            case SETTABLE -> registers(a(i), b(i), c(i));
+            case GETFIELD -> new int[]{b(i)};
+            case SETFIELD -> registers(a(i), c(i));
+            case ADD, SUB, MUL, DIV, MOD, POW, EQ, NE, LT, LE, GT, GE, AND, OR -> registers(b(i), c(i));
+            case UNM, NOT, LEN -> registers(b(i));
+            case CONCAT -> range(b(i), c(i) - b(i) + 1);
+            case FORPREP -> range(a(i), 3);
+            case CALL, TAILCALL, PRINT, RETURN -> range(a(i), registerCount(pc));
+            default -> new int[0];
+        };
+    }
+
+    /**
+     * Returns the number of registers a call, print or return at {@code pc} takes its values from. With
+     * {@link OpCode#MULTI} the results of the call right before it follow them, they stay on the stack.
+     */
+    private int registerCount(int pc) {
+        int i = code[pc];
+        return b(i) == MULTI ? a(code[pc - 1]) - a(i) : b(i);
+    }
+
+    private static int[] registers(int... operands) {
+        int count = 0;
+        for (int operand : operands) {
+            if (operand < RK_CONSTANT) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int operand : operands) {
+            if (operand < RK_CONSTANT) {
+                result[count++] = operand;
+            }
+        }
+        return result;
+    }
+
+    private static int[] range(int first, int count) {
+        int[] result = new int[count];
+        for (int j = 0; j < count; j++) {
+            result[j] = first + j;
+        }
+        return result;
+    }
+
+    private static int writtenRegister(int i) {
+        return switch (op(i)) {
+            case MOVE, LOADK, GETGLOBAL, GETTABLE, GETFIELD, NEWTABLE, ADD, SUB, MUL, DIV, MOD, POW, UNM, NOT,
+                    LEN, CONCAT, EQ, NE, LT, LE, GT, GE, AND, OR, CALL, TAILCALL, READ, FORPREP -> a(i);
+            case FORINDEX -> a(i) + 3;
+            default -> -1;
+        };
+    }
+
+    private int[] successors(int pc) {
+        int i = code[pc];
+        return switch (op(i)) {
+            case JMP -> new int[]{pc + 1 + sbx(i)};
+            case JMPF, FORPREP, FORLOOP -> new int[]{pc + 1, pc + 1 + sbx(i)};
+            case RETURN -> new int[0];
+            default -> new int[]{pc + 1};
+        };
+    }
+
+    /**
+     * Computes the definitions reaching each instruction. Definition {@code pc} is the register written
+     * at {@code pc}, definition {@code size + r} the value register {@code r} has on entry.
+     */
+    private void reachingDefinitions() {
+        reaching = new BitSet[size];
+        for (int pc = 0; pc < size; pc++) {
+            reaching[pc] = new BitSet();
+        }
+        reaching[0].set(size, size + registers);
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        boolean[] queued = new boolean[size];
+        for (int pc = 0; pc < size; pc++) {
+            work.add(pc);
+            queued[pc] = true;
+        }
+        while (!work.isEmpty()) {
+            int pc = work.poll();
+            queued[pc] = false;
+            BitSet out = (BitSet) reaching[pc].clone();
+            if (defs[pc] >= 0) {
+                out.andNot(defsOf[defs[pc]]);
+                out.set(pc);
+            }
+            for (int next : successors(pc)) {
+                BitSet added = (BitSet) out.clone();
+                added.andNot(reaching[next]);
+                if (!added.isEmpty()) {
+                    reaching[next].or(added);
+                    if (!queued[next]) {
+                        work.add(next);
+                        queued[next] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void liveRegisters() {
+        live = new BitSet[size + 1];
+        for (int pc = 0; pc <= size; pc++) {
+            live[pc] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pc = size - 1; pc >= 0; pc--) {
+                BitSet in = new BitSet();
+                for (int next : successors(pc)) {
+                    in.or(live[next]);
+                }
+                if (defs[pc] >= 0) {
+                    in.clear(defs[pc]);
+                }
+                for (int r : uses[pc]) {
+                    in.set(r);
+                }
+                if (!in.equals(live[pc])) {
+                    live[pc] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Joins the definitions reaching a common use into one value.
+     */
+    private void joinValues() {
+        parent = new int[size + registers];
+        for (int id = 0; id < parent.length; id++) {
+            parent[id] = id;
+        }
+        useDefs = new int[size][];
+        for (int pc = 0; pc < size; pc++) {
+            useDefs[pc] = new int[uses[pc].length];
+            for (int j = 0; j < uses[pc].length; j++) {
+                BitSet reached = (BitSet) reaching[pc].clone();
+                reached.and(defsOf[uses[pc][j]]);
+                int first = reached.nextSetBit(0);
+                for (int id = reached.nextSetBit(first + 1); id >= 0; id = reached.nextSetBit(id + 1)) {
+                    union(first, id);
+                }
+                useDefs[pc][j] = first;
+            }
+        }
+        webUses = new int[parent.length];
+        for (int pc = 0; pc < size; pc++) {
+            for (int id : useDefs[pc]) {
+                webUses[find(id)]++;
+            }
+        }
+        webDefs = new ArrayList<>();
+        for (int id = 0; id < parent.length; id++) {
+            webDefs.add(new ArrayList<>());
+        }
+        for (int id = 0; id < parent.length; id++) {
+            if (id >= size || defs[id] >= 0) {
+                webDefs.get(find(id)).add(id);
+            }
+        }
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void union(int first, int second) {
+        parent[find(second)] = find(first);
+    }
+
+    private void inferTypes() {
+        webTypes = new int[parent.length];
+        webLoops = new int[parent.length];
+        boolean widened = true;
+        while (widened) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int id = 0; id < parent.length; id++) {
+                    if (id < size && defs[id] < 0) {
+                        continue;
+                    }
+                    int type = definitionType(id);
+                    if (type != NONE && type != SPECULATIVE) {
+                        int web = find(id);
+                        int joined = join(webTypes[web], type);
+                        if (joined != webTypes[web]) {
+                            webTypes[web] = joined;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            // a value that no definition gives a type holds anything
+            widened = false;
+            for (int web = 0; web < parent.length; web++) {
+                if (find(web) == web && webTypes[web] == NONE && !webDefs.get(web).isEmpty()) {
+                    webTypes[web] = ANY;
+                    widened = true;
+                }
+            }
+        }
+        for (int pc = 0; pc < size; pc++) {
+            if (op(code[pc]) == FORPREP) {
+                intLoops[pc] = isIntLoop(pc);
+                webLoops[find(pc)] = pc;
+            }
+        }
+    }
+
+    private static int join(int type, int other) {
+        if (type == NONE || type == other) {
+            return other;
+        } else if (type == LOOP || other == LOOP) {
+            throw new IllegalStateException("Unexpected use of a loop state");
+        }
+        return ANY;
+    }
+
+    private int definitionType(int id) {
+        if (proto.unspeculated.get(id)) {
+            return ANY;
+        } else if (id >= size) {
+            int register = id - size;
+            return register < paramTypes.length ? paramTypes[register] : ANY;
+        }
+        int i = code[id];
+        return switch (op(i)) {
+            case MOVE -> operandType(id, b(i));
+            case LOADK -> constantType(k[bx(i)]);
+            case ADD, SUB, MUL, MOD -> {
+                int left = operandType(id, b(i));
+                int right = operandType(id, c(i));
+                if (left == NONE || right == NONE) {
+                    yield NONE;
+                } else if (left == INT && right == INT) {
+                    yield INT;
+                }
+                yield isNumber(left) && isNumber(right) ? FLOAT : SPECULATIVE;
+            }
+            case DIV, POW -> {
+                int left = operandType(id, b(i));
+                int right = operandType(id, c(i));
+                if (left == NONE || right == NONE) {
+                    yield NONE;
+                }
+                yield isNumber(left) && isNumber(right) ? FLOAT : SPECULATIVE;
+            }
+            case UNM -> {
+                int operand = operandType(id, b(i));
+                yield operand == NONE || isNumber(operand) ? operand : SPECULATIVE;
+            }
+            case LEN -> INT;
+            case FORPREP -> LOOP;
+            case FORINDEX -> {
+                int prep = id - 1;
+                if (operandType(prep, a(i)) == NONE || operandType(prep, a(i) + 2) == NONE) {
+                    yield NONE;
+                }
+                yield isIntLoop(prep) ? INT : SPECULATIVE;
+            }
+            case GETTABLE, GETFIELD, GETGLOBAL, CALL, TAILCALL, READ -> SPECULATIVE;
+            default -> ANY;
+        };
+    }
+
+    private boolean isIntLoop(int prep) {
+        int a = a(code[prep]);
+        return operandType(prep, a) == INT && operandType(prep, a + 2) == INT;
+    }
+
+    private static boolean isNumber(int type) {
+        return type == INT || type == FLOAT;
+    }
+
+    private static int constantType(Value value) {
+        return value instanceof IntValue ? INT : value instanceof FloatValue ? FLOAT : ANY;
+    }
+
+    /**
+     * Returns the type of an RK operand of the instruction at {@code pc}.
+     */
+    private int operandType(int pc, int operand) {
+        if (operand >= RK_CONSTANT) {
+            return constantType(k[operand - RK_CONSTANT]);
+        }
+        return webTypes[useWeb(pc, operand)];
+    }
+
+    private int useWeb(int pc, int register) {
+        for (int j = 0; j < uses[pc].length; j++) {
+            if (uses[pc][j] == register) {
+                return find(useDefs[pc][j]);
+            }
+        }
+        throw new IllegalStateException("Unexpected operand " + register + " at pc " + pc);
+    }
+
+    /**
+     * Returns the value register {@code register}, live at {@code pc}, holds there.
+     */
+    private int liveWeb(int pc, int register) {
+        BitSet reached = (BitSet) reaching[pc].clone();
+        reached.and(defsOf[register]);
+        return find(reached.nextSetBit(0));
+    }
+
+    private void allocateLocals() {
+        slots = new int[parent.length];
+        int next = FIRST_LOCAL;
+        for (int web = 0; web < parent.length; web++) {
+            if (find(web) == web && !webDefs.get(web).isEmpty() && webTypes[web] != LOOP) {
+                slots[web] = next;
+                next += webTypes[web] == ANY ? 1 : 2;
+            }
+        }
+        loopSlots = new int[size];
+        for (int pc = 0; pc < size; pc++) {
+            if (intLoops[pc]) {
+                // index, remaining repeats and step
+                loopSlots[pc] = next;
+                next += 6;
+            }
+        }
+    }
+
+    //endregion
+    //=============================================
+    //============== CODE GENERATION ==============
+    //=============================================
+    //region Code generation
+
+    private byte[] generate() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return JitCompiler.class.getClassLoader();
+            }
+        };
+        String className = JitCompiler.class.getPackageName().replace('.', '/') + "/Lua$"
+                + proto.getName().replaceAll("[^A-Za-z0-9_]", "_");
+        writer.visit(Opcodes.V11, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null, COMPILED, null);
+
+        MethodVisitor init = writer.visitMethod(0, "<init>", "(" + Type.getDescriptor(Prototype.class) + ")V",
+                null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 1);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, COMPILED, "<init>",
+                "(" + Type.getDescriptor(Prototype.class) + ")V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        mv = writer.visitMethod(0, "call", Type.getMethodDescriptor(Type.getType(Value.class),
+                Type.getType(VirtualMachine.class), Type.INT_TYPE, Type.INT_TYPE), null, null);
+        mv.visitCode();
+        prologue();
+        labels = new Label[size];
+        for (int pc = 0; pc < size; pc++) {
+            labels[pc] = new Label();
+        }
+        entries();
+        boolean fused = false;
+        for (int pc = 0; pc < size; pc++) {
+            mv.visitLabel(labels[pc]);
+            if (fused) {
+                // a JMPF already done by the comparison before it
+                fused = false;
+            } else {
+                fused = instruction(pc);
+            }
+        }
+        for (Runnable stub : stubs) {
+            stub.run();
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private void prologue() {
+        mv.visitVarInsn(Opcodes.ALOAD, VM);
+        mv.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(VirtualMachine.class), "program",
+                Type.getDescriptor(Program.class));
+        mv.visitVarInsn(Opcodes.ASTORE, PROGRAM);
+        loadField("constants", Value[].class);
+        mv.visitVarInsn(Opcodes.ASTORE, CONSTANTS);
+        loadField("fieldSlots", int[].class);
+        mv.visitVarInsn(Opcodes.ASTORE, FIELD_SLOTS);
+        boolean usesGlobals = false;
+        boolean calls = false;
+        for (int i : code) {
+            usesGlobals |= op(i) == GETGLOBAL || op(i) == SETGLOBAL;
+            calls |= op(i) == CALL || op(i) == TAILCALL;
+        }
+        if (usesGlobals) {
+            mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+            loadField("proto", Prototype.class);
+            loadField("proto", Prototype.class);
+            invoke(Opcodes.INVOKEVIRTUAL, Prototype.class, "getNames", String[].class);
+            invoke(Opcodes.INVOKEVIRTUAL, Program.class, "getGlobalCells", GlobalCell[].class,
+                    Object.class, String[].class);
+        } else {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        }
+        mv.visitVarInsn(Opcodes.ASTORE, GLOBALS);
+        if (calls) {
+            mv.visitVarInsn(Opcodes.ALOAD, VM);
+            loadField("proto", Prototype.class);
+            invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "getCallees", PrototypeCell[].class,
+                    Prototype.class);
+        } else {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        }
+        mv.visitVarInsn(Opcodes.ASTORE, CALLEES);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitVarInsn(Opcodes.ASTORE, TEMP);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitVarInsn(Opcodes.ASTORE, TEMP2);
+        // every local is assigned up front, so a deoptimization may write back any of them
+        for (int web = 0; web < parent.length; web++) {
+            if (slots[web] != 0) {
+                switch (webTypes[web]) {
+                    case INT -> {
+                        mv.visitInsn(Opcodes.LCONST_0);
+                        mv.visitVarInsn(Opcodes.LSTORE, slots[web]);
+                    }
+                    case FLOAT -> {
+                        mv.visitInsn(Opcodes.DCONST_0);
+                        mv.visitVarInsn(Opcodes.DSTORE, slots[web]);
+                    }
+                    default -> {
+                        loadNil();
+                        mv.visitVarInsn(Opcodes.ASTORE, slots[web]);
+                    }
+                }
+            }
+        }
+        for (int pc = 0; pc < size; pc++) {
+            if (intLoops[pc]) {
+                for (int j = 0; j < 3; j++) {
+                    mv.visitInsn(Opcodes.LCONST_0);
+                    mv.visitVarInsn(Opcodes.LSTORE, loopSlots[pc] + 2 * j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Dispatches on the entry pc and loads the registers live there, checking their types.
+     */
+    private void entries() {
+        int[] keys = entries.stream().mapToInt(Integer::intValue).toArray();
+        Label[] entryLabels = new Label[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            entryLabels[j] = new Label();
+        }
+        Label invalid = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, ENTRY_PC);
+        mv.visitLookupSwitchInsn(invalid, keys, entryLabels);
+        for (int j = 0; j < keys.length; j++) {
+            int entry = keys[j];
+            mv.visitLabel(entryLabels[j]);
+            for (int r = live[entry].nextSetBit(0); r >= 0; r = live[entry].nextSetBit(r + 1)) {
+                int web = liveWeb(entry, r);
+                if (webTypes[web] == LOOP) {
+                    int prep = webLoops[web];
+                    if (intLoops[prep]) {
+                        loadStack(r);
+                        mv.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(BooleanValue.class), "TRUE",
+                                Type.getDescriptor(BooleanValue.class));
+                        // a float loop where the types of the values it starts from promised integers
+                        Label rejected = new Label();
+                        mv.visitJumpInsn(Opcodes.IF_ACMPNE, rejected);
+                        int a = a(code[prep]);
+                        stubs.add(() -> {
+                            mv.visitLabel(rejected);
+                            reject(useWeb(prep, a));
+                            reject(useWeb(prep, a + 2));
+                            mv.visitFieldInsn(Opcodes.GETSTATIC, COMPILED, "REJECTED", Type.getDescriptor(Value.class));
+                            mv.visitInsn(Opcodes.ARETURN);
+                        });
+                        for (int j2 = 0; j2 < 3; j2++) {
+                            loadForState(r + j2);
+                            mv.visitVarInsn(Opcodes.LSTORE, loopSlots[prep] + 2 * j2);
+                        }
+                    }
+                } else {
+                    loadStack(r);
+                    if (webTypes[web] == ANY) {
+                        mv.visitVarInsn(Opcodes.ASTORE, slots[web]);
+                    } else {
+                        Label rejected = new Label();
+                        unbox(webTypes[web], rejected);
+                        mv.visitVarInsn(webTypes[web] == INT ? Opcodes.LSTORE : Opcodes.DSTORE, slots[web]);
+                        stubs.add(() -> {
+                            mv.visitLabel(rejected);
+                            mv.visitInsn(Opcodes.POP);
+                            reject(web);
+                            mv.visitFieldInsn(Opcodes.GETSTATIC, COMPILED, "REJECTED", Type.getDescriptor(Value.class));
+                            mv.visitInsn(Opcodes.ARETURN);
+                        });
+                    }
+                }
+            }
+            mv.visitJumpInsn(Opcodes.GOTO, labels[entry]);
+        }
+        mv.visitLabel(invalid);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, COMPILED, "REJECTED", Type.getDescriptor(Value.class));
+        mv.visitInsn(Opcodes.ARETURN);
+    }
+
+    /**
+     * Emits the deoptimization of all definitions of a value, so the next compilation types it {@link #ANY}.
+     */
+    private void reject(int web) {
+        for (int id : webDefs.get(web)) {
+            deoptimize(id);
+        }
+    }
+
+    private void deoptimize(int definition) {
+        loadField("proto", Prototype.class);
+        pushInt(definition);
+        invoke(Opcodes.INVOKESTATIC, Jit.class, "deoptimize", void.class, Prototype.class, int.class);
+    }
+
+    /**
+     * Emits the instruction at {@code pc}. Returns whether it was fused with the following {@code JMPF}.
+     */
+    private boolean instruction(int pc) {
+        int i = code[pc];
+        int a = a(i);
+        switch (op(i)) {
+            case MOVE -> {
+                int source = useWeb(pc, b(i));
+                int target = find(pc);
+                if (webTypes[source] == webTypes[target]) {
+                    int type = webTypes[source];
+                    mv.visitVarInsn(type == INT ? Opcodes.LLOAD : type == FLOAT ? Opcodes.DLOAD : Opcodes.ALOAD,
+                            slots[source]);
+                    mv.visitVarInsn(type == INT ? Opcodes.LSTORE : type == FLOAT ? Opcodes.DSTORE : Opcodes.ASTORE,
+                            slots[target]);
+                } else {
+                    pushValue(pc, b(i));
+                    storeValue(pc);
+                }
+            }
+            case LOADK -> {
+                Value constant = k[bx(i)];
+                int type = webTypes[find(pc)];
+                if (type == INT && constant instanceof IntValue) {
+                    mv.visitLdcInsn(((IntValue) constant).longValue());
+                    mv.visitVarInsn(Opcodes.LSTORE, slots[find(pc)]);
+                } else if (type == FLOAT && constant instanceof FloatValue) {
+                    mv.visitLdcInsn(((FloatValue) constant).doubleValue());
+                    mv.visitVarInsn(Opcodes.DSTORE, slots[find(pc)]);
+                } else {
+                    pushConstant(bx(i));
+                    storeValue(pc);
+                }
+            }
+            case GETGLOBAL -> {
+                mv.visitVarInsn(Opcodes.ALOAD, GLOBALS);
+                pushInt(bx(i));
+                mv.visitInsn(Opcodes.AALOAD);
+                invoke(Opcodes.INVOKEVIRTUAL, GlobalCell.class, "getValue", Value.class);
+                storeValue(pc);
+            }
+            case SETGLOBAL -> {
+                mv.visitVarInsn(Opcodes.ALOAD, GLOBALS);
+                pushInt(bx(i));
+                mv.visitInsn(Opcodes.AALOAD);
+                pushValue(pc, a);
+                invoke(Opcodes.INVOKEVIRTUAL, GlobalCell.class, "setValue", void.class, Value.class);
+            }
+            case GETTABLE -> {
+                pushValue(pc, b(i));
+                if (operandType(pc, c(i)) == INT) {
+                    pushLong(pc, c(i));
+                    invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "index", Value.class, Value.class, long.class);
+                } else {
+                    pushValue(pc, c(i));
+                    invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "index", Value.class, Value.class, Value.class);
+                }
+                storeValue(pc);
+            }
+            case SETTABLE -> {
+                pushValue(pc, a);
+                if (operandType(pc, b(i)) == INT) {
+                    pushLong(pc, b(i));
+                    pushValue(pc, c(i));
+                    invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "setIndex", void.class,
+                            Value.class, long.class, Value.class);
+                } else {
+                    pushValue(pc, b(i));
+                    pushValue(pc, c(i));
+                    invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "setIndex", void.class,
+                            Value.class, Value.class, Value.class);
+                }
+            }
+            case GETFIELD -> {
+                pushValue(pc, b(i));
+                invoke(Opcodes.INVOKEVIRTUAL, Value.class, "checkTable", LuaTable.class);
+                pushConstant(c(i));
+                mv.visitVarInsn(Opcodes.ALOAD, FIELD_SLOTS);
+                pushInt(pc);
+                invoke(Opcodes.INVOKESTATIC, VirtualMachine.class, "getField", Value.class,
+                        LuaTable.class, Value.class, int[].class, int.class);
+                storeValue(pc);
+            }
+            case SETFIELD -> {
+                pushValue(pc, a);
+                invoke(Opcodes.INVOKEVIRTUAL, Value.class, "checkTable", LuaTable.class);
+                pushConstant(b(i));
+                pushValue(pc, c(i));
+                mv.visitVarInsn(Opcodes.ALOAD, FIELD_SLOTS);
+                pushInt(pc);
+                invoke(Opcodes.INVOKESTATIC, VirtualMachine.class, "setField", void.class,
+                        LuaTable.class, Value.class, Value.class, int[].class, int.class);
+            }
+            case NEWTABLE -> {
+                mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+                pushInt(b(i));
+                pushInt(c(i));
+                invoke(Opcodes.INVOKEVIRTUAL, Program.class, "newTable", LuaTable.class, int.class, int.class);
+                storeValue(pc);
+            }
+            case ADD, SUB, MUL, DIV, MOD, POW -> arithmetic(pc);
+            case UNM -> {
+                int type = operandType(pc, b(i));
+                if (type == INT) {
+                    pushLong(pc, b(i));
+                    mv.visitInsn(Opcodes.LNEG);
+                    storeLong(pc);
+                } else if (type == FLOAT) {
+                    pushDouble(pc, b(i));
+                    mv.visitInsn(Opcodes.DNEG);
+                    storeDouble(pc);
+                } else {
+                    pushValue(pc, b(i));
+                    invoke(Opcodes.INVOKESTATIC, ValueOperations.class, "negate", Value.class, Value.class);
+                    storeValue(pc);
+                }
+            }
+            case NOT -> {
+                pushValue(pc, b(i));
+                invoke(Opcodes.INVOKESTATIC, ValueOperations.class, "not", Value.class, Value.class);
+                storeValue(pc);
+            }
+            case LEN -> {
+                pushValue(pc, b(i));
+                invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "length", long.class, Value.class);
+                storeLong(pc);
+            }
+            case CONCAT -> {
+                for (int r = b(i); r <= c(i); r++) {
+                    spill(pc, r);
+                }
+                mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+                loadStackArray();
+                pushRegisterIndex(b(i));
+                pushRegisterIndex(c(i) + 1);
+                invoke(Opcodes.INVOKEVIRTUAL, Program.class, "concat", StringValue.class,
+                        Value[].class, int.class, int.class);
+                storeValue(pc);
+            }
+            case EQ, NE, LT, LE, GT, GE -> {
+                int next = pc + 1 < size ? code[pc + 1] : -1;
+                if (next != -1 && op(next) == JMPF && a(next) == a && !jumpTargets[pc + 1]
+                        && webUses[find(pc)] == 1) {
+                    condition(pc, branch(pc + 1, pc + 2 + sbx(next)));
+                    return true;
+                }
+                Label isFalse = new Label();
+                Label done = new Label();
+                condition(pc, isFalse);
+                loadBoolean("TRUE");
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                mv.visitLabel(isFalse);
+                loadBoolean("FALSE");
+                mv.visitLabel(done);
+                storeValue(pc);
+            }
+            case AND, OR -> {
+                pushValue(pc, b(i));
+                pushValue(pc, c(i));
+                invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, op(i) == AND ? "and" : "or", Value.class,
+                        Value.class, Value.class);
+                storeValue(pc);
+            }
+            case JMP -> {
+                if (sbx(i) != 0) {
+                    mv.visitJumpInsn(Opcodes.GOTO, branch(pc, pc + 1 + sbx(i)));
+                }
+            }
+            case JMPF -> {
+                // numbers are always true
+                if (!isNumber(webTypes[useWeb(pc, a)])) {
+                    pushValue(pc, a);
+                    invoke(Opcodes.INVOKEVIRTUAL, Value.class, "isTruthy", boolean.class);
+                    mv.visitJumpInsn(Opcodes.IFEQ, branch(pc, pc + 1 + sbx(i)));
+                }
+            }
+            case FORPREP -> forPrep(pc);
+            case FORINDEX -> {
+                int prep = pc - 1;
+                if (intLoops[prep]) {
+                    mv.visitVarInsn(Opcodes.LLOAD, loopSlots[prep]);
+                    storeLong(pc);
+                } else {
+                    mv.visitVarInsn(Opcodes.ALOAD, VM);
+                    pushRegisterIndex(a);
+                    invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "forIndex", Value.class, int.class);
+                    storeValue(pc);
+                }
+            }
+            case FORLOOP -> forLoop(pc);
+            case CALL, TAILCALL -> {
+                for (int r = a; r < a + registerCount(pc); r++) {
+                    spill(pc, r);
+                }
+                mv.visitVarInsn(Opcodes.ALOAD, VM);
+                mv.visitVarInsn(Opcodes.ALOAD, CALLEES);
+                pushInt(c(i));
+                mv.visitInsn(Opcodes.AALOAD);
+                pushRegisterIndex(a);
+                pushCount(i);
+                if (op(i) == CALL) {
+                    invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "call", Value.class,
+                            PrototypeCell.class, int.class, int.class);
+                    storeValue(pc);
+                } else {
+                    invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "tailCall", Value.class,
+                            PrototypeCell.class, int.class, int.class);
+                    mv.visitInsn(Opcodes.ARETURN);
+                }
+            }
+            case PRINT -> {
+                for (int r = a; r < a + registerCount(pc); r++) {
+                    spill(pc, r);
+                }
+                mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+                invoke(Opcodes.INVOKEVIRTUAL, Program.class, "getOut", OutputSink.class);
+                loadStackArray();
+                pushRegisterIndex(a);
+                if (b(i) == MULTI) {
+                    loadTop();
+                } else {
+                    pushRegisterIndex(a + b(i));
+                }
+                invoke(Opcodes.INVOKEINTERFACE, OutputSink.class, "print", void.class,
+                        Value[].class, int.class, int.class);
+            }
+            case READ -> {
+                mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+                pushConstant(bx(i));
+                invoke(Opcodes.INVOKEVIRTUAL, Object.class, "toString", String.class);
+                invoke(Opcodes.INVOKEVIRTUAL, Program.class, "read", Value.class, String.class);
+                storeValue(pc);
+            }
+            case FUNCDEF -> {
+                mv.visitVarInsn(Opcodes.ALOAD, VM);
+                loadField("proto", Prototype.class);
+                invoke(Opcodes.INVOKEVIRTUAL, Prototype.class, "getPrototypes", Prototype[].class);
+                pushInt(bx(i));
+                mv.visitInsn(Opcodes.AALOAD);
+                invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "define", void.class, Prototype.class);
+            }
+            case RETURN -> {
+                if (b(i) == 1) {
+                    pushValue(pc, a);
+                } else {
+                    for (int r = a; r < a + registerCount(pc); r++) {
+                        spill(pc, r);
+                    }
+                    mv.visitVarInsn(Opcodes.ALOAD, VM);
+                    mv.visitVarInsn(Opcodes.ILOAD, BASE);
+                    pushRegisterIndex(a);
+                    pushCount(i);
+                    invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "results", Value.class,
+                            int.class, int.class, int.class);
+                }
+                mv.visitInsn(Opcodes.ARETURN);
+            }
+            default -> throw new IllegalStateException("Unexpected opcode: " + op(i));
+        }
+        return false;
+    }
+
+    private void arithmetic(int pc) {
+        int i = code[pc];
+        int op = op(i);
+        int left = operandType(pc, b(i));
+        int right = operandType(pc, c(i));
+        if (left == INT && right == INT && op != DIV && op != POW) {
+            pushLong(pc, b(i));
+            pushLong(pc, c(i));
+            longOperation(op);
+            storeLong(pc);
+        } else if (isNumber(left) && isNumber(right)) {
+            pushDouble(pc, b(i));
+            pushDouble(pc, c(i));
+            switch (op) {
+                case ADD -> mv.visitInsn(Opcodes.DADD);
+                case SUB -> mv.visitInsn(Opcodes.DSUB);
+                case MUL -> mv.visitInsn(Opcodes.DMUL);
+                case DIV -> mv.visitInsn(Opcodes.DDIV);
+                case MOD -> invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "mod", double.class,
+                        double.class, double.class);
+                default -> invoke(Opcodes.INVOKESTATIC, Math.class, "pow", double.class, double.class, double.class);
+            }
+            storeDouble(pc);
+        } else if (webTypes[find(pc)] == INT && op != DIV && op != POW && isIntOrRegister(pc, b(i))
+                && isIntOrRegister(pc, c(i))) {
+            // expected to be integers: check the unknown operands and fall back to the generic operation
+            Label generic = new Label();
+            Label done = new Label();
+            checkInt(pc, b(i), TEMP, generic);
+            checkInt(pc, c(i), TEMP2, generic);
+            unboxedLong(pc, b(i), TEMP);
+            unboxedLong(pc, c(i), TEMP2);
+            longOperation(op);
+            mv.visitVarInsn(Opcodes.LSTORE, slots[find(pc)]);
+            mv.visitJumpInsn(Opcodes.GOTO, done);
+            mv.visitLabel(generic);
+            genericArithmetic(pc);
+            mv.visitLabel(done);
+        } else {
+            genericArithmetic(pc);
+        }
+    }
+
+    private boolean isIntOrRegister(int pc, int operand) {
+        int type = operandType(pc, operand);
+        return type == INT || type == ANY && operand < RK_CONSTANT;
+    }
+
+    private void checkInt(int pc, int operand, int temp, Label otherwise) {
+        if (operandType(pc, operand) == ANY) {
+            pushValue(pc, operand);
+            mv.visitVarInsn(Opcodes.ASTORE, temp);
+            mv.visitVarInsn(Opcodes.ALOAD, temp);
+            mv.visitTypeInsn(Opcodes.INSTANCEOF, Type.getInternalName(IntValue.class));
+            mv.visitJumpInsn(Opcodes.IFEQ, otherwise);
+        }
+    }
+
+    private void unboxedLong(int pc, int operand, int temp) {
+        if (operandType(pc, operand) == ANY) {
+            mv.visitVarInsn(Opcodes.ALOAD, temp);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(IntValue.class));
+            invoke(Opcodes.INVOKEVIRTUAL, IntValue.class, "longValue", long.class);
+        } else {
+            pushLong(pc, operand);
+        }
+    }
+
+    private void genericArithmetic(int pc) {
+        int i = code[pc];
+        if (op(i) == POW) {
+            pushValue(pc, b(i));
+            pushValue(pc, c(i));
+            invoke(Opcodes.INVOKESTATIC, ValueOperations.class, "calculatePower", Value.class,
+                    Value.class, Value.class);
+        } else {
+            pushInt(switch (op(i)) {
+                case ADD -> LuaParser.ADD;
+                case SUB -> LuaParser.SUB;
+                case MUL -> LuaParser.MUL;
+                case DIV -> LuaParser.DIV;
+                default -> LuaParser.MOD;
+            });
+            pushValue(pc, b(i));
+            pushValue(pc, c(i));
+            invoke(Opcodes.INVOKESTATIC, ValueOperations.class, "calculate", Value.class,
+                    int.class, Value.class, Value.class);
+        }
+        storeValue(pc);
+    }
+
+    private void longOperation(int op) {
+        switch (op) {
+            case ADD -> mv.visitInsn(Opcodes.LADD);
+            case SUB -> mv.visitInsn(Opcodes.LSUB);
+            case MUL -> mv.visitInsn(Opcodes.LMUL);
+            default -> invoke(Opcodes.INVOKESTATIC, CompiledFunction.class, "mod", long.class, long.class, long.class);
+        }
+    }
+
+    /**
+     * Emits a jump to {@code isFalse} unless the comparison at {@code pc} holds.
+     */
+    private void condition(int pc, Label isFalse) {
+        int i = code[pc];
+        int op = op(i);
+        int left = operandType(pc, b(i));
+        int right = operandType(pc, c(i));
+        if (left == INT && right == INT) {
+            pushLong(pc, b(i));
+            pushLong(pc, c(i));
+            mv.visitInsn(Opcodes.LCMP);
+        } else if (left == FLOAT && right == FLOAT) {
+            pushDouble(pc, b(i));
+            pushDouble(pc, c(i));
+            // NaN compares as the value making the comparison false
+            mv.visitInsn(op == LT || op == LE ? Opcodes.DCMPG : Opcodes.DCMPL);
+        } else {
+            pushInt(switch (op) {
+                case EQ -> LuaParser.EQ;
+                case NE -> LuaParser.NEQ;
+                case LT -> LuaParser.LT;
+                case LE -> LuaParser.LTE;
+                case GT -> LuaParser.GT;
+                default -> LuaParser.GTE;
+            });
+            pushValue(pc, b(i));
+            pushValue(pc, c(i));
+            invoke(Opcodes.INVOKESTATIC, ValueOperations.class, "compare", Value.class,
+                    int.class, Value.class, Value.class);
+            invoke(Opcodes.INVOKEVIRTUAL, Value.class, "isTruthy", boolean.class);
+            mv.visitJumpInsn(Opcodes.IFEQ, isFalse);
+            return;
+        }
+        mv.visitJumpInsn(switch (op) {
+            case EQ -> Opcodes.IFNE;
+            case NE -> Opcodes.IFEQ;
+            case LT -> Opcodes.IFGE;
+            case LE -> Opcodes.IFGT;
+            case GT -> Opcodes.IFLE;
+            default -> Opcodes.IFLT;
+        }, isFalse);
+    }
+
+    /**
+     * Returns the label a jump from {@code pc} to {@code target} goes to. A backward jump closes a loop,
+     * so it passes the program's checkpoint first.
+     */
+    private Label branch(int pc, int target) {
+        if (target > pc) {
+            return labels[target];
+        }
+        Label backEdge = new Label();
+        stubs.add(() -> {
+            mv.visitLabel(backEdge);
+            checkpoint();
+            mv.visitJumpInsn(Opcodes.GOTO, labels[target]);
+        });
+        return backEdge;
+    }
+
+    private void forPrep(int pc) {
+        int i = code[pc];
+        int a = a(i);
+        Label exit = labels[pc + 1 + sbx(i)];
+        if (!intLoops[pc]) {
+            for (int r = a; r < a + 3; r++) {
+                spill(pc, r);
+            }
+            mv.visitVarInsn(Opcodes.ALOAD, VM);
+            loadStackArray();
+            pushRegisterIndex(a);
+            invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "forPrep", boolean.class, Value[].class, int.class);
+            mv.visitJumpInsn(Opcodes.IFEQ, exit);
+            return;
+        }
+        int index = loopSlots[pc];
+        int repeats = index + 2;
+        int step = index + 4;
+        pushLong(pc, a);
+        mv.visitVarInsn(Opcodes.LSTORE, index);
+        pushValue(pc, a + 1);
+        mv.visitLdcInsn("limit");
+        invoke(Opcodes.INVOKESTATIC, NumericFor.class, "checkNumber", NumberValue.class, Value.class, String.class);
+        mv.visitVarInsn(Opcodes.ASTORE, TEMP);
+        pushLong(pc, a + 2);
+        mv.visitVarInsn(Opcodes.LSTORE, step);
+        mv.visitVarInsn(Opcodes.LLOAD, step);
+        mv.visitInsn(Opcodes.L2D);
+        invoke(Opcodes.INVOKESTATIC, NumericFor.class, "checkStep", void.class, double.class);
+        mv.visitVarInsn(Opcodes.LLOAD, index);
+        mv.visitVarInsn(Opcodes.ALOAD, TEMP);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(NumberValue.class));
+        mv.visitVarInsn(Opcodes.LLOAD, step);
+        invoke(Opcodes.INVOKESTATIC, NumericFor.class, "runs", boolean.class, long.class, NumberValue.class,
+                long.class);
+        mv.visitJumpInsn(Opcodes.IFEQ, exit);
+        mv.visitVarInsn(Opcodes.LLOAD, index);
+        mv.visitVarInsn(Opcodes.ALOAD, TEMP);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(NumberValue.class));
+        mv.visitVarInsn(Opcodes.LLOAD, step);
+        invoke(Opcodes.INVOKESTATIC, NumericFor.class, "repeats", long.class, long.class, NumberValue.class,
+                long.class);
+        mv.visitVarInsn(Opcodes.LSTORE, repeats);
+    }
+
+    private void forLoop(int pc) {
+        int i = code[pc];
+        int a = a(i);
+        int prep = pc + 1 + sbx(i) - 1;
+        if (op(code[prep]) != FORPREP) {
+            // the body starts with FORINDEX, or with the JMP replacing it
+            prep--;
+        }
+        if (!intLoops[prep]) {
+            mv.visitVarInsn(Opcodes.ALOAD, VM);
+            loadStackArray();
+            pushRegisterIndex(a);
+            invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "forLoop", boolean.class, Value[].class, int.class);
+            mv.visitJumpInsn(Opcodes.IFEQ, labels[pc + 1]);
+            checkpoint();
+            mv.visitJumpInsn(Opcodes.GOTO, labels[pc + 1 + sbx(i)]);
+            return;
+        }
+        int index = loopSlots[prep];
+        int repeats = index + 2;
+        int step = index + 4;
+        if (sbx(i) == -1) {
+            // an empty body without a control variable, the iterations only count as steps
+            mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+            mv.visitVarInsn(Opcodes.LLOAD, repeats);
+            invoke(Opcodes.INVOKEVIRTUAL, Program.class, "checkpoint", void.class, long.class);
+            mv.visitInsn(Opcodes.LCONST_0);
+            mv.visitVarInsn(Opcodes.LSTORE, repeats);
+            return;
+        }
+        mv.visitVarInsn(Opcodes.LLOAD, repeats);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFEQ, labels[pc + 1]);
+        mv.visitVarInsn(Opcodes.LLOAD, repeats);
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitInsn(Opcodes.LSUB);
+        mv.visitVarInsn(Opcodes.LSTORE, repeats);
+        mv.visitVarInsn(Opcodes.LLOAD, index);
+        mv.visitVarInsn(Opcodes.LLOAD, step);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, index);
+        checkpoint();
+        mv.visitJumpInsn(Opcodes.GOTO, labels[pc + 1 + sbx(i)]);
+    }
+
+    //endregion
+    //=============================================
+    //============= VALUES AND STORES =============
+    //=============================================
+    //region Values and stores
+
+    /**
+     * Pushes RK operand {@code operand} of the instruction at {@code pc} as a {@link Value}.
+     */
+    private void pushValue(int pc, int operand) {
+        if (operand >= RK_CONSTANT) {
+            pushConstant(operand - RK_CONSTANT);
+        } else {
+            pushWeb(useWeb(pc, operand));
+        }
+    }
+
+    private void pushWeb(int web) {
+        switch (webTypes[web]) {
+            case INT -> {
+                mv.visitVarInsn(Opcodes.LLOAD, slots[web]);
+                invoke(Opcodes.INVOKESTATIC, IntValue.class, "valueOf", IntValue.class, long.class);
+            }
+            case FLOAT -> {
+                mv.visitTypeInsn(Opcodes.NEW, Type.getInternalName(FloatValue.class));
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitVarInsn(Opcodes.DLOAD, slots[web]);
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(FloatValue.class), "<init>", "(D)V",
+                        false);
+            }
+            case ANY -> mv.visitVarInsn(Opcodes.ALOAD, slots[web]);
+            default -> throw new IllegalStateException("Unexpected value type: " + webTypes[web]);
+        }
+    }
+
+    private void pushLong(int pc, int operand) {
+        if (operand >= RK_CONSTANT) {
+            mv.visitLdcInsn(((IntValue) k[operand - RK_CONSTANT]).longValue());
+        } else {
+            mv.visitVarInsn(Opcodes.LLOAD, slots[useWeb(pc, operand)]);
+        }
+    }
+
+    private void pushDouble(int pc, int operand) {
+        if (operand >= RK_CONSTANT) {
+            mv.visitLdcInsn(((NumberValue) k[operand - RK_CONSTANT]).doubleValue());
+        } else {
+            int web = useWeb(pc, operand);
+            mv.visitVarInsn(webTypes[web] == INT ? Opcodes.LLOAD : Opcodes.DLOAD, slots[web]);
+            if (webTypes[web] == INT) {
+                mv.visitInsn(Opcodes.L2D);
+            }
+        }
+    }
+
+    private void pushConstant(int index) {
+        mv.visitVarInsn(Opcodes.ALOAD, CONSTANTS);
+        pushInt(index);
+        mv.visitInsn(Opcodes.AALOAD);
+    }
+
+    /**
+     * Stores the {@link Value} on top of the operand stack as the definition at {@code pc}. A value typed
+     * as a number is checked, and deoptimizes the call if it is not one.
+     */
+    private void storeValue(int pc) {
+        int web = find(pc);
+        int type = webTypes[web];
+        if (type == ANY) {
+            mv.visitVarInsn(Opcodes.ASTORE, slots[web]);
+            return;
+        }
+        Label unexpected = new Label();
+        unbox(type, unexpected);
+        mv.visitVarInsn(type == INT ? Opcodes.LSTORE : Opcodes.DSTORE, slots[web]);
+        stubs.add(() -> {
+            mv.visitLabel(unexpected);
+            mv.visitVarInsn(Opcodes.ASTORE, TEMP);
+            deoptimizeAfter(pc);
+        });
+    }
+
+    private void box() {
+        mv.visitTypeInsn(Opcodes.NEW, Type.getInternalName(FloatValue.class));
+        mv.visitInsn(Opcodes.DUP_X2);
+        mv.visitInsn(Opcodes.DUP_X2);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(FloatValue.class), "<init>", "(D)V", false);
+    }
+
+    private void storeLong(int pc) {
+        int web = find(pc);
+        if (webTypes[web] == INT) {
+            mv.visitVarInsn(Opcodes.LSTORE, slots[web]);
+        } else {
+            invoke(Opcodes.INVOKESTATIC, IntValue.class, "valueOf", IntValue.class, long.class);
+            storeValue(pc);
+        }
+    }
+
+    private void storeDouble(int pc) {
+        int web = find(pc);
+        if (webTypes[web] == FLOAT) {
+            mv.visitVarInsn(Opcodes.DSTORE, slots[web]);
+        } else {
+            box();
+            storeValue(pc);
+        }
+    }
+
+    /**
+     * Unboxes the value on top of the operand stack to {@code type}, or jumps to {@code otherwise} with
+     * the value still on the stack.
+     */
+    private void unbox(int type, Label otherwise) {
+        Class<?> boxed = type == INT ? IntValue.class : FloatValue.class;
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, Type.getInternalName(boxed));
+        mv.visitJumpInsn(Opcodes.IFEQ, otherwise);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(boxed));
+        if (type == INT) {
+            invoke(Opcodes.INVOKEVIRTUAL, IntValue.class, "longValue", long.class);
+        } else {
+            invoke(Opcodes.INVOKEVIRTUAL, FloatValue.class, "doubleValue", double.class);
+        }
+    }
+
+    /**
+     * Emits the deoptimization after the definition at {@code pc} produced the value in {@link #TEMP}:
+     * writes the registers live after it to the stack and interprets the rest of the call.
+     */
+    private void deoptimizeAfter(int pc) {
+        int register = defs[pc];
+        int resumePc = pc + 1;
+        for (int r = live[resumePc].nextSetBit(0); r >= 0; r = live[resumePc].nextSetBit(r + 1)) {
+            if (r == register) {
+                continue;
+            }
+            int web = liveWeb(resumePc, r);
+            if (webTypes[web] != LOOP) {
+                loadStackArray();
+                pushRegisterIndex(r);
+                pushWeb(web);
+                mv.visitInsn(Opcodes.AASTORE);
+            } else if (intLoops[webLoops[web]]) {
+                int slot = loopSlots[webLoops[web]];
+                loadStackArray();
+                pushRegisterIndex(r);
+                loadBoolean("TRUE");
+                mv.visitInsn(Opcodes.AASTORE);
+                for (int j = 0; j < 3; j++) {
+                    mv.visitVarInsn(Opcodes.ALOAD, VM);
+                    mv.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(VirtualMachine.class), "forState", "[J");
+                    pushRegisterIndex(r + j);
+                    mv.visitVarInsn(Opcodes.LLOAD, slot + 2 * j);
+                    mv.visitInsn(Opcodes.LASTORE);
+                }
+            }
+            // the state of any other loop is kept by the machine all along
+        }
+        loadStackArray();
+        pushRegisterIndex(register);
+        mv.visitVarInsn(Opcodes.ALOAD, TEMP);
+        mv.visitInsn(Opcodes.AASTORE);
+        deoptimize(pc);
+        mv.visitVarInsn(Opcodes.ALOAD, VM);
+        loadField("proto", Prototype.class);
+        mv.visitVarInsn(Opcodes.ILOAD, BASE);
+        pushInt(resumePc);
+        invoke(Opcodes.INVOKEVIRTUAL, VirtualMachine.class, "resume", Value.class, Prototype.class, int.class,
+                int.class);
+        mv.visitInsn(Opcodes.ARETURN);
+    }
+
+    /**
+     * Writes register {@code register}, as the instruction at {@code pc} reads it, to the stack.
+     */
+    private void spill(int pc, int register) {
+        loadStackArray();
+        pushRegisterIndex(register);
+        pushValue(pc, register);
+        mv.visitInsn(Opcodes.AASTORE);
+    }
+
+    private void loadStack(int register) {
+        loadStackArray();
+        pushRegisterIndex(register);
+        mv.visitInsn(Opcodes.AALOAD);
+    }
+
+    private void loadForState(int register) {
+        mv.visitVarInsn(Opcodes.ALOAD, VM);
+        mv.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(VirtualMachine.class), "forState", "[J");
+        pushRegisterIndex(register);
+        mv.visitInsn(Opcodes.LALOAD);
+    }
+
+    /**
+     * Pushes the machine's stack, read anew each time as calls may grow it.
+     */
+    private void loadStackArray() {
+        mv.visitVarInsn(Opcodes.ALOAD, VM);
+        mv.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(VirtualMachine.class), "stack",
+                Type.getDescriptor(Value[].class));
+    }
+
+    /**
+     * Pushes the end of the results of the last call, see {@link OpCode#MULTI}.
+     */
+    private void loadTop() {
+        mv.visitVarInsn(Opcodes.ALOAD, VM);
+        mv.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(VirtualMachine.class), "top", "I");
+    }
+
+    /**
+     * Pushes the number of values {@code i} takes from {@code R(A)} on.
+     */
+    private void pushCount(int i) {
+        if (b(i) == MULTI) {
+            loadTop();
+            pushRegisterIndex(a(i));
+            mv.visitInsn(Opcodes.ISUB);
+        } else {
+            pushInt(b(i));
+        }
+    }
+
+    private void pushRegisterIndex(int register) {
+        mv.visitVarInsn(Opcodes.ILOAD, BASE);
+        if (register != 0) {
+            pushInt(register);
+            mv.visitInsn(Opcodes.IADD);
+        }
+    }
+
+    private void loadField(String name, Class<?> type) {
+        mv.visitVarInsn(Opcodes.ALOAD, THIS);
+        mv.visitFieldInsn(Opcodes.GETFIELD, COMPILED, name, Type.getDescriptor(type));
+    }
+
+    private void loadNil() {
+        mv.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(Value.class), "NIL", Type.getDescriptor(Value.class));
+    }
+
+    private void loadBoolean(String name) {
+        mv.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(BooleanValue.class), name,
+                Type.getDescriptor(BooleanValue.class));
+    }
+
+    private void checkpoint() {
+        mv.visitVarInsn(Opcodes.ALOAD, PROGRAM);
+        invoke(Opcodes.INVOKEVIRTUAL, Program.class, "checkpoint", void.class);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private void invoke(int opcode, Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        Type[] types = new Type[parameterTypes.length];
+        for (int j = 0; j < types.length; j++) {
+            types[j] = Type.getType(parameterTypes[j]);
+        }
+        mv.visitMethodInsn(opcode, Type.getInternalName(owner), name,
+                Type.getMethodDescriptor(Type.getType(returnType), types), owner.isInterface());
+    }
+
+    //endregion
+}
@@ -0,0 +1,114 @@
+package pl.luainterpreter.program.bytecode;
+
+/**
+ * Instruction set and encoding of the register based virtual machine.
+ * <p>
+ * Every instruction is a single {@code int}: a 6 bit opcode followed by an 8 bit register {@code A}
+ * and either two 9 bit operands {@code B}/{@code C} or one 18 bit operand {@code Bx}/{@code sBx}.
+ * {@code RK(x)} operands refer to constant {@code x - RK_CONSTANT} when {@code x >= RK_CONSTANT}
+ * and to register {@code x} otherwise.
+ * <p>
+ * A call leaves all its results in registers from {@code R(A)} on, {@code R(A)} being nil when there are
+ * none, and marks where they end as the top. {@code CALL}, {@code TAILCALL}, {@code PRINT} and
+ * {@code RETURN} with {@code B == MULTI} take the values from {@code R(A)} up to the top, so the call
+ * right before them passes on all its results.
+ */
+public final class OpCode {
+    public static final int MOVE = 0;       // R(A) = R(B)
+    public static final int LOADK = 1;      // R(A) = K(Bx)
+    public static final int GETGLOBAL = 2;  // R(A) = globals[N(Bx)]
+    public static final int SETGLOBAL = 3;  // globals[N(Bx)] = R(A)
+    public static final int GETTABLE = 4;   // R(A) = R(B)[RK(C)]
+    public static final int SETTABLE = 5;   // R(A)[RK(B)] = RK(C)
+    public static final int NEWTABLE = 6;   // R(A) = {} sized for B array and C hash entries
+    public static final int ADD = 7;        // R(A) = RK(B) + RK(C)
+    public static final int SUB = 8;        // R(A) = RK(B) - RK(C)
+    public static final int MUL = 9;        // R(A) = RK(B) * RK(C)
+    public static final int DIV = 10;       // R(A) = RK(B) / RK(C)
+    public static final int MOD = 11;       // R(A) = RK(B) % RK(C)
+    public static final int POW = 12;       // R(A) = RK(B) ^ RK(C)
+    public static final int UNM = 13;       // R(A) = -RK(B)
+    public static final int NOT = 14;       // R(A) = not RK(B)
+    public static final int LEN = 15;       // R(A) = #RK(B)
+    public static final int CONCAT = 16;    // R(A) = R(B) .. ... .. R(C)
+    public static final int EQ = 17;        // R(A) = RK(B) == RK(C)
+    public static final int NE = 18;        // R(A) = RK(B) ~= RK(C)
+    public static final int LT = 19;        // R(A) = RK(B) < RK(C)
+    public static final int LE = 20;        // R(A) = RK(B) <= RK(C)
+    public static final int GT = 21;        // R(A) = RK(B) > RK(C)
+    public static final int GE = 22;        // R(A) = RK(B) >= RK(C)
+    public static final int AND = 23;       // R(A) = RK(B) and RK(C)
+    public static final int OR = 24;        // R(A) = RK(B) or RK(C)
+    public static final int JMP = 25;       // pc += sBx
+    public static final int JMPF = 26;      // if not R(A) then pc += sBx
+    public static final int FORPREP = 27;   // start counting from R(A) to R(A+1) by R(A+2); if done then pc += sBx
+    public static final int FORLOOP = 28;   // count one step; if not done then pc += sBx
+    public static final int CALL = 29;      // R(A), ... = functions[N(C)](R(A), ..., R(A+B-1))
+    public static final int PRINT = 30;     // print(R(A), ..., R(A+B-1))
+    public static final int READ = 31;      // R(A) = io.read(K(Bx))
+    public static final int FUNCDEF = 32;   // functions[P(Bx).name] = P(Bx)
+    public static final int RETURN = 33;    // return R(A), ..., R(A+B-1)
+    public static final int TAILCALL = 34;  // return functions[N(C)](R(A), ..., R(A+B-1)), reusing the frame
+    public static final int GETFIELD = 35;  // R(A) = R(B)[K(C)], K(C) is a string
+    public static final int SETFIELD = 36;  // R(A)[K(B)] = RK(C), K(B) is a string
+    public static final int FORINDEX = 37;  // R(A+3) = current count of the loop at R(A)
+
+    public static final int RK_CONSTANT = 1 << 8;
+    public static final int MAX_REGISTERS = 1 << 8;
+    public static final int MAX_C = (1 << 9) - 1;
+    /** {@code B} of an instruction taking the values up to the top. */
+    public static final int MULTI = MAX_C;
+    public static final int MAX_BX = (1 << 18) - 1;
+    public static final int MAX_SBX = MAX_BX >> 1;
+
+    private static final String[] NAMES = {
+            "MOVE", "LOADK", "GETGLOBAL", "SETGLOBAL", "GETTABLE", "SETTABLE", "NEWTABLE",
+            "ADD", "SUB", "MUL", "DIV", "MOD", "POW", "UNM", "NOT", "LEN", "CONCAT",
+            "EQ", "NE", "LT", "LE", "GT", "GE", "AND", "OR",
+            "JMP", "JMPF", "FORPREP", "FORLOOP", "CALL", "PRINT", "READ", "FUNCDEF", "RETURN", "TAILCALL",
+            "GETFIELD", "SETFIELD", "FORINDEX"
+    };
+
+    private OpCode() {
+    }
+
+    public static int create(int op, int a, int b, int c) {
+        return op | a << 6 | b << 14 | c << 23;
+    }
+
+    public static int createBx(int op, int a, int bx) {
+        return op | a << 6 | bx << 14;
+    }
+
+    public static int createSBx(int op, int a, int sbx) {
+        return createBx(op, a, sbx + MAX_SBX);
+    }
+
+    public static int op(int instruction) {
+        return instruction & 0x3F;
+    }
+
+    public static int a(int instruction) {
+        return (instruction >>> 6) & 0xFF;
+    }
+
+    public static int b(int instruction) {
+        return (instruction >>> 14) & 0x1FF;
+    }
+
+    public static int c(int instruction) {
+        return instruction >>> 23;
+    }
+
+    public static int bx(int instruction) {
+        return instruction >>> 14;
+    }
+
+    public static int sbx(int instruction) {
+        return (instruction >>> 14) - MAX_SBX;
+    }
+
+    public static String name(int op) {
+        return NAMES[op];
+    }
+}
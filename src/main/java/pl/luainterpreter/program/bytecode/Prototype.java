@@ -0,0 +1,122 @@
+package pl.luainterpreter.program.bytecode;
+
+import pl.luainterpreter.program.value.Value;
+
+import java.util.BitSet;
+
+import static pl.luainterpreter.program.bytecode.OpCode.*;
+
+/**
+ * Compiled form of a function (or of the main chunk) executed by the {@link VirtualMachine}.
+ */
+public class Prototype {
+    private final String name;
+    private final int numParams;
+    private final int maxStack;
+    private final int[] code;
+    private final int[] lines;
+    private final Value[] constants;
+    private final String[] names;
+    private final Prototype[] prototypes;
+    private final int[] fieldSlots;
+
+    // tiered compilation state, shared by all states executing the prototype, see Jit
+    int calls;
+    int backEdges;
+    volatile CompiledFunction compiled;
+    boolean notCompilable;
+    int deoptimizations;
+    final BitSet unspeculated = new BitSet();
+
+    public Prototype(String name, int numParams, int maxStack, int[] code, int[] lines,
+                     Value[] constants, String[] names, Prototype[] prototypes) {
+        this.name = name;
+        this.numParams = numParams;
+        this.maxStack = maxStack;
+        this.code = code;
+        this.lines = lines;
+        this.constants = constants;
+        this.names = names;
+        this.prototypes = prototypes;
+        this.fieldSlots = new int[code.length];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumParams() {
+        return numParams;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the source line of each instruction, indexed by pc.
+     */
+    public int[] getLines() {
+        return lines;
+    }
+
+    public Value[] getConstants() {
+        return constants;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public Prototype[] getPrototypes() {
+        return prototypes;
+    }
+
+    /**
+     * Returns the hash slot hints of the {@code GETFIELD} and {@code SETFIELD} instructions, indexed by pc.
+     * Hints are checked before use, so they are shared by all states executing the prototype.
+     */
+    public int[] getFieldSlots() {
+        return fieldSlots;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("function ").append(name)
+                .append(" (params: ").append(numParams)
+                .append(", registers: ").append(maxStack)
+                .append(", instructions: ").append(code.length).append(")\n");
+        for (int pc = 0; pc < code.length; pc++) {
+            int instruction = code[pc];
+            int op = op(instruction);
+            builder.append(String.format("%4d  [%d]\t%-9s %3d ", pc, lines[pc], name(op), a(instruction)));
+            switch (op) {
+                case LOADK, READ -> builder.append(bx(instruction))
+                        .append("\t; ").append(constants[bx(instruction)]);
+                case GETGLOBAL, SETGLOBAL -> builder.append(bx(instruction))
+                        .append("\t; ").append(names[bx(instruction)]);
+                case FUNCDEF -> builder.append(bx(instruction))
+                        .append("\t; ").append(prototypes[bx(instruction)].name);
+                case JMP, JMPF, FORPREP, FORLOOP -> builder.append(sbx(instruction))
+                        .append("\t; to ").append(pc + 1 + sbx(instruction));
+                case GETFIELD -> builder.append(b(instruction)).append(' ').append(c(instruction))
+                        .append("\t; ").append(constants[c(instruction)]);
+                case SETFIELD -> builder.append(b(instruction)).append(' ').append(c(instruction))
+                        .append("\t; ").append(constants[b(instruction)]);
+                case CALL, TAILCALL -> builder.append(b(instruction)).append(' ').append(c(instruction))
+                        .append("\t; ").append(names[c(instruction)]);
+                default -> builder.append(b(instruction)).append(' ').append(c(instruction));
+            }
+            builder.append('\n');
+        }
+        for (Prototype prototype : prototypes) {
+            builder.append('\n').append(prototype);
+        }
+        return builder.toString();
+    }
+}
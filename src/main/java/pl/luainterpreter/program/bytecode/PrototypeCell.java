@@ -0,0 +1,27 @@
+package pl.luainterpreter.program.bytecode;
+
+/**
+ * Holds the Lua function a {@link VirtualMachine} defines under one name, or {@code null} while there is
+ * none. Like a {@link pl.luainterpreter.program.FunctionCell}, a cell lives as long as its machine, so
+ * frames keep the cells of their prototype's callees instead of looking the names up on every call.
+ */
+final class PrototypeCell {
+    private final String name;
+    private Prototype function;
+
+    PrototypeCell(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Prototype getFunction() {
+        return function;
+    }
+
+    void setFunction(Prototype function) {
+        this.function = function;
+    }
+}
@@ -0,0 +1,726 @@
+package pl.luainterpreter.program.bytecode;
+
+import lua.LuaParser;
+import pl.luainterpreter.program.Coroutine;
+import pl.luainterpreter.program.GlobalCell;
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.NumericFor;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.profile.Profiler;
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.FloatValue;
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.NumberValue;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.Value.ValueOperations;
+import pl.luainterpreter.program.value.ValueList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static pl.luainterpreter.program.bytecode.OpCode.*;
+import static pl.luainterpreter.program.value.Value.NIL;
+import static pl.luainterpreter.program.value.Value.ValueOperations.calculate;
+import static pl.luainterpreter.program.value.Value.ValueOperations.compare;
+
+/**
+ * Executes {@link Prototype}s in a dispatch loop. Registers of all active calls live in one flat
+ * value stack; a call's registers start right where the caller placed its arguments, which is also
+ * where its results go, so returning values allocates nothing.
+ * <p>
+ * Lua calls do not recurse in Java: the prototype, base and saved pc of every active call are kept
+ * in the frame arrays, so the call depth is limited only by {@link Program#getMaxCallDepth()}.
+ * Tail calls replace the current frame.
+ * <p>
+ * Numeric {@code for} loops count in {@link #forState}, a primitive shadow of the registers holding
+ * the loop's index, limit and step; the control variable is boxed only by {@code FORINDEX}. Each frame
+ * also holds the state's cells of the globals its prototype names and the machine's cells of the
+ * functions it calls, so neither global accesses nor calls look names up.
+ * <p>
+ * A name with no Lua function calls the state's {@link NativeFunction} of that name right in the
+ * dispatch loop, with the argument registers as its arguments and no frame of its own.
+ * <p>
+ * With a {@link Profiler} attached to the program, calls and returns are reported to it, and so is
+ * every instruction that starts a new source line or jumps back to one. Without one, the only cost is
+ * a null check per instruction.
+ */
+public class VirtualMachine {
+    private static final int INITIAL_STACK_SIZE = 1024;
+    private static final int INITIAL_FRAMES = 64;
+    private static final int COROUTINE_FRAMES = 4;
+
+    final Program program;
+    private final boolean jit;
+    private final boolean coroutine;
+    private final Map<String, PrototypeCell> functions;
+    private final Map<Prototype, PrototypeCell[]> resolvedCallees;
+    private Prototype lastLinked;
+    private PrototypeCell[] lastLinkedCells;
+    Value[] stack;
+    long[] forState;
+    /** End of the results of the last call. */
+    int top;
+    private Prototype[] frameProtos;
+    private int[] frameBases;
+    private int[] framePcs;
+    private GlobalCell[][] frameGlobals;
+    private PrototypeCell[][] frameCallees;
+    private int frameCount;
+    private int compiledDepth;
+    private PrototypeCell tailCallee;
+    private int tailCallBase;
+    private int tailCallArgs;
+    private int yieldRegister;
+
+    public VirtualMachine(Program program) {
+        this(program, false);
+    }
+
+    /**
+     * Creates a machine that, with {@code jit}, compiles hot prototypes to JVM classes, see {@link Jit}.
+     */
+    public VirtualMachine(Program program, boolean jit) {
+        // weak keys, so the chunks a long-lived state has run can still be collected with their cells
+        this(program, jit, false, new HashMap<>(), new WeakHashMap<>(), INITIAL_STACK_SIZE, INITIAL_FRAMES);
+    }
+
+    private VirtualMachine(Program program, boolean jit, boolean coroutine, Map<String, PrototypeCell> functions,
+                           Map<Prototype, PrototypeCell[]> resolvedCallees, int stackSize, int frames) {
+        this.program = program;
+        this.jit = jit;
+        this.coroutine = coroutine;
+        this.functions = functions;
+        this.resolvedCallees = resolvedCallees;
+        this.stack = new Value[stackSize];
+        this.forState = new long[stackSize];
+        this.frameProtos = new Prototype[frames];
+        this.frameBases = new int[frames];
+        this.framePcs = new int[frames];
+        this.frameGlobals = new GlobalCell[frames][];
+        this.frameCallees = new PrototypeCell[frames][];
+    }
+
+    /**
+     * Runs a chunk and returns the first value it returns.
+     */
+    public Value execute(Prototype main) {
+        ensureStack(main.getMaxStack());
+        frameCount = 0;
+        compiledDepth = 0;
+        pushFrame(main, 0, program.getGlobalCells(main, main.getNames()));
+        if (program.getProfiler() != null) {
+            program.getProfiler().enter(main.getName());
+        }
+        return run(0);
+    }
+
+    //=============================================
+    //================ COROUTINES =================
+    //=============================================
+    //region Coroutines
+
+    /**
+     * Creates a coroutine calling the Lua function {@code name}, for {@link Program#setCoroutineFactory}.
+     * Its calls run on a machine of their own, which shares the functions of this one and starts with
+     * just the registers of the function, so a coroutine takes a few hundred bytes.
+     */
+    public Coroutine newCoroutine(String name, boolean wrapped) {
+        PrototypeCell cell = functions.get(name);
+        Prototype function = cell == null ? null : cell.getFunction();
+        if (function == null) {
+            return null;
+        }
+        // compiled code nests its calls in Java, where they could not be suspended
+        VirtualMachine machine = new VirtualMachine(program, false, true, functions, resolvedCallees,
+                Math.max(1, function.getMaxStack()), COROUTINE_FRAMES);
+        return new Coroutine(wrapped) {
+            @Override
+            protected Value run(Value[] values, int first, int count) {
+                Value result = machine.frameCount == 0 ?
+                        machine.start(function, values, first, count) :
+                        machine.proceed(pack(values, first, count));
+                // the function returned its results at the bottom of the machine's stack
+                return result == Coroutine.YIELD ? result : pack(machine.stack, 0, machine.top);
+            }
+        };
+    }
+
+    private Value start(Prototype function, Value[] values, int first, int count) {
+        ensureStack(count);
+        System.arraycopy(values, first, stack, 0, count);
+        enter(function, 0, count);
+        pushFrame(function, 0, program.getGlobalCells(function, function.getNames()));
+        return run(0);
+    }
+
+    /**
+     * Goes on with a yielded call, with {@code values} as the result of its {@code coroutine.yield}.
+     */
+    private Value proceed(Value values) {
+        place(values, yieldRegister);
+        return run(0);
+    }
+
+    /**
+     * Suspends the calls of this machine at the native call that returned {@link Coroutine#YIELD}, whose
+     * result goes to {@code register} when they go on.
+     */
+    private Value suspend(int pc, int register) {
+        framePcs[frameCount - 1] = pc;
+        yieldRegister = register;
+        return Coroutine.YIELD;
+    }
+
+    //endregion
+
+    /**
+     * Runs the top frame, and the frames it pushes, until it returns and {@code entryDepth} frames are left.
+     * In a coroutine it also returns {@link Coroutine#YIELD} when the coroutine yields.
+     */
+    private Value run(int entryDepth) {
+        Value[] stack = this.stack;
+        // a coroutine's calls stay open when it yields, the profiler counts them in coroutine.resume
+        Profiler profiler = coroutine ? null : program.getProfiler();
+        // compiled code has no hooks, so a profiled script is only interpreted
+        boolean jit = this.jit && profiler == null;
+
+        frames:
+        while (true) {
+            Prototype proto = frameProtos[frameCount - 1];
+            int base = frameBases[frameCount - 1];
+            int pc = framePcs[frameCount - 1];
+            GlobalCell[] globals = frameGlobals[frameCount - 1];
+            PrototypeCell[] callees = frameCallees[frameCount - 1];
+            int[] code = proto.getCode();
+            Value[] k = proto.getConstants();
+            int[] fieldSlots = proto.getFieldSlots();
+            int[] lineInfo = proto.getLines();
+            // a caller goes on with the line of its call, which was already counted
+            int line = pc == 0 ? -1 : lineInfo[pc - 1];
+            int tracedPc = pc - 1;
+
+            while (true) {
+                if (profiler != null) {
+                    // like Lua's line hook: a new line starts, or a jump goes back, maybe to the same line
+                    if (lineInfo[pc] != line || pc <= tracedPc) {
+                        line = lineInfo[pc];
+                        profiler.line(line);
+                    }
+                    tracedPc = pc;
+                }
+                int i = code[pc++];
+                int a = base + a(i);
+                switch (op(i)) {
+                    case MOVE -> stack[a] = stack[base + b(i)];
+                    case LOADK -> stack[a] = k[bx(i)];
+                    case GETGLOBAL -> stack[a] = globals[bx(i)].getValue();
+                    case SETGLOBAL -> globals[bx(i)].setValue(stack[a]);
+                    case GETTABLE -> stack[a] = program.getTableVar(stack[base + b(i)], rk(stack, k, base, c(i)));
+                    case SETTABLE -> program.setTableVar(stack[a], rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case GETFIELD -> stack[a] = getField(stack[base + b(i)].checkTable(), k[c(i)], fieldSlots, pc - 1);
+                    case SETFIELD -> setField(stack[a].checkTable(), k[b(i)], rk(stack, k, base, c(i)), fieldSlots, pc - 1);
+                    case NEWTABLE -> stack[a] = program.newTable(b(i), c(i));
+                    case ADD -> stack[a] = calculate(LuaParser.ADD, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case SUB -> stack[a] = calculate(LuaParser.SUB, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case MUL -> stack[a] = calculate(LuaParser.MUL, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case DIV -> stack[a] = calculate(LuaParser.DIV, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case MOD -> stack[a] = calculate(LuaParser.MOD, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case POW -> stack[a] = ValueOperations.calculatePower(rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case UNM -> stack[a] = ValueOperations.negate(rk(stack, k, base, b(i)));
+                    case NOT -> stack[a] = ValueOperations.not(rk(stack, k, base, b(i)));
+                    case LEN -> stack[a] = ValueOperations.length(rk(stack, k, base, b(i)));
+                    case CONCAT -> stack[a] = program.concat(stack, base + b(i), base + c(i) + 1);
+                    case EQ -> stack[a] = compare(LuaParser.EQ, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case NE -> stack[a] = compare(LuaParser.NEQ, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case LT -> stack[a] = compare(LuaParser.LT, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case LE -> stack[a] = compare(LuaParser.LTE, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case GT -> stack[a] = compare(LuaParser.GT, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case GE -> stack[a] = compare(LuaParser.GTE, rk(stack, k, base, b(i)), rk(stack, k, base, c(i)));
+                    case AND -> {
+                        boolean left = rk(stack, k, base, b(i)).isTruthy();
+                        boolean right = rk(stack, k, base, c(i)).isTruthy();
+                        stack[a] = BooleanValue.valueOf(left && right);
+                    }
+                    case OR -> {
+                        boolean left = rk(stack, k, base, b(i)).isTruthy();
+                        boolean right = rk(stack, k, base, c(i)).isTruthy();
+                        stack[a] = BooleanValue.valueOf(left || right);
+                    }
+                    case JMP, JMPF -> {
+                        if (op(i) == JMP || !stack[a].isTruthy()) {
+                            pc += sbx(i);
+                            if (sbx(i) < 0) {
+                                // backward jumps close loops, so they pass the program's checkpoint like the loop nodes do
+                                program.checkpoint();
+                                if (jit) {
+                                    Value result = loop(proto, base, pc);
+                                    if (result != null) {
+                                        if (leave(base, top - base, entryDepth)) {
+                                            return result;
+                                        }
+                                        stack = this.stack;
+                                        continue frames;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    case FORPREP -> {
+                        if (!forPrep(stack, a)) {
+                            pc += sbx(i);
+                        }
+                    }
+                    case FORINDEX -> stack[a + 3] = forIndex(a);
+                    case FORLOOP -> {
+                        if (sbx(i) == -1 && stack[a] == BooleanValue.TRUE) {
+                            // an empty body without a control variable, the iterations only count as steps
+                            program.checkpoint(forState[a + 1]);
+                            forState[a + 1] = 0;
+                        } else if (forLoop(stack, a)) {
+                            program.checkpoint();
+                            pc += sbx(i);
+                            if (jit) {
+                                Value result = loop(proto, base, pc);
+                                if (result != null) {
+                                    if (leave(base, top - base, entryDepth)) {
+                                        return result;
+                                    }
+                                    stack = this.stack;
+                                    continue frames;
+                                }
+                            }
+                        }
+                    }
+                    case CALL -> {
+                        int numArgs = b(i) == MULTI ? top - a : b(i);
+                        PrototypeCell cell = callees[c(i)];
+                        Prototype callee = cell.getFunction();
+                        if (callee == null) {
+                            Value result = callNative(cell.getName(), stack, a, numArgs);
+                            if (result == Coroutine.YIELD) {
+                                return suspend(pc, a);
+                            }
+                            place(result, a);
+                            stack = this.stack;
+                        } else if (jit && isCompiled(callee, a, numArgs)) {
+                            invoke(callee, a, numArgs);
+                            stack = this.stack;
+                        } else {
+                            framePcs[frameCount - 1] = pc;
+                            enter(callee, a, numArgs);
+                            pushFrame(callee, a, program.getGlobalCells(callee, callee.getNames()));
+                            stack = this.stack;
+                            if (profiler != null) {
+                                profiler.enter(callee.getName());
+                            }
+                            continue frames;
+                        }
+                    }
+                    case TAILCALL -> {
+                        int numArgs = b(i) == MULTI ? top - a : b(i);
+                        PrototypeCell cell = callees[c(i)];
+                        Prototype callee = cell.getFunction();
+                        if (callee == null) {
+                            // the RETURN following every TAILCALL returns the native function's results
+                            Value result = callNative(cell.getName(), stack, a, numArgs);
+                            if (result == Coroutine.YIELD) {
+                                return suspend(pc, a);
+                            }
+                            place(result, a);
+                            stack = this.stack;
+                        } else if (jit && isCompiled(callee, a, numArgs)) {
+                            // compiled code hands its own tail calls back to invoke, so this call does not nest
+                            invoke(callee, a, numArgs);
+                            stack = this.stack;
+                        } else {
+                            System.arraycopy(stack, a, stack, base, numArgs);
+                            enter(callee, base, numArgs);
+                            frameProtos[frameCount - 1] = callee;
+                            framePcs[frameCount - 1] = 0;
+                            frameGlobals[frameCount - 1] = program.getGlobalCells(callee, callee.getNames());
+                            frameCallees[frameCount - 1] = getCallees(callee);
+                            stack = this.stack;
+                            if (profiler != null) {
+                                profiler.exit();
+                                profiler.enter(callee.getName());
+                            }
+                            continue frames;
+                        }
+                    }
+                    case PRINT -> program.getOut().print(stack, a, b(i) == MULTI ? top : a + b(i));
+                    case READ -> stack[a] = program.read(k[bx(i)].toString());
+                    case FUNCDEF -> define(proto.getPrototypes()[bx(i)]);
+                    case RETURN -> {
+                        if (profiler != null) {
+                            profiler.exit();
+                        }
+                        if (leave(a, b(i) == MULTI ? top - a : b(i), entryDepth)) {
+                            return stack[frameBases[frameCount]];
+                        }
+                        continue frames;
+                    }
+                    default -> throw new IllegalStateException("Unexpected opcode: " + op(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Pops the top frame and moves its {@code count} results from {@code first} down to the base of the
+     * frame, where the caller finds them. Returns whether the run ends with this frame.
+     */
+    private boolean leave(int first, int count, int entryDepth) {
+        int base = frameBases[--frameCount];
+        frameProtos[frameCount] = null;
+        frameGlobals[frameCount] = null;
+        frameCallees[frameCount] = null;
+        System.arraycopy(stack, first, stack, base, count);
+        if (count == 0) {
+            stack[base] = NIL;
+        }
+        top = base + count;
+        return frameCount == entryDepth;
+    }
+
+    /**
+     * Puts the result of a native function, or of compiled code, where the results of the call at
+     * {@code base} go, and returns the first one. The values of a {@link ValueList} become separate results.
+     */
+    private Value place(Value result, int base) {
+        if (result instanceof ValueList) {
+            List<Value> values = ((ValueList) result).getList();
+            ensureStack(base + values.size() + 1);
+            for (int k = 0; k < values.size(); k++) {
+                stack[base + k] = values.get(k);
+            }
+            if (values.isEmpty()) {
+                stack[base] = NIL;
+            }
+            top = base + values.size();
+        } else if (result != CompiledFunction.RESULTS) {
+            stack[base] = result;
+            top = base + 1;
+        }
+        return stack[base];
+    }
+
+    //=============================================
+    //============ TIERED COMPILATION =============
+    //=============================================
+    //region Tiered compilation
+
+    /**
+     * Returns whether a call to {@code callee} with the arguments at {@code base} runs compiled code,
+     * compiling it if the call makes it hot.
+     */
+    private boolean isCompiled(Prototype callee, int base, int numArgs) {
+        return compiledDepth < Jit.MAX_DEPTH && Jit.compiledFor(callee, stack, base, numArgs) != null;
+    }
+
+    /**
+     * Calls a Lua function, through its compiled code while it has some, with the arguments at {@code base}.
+     * Tail calls that compiled code returns are made here, in a loop, so they do not nest. Leaves the
+     * results at {@code base} and returns the first one.
+     */
+    private Value invoke(Prototype callee, int base, int numArgs) {
+        while (true) {
+            enter(callee, base, numArgs);
+            CompiledFunction compiled = callee.compiled;
+            if (compiled == null || compiledDepth >= Jit.MAX_DEPTH) {
+                break;
+            }
+            Value result = runCompiled(compiled, base, 0);
+            if (result == CompiledFunction.REJECTED) {
+                break;
+            } else if (result != CompiledFunction.TAIL_CALL) {
+                return place(result, base);
+            }
+            numArgs = tailCallArgs;
+            System.arraycopy(stack, tailCallBase, stack, base, numArgs);
+            callee = tailCallee.getFunction();
+            if (callee == null) {
+                return place(callNative(tailCallee.getName(), stack, base, numArgs), base);
+            }
+            Jit.compiledFor(callee, stack, base, numArgs);
+        }
+        pushFrame(callee, base, program.getGlobalCells(callee, callee.getNames()));
+        return run(frameCount - 1);
+    }
+
+    /**
+     * Counts a loop iteration of the top frame and, once its prototype is compiled, goes on in the
+     * compiled code from {@code pc}. Leaves the results of the frame at {@code base} and returns the first
+     * one, or returns {@code null} to keep interpreting.
+     */
+    private Value loop(Prototype proto, int base, int pc) {
+        CompiledFunction compiled = Jit.compiledForLoop(proto, stack, base);
+        if (compiled == null || compiledDepth >= Jit.MAX_DEPTH) {
+            return null;
+        }
+        Value result = runCompiled(compiled, base, pc);
+        if (result == CompiledFunction.REJECTED) {
+            return null;
+        } else if (result != CompiledFunction.TAIL_CALL) {
+            return place(result, base);
+        }
+        int numArgs = tailCallArgs;
+        System.arraycopy(stack, tailCallBase, stack, base, numArgs);
+        return call(tailCallee, base, numArgs);
+    }
+
+    private Value runCompiled(CompiledFunction compiled, int base, int entryPc) {
+        if (frameCount + compiledDepth >= program.getMaxCallDepth()) {
+            throw new LuaError("stack overflow");
+        }
+        compiledDepth++;
+        try {
+            return compiled.call(this, base, entryPc);
+        } finally {
+            compiledDepth--;
+        }
+    }
+
+    /**
+     * Calls a function from compiled code, with the arguments at {@code base}. Leaves the results there and
+     * returns the first one.
+     */
+    Value call(PrototypeCell cell, int base, int numArgs) {
+        Prototype callee = cell.getFunction();
+        if (callee == null) {
+            return place(callNative(cell.getName(), stack, base, numArgs), base);
+        }
+        Jit.compiledFor(callee, stack, base, numArgs);
+        return invoke(callee, base, numArgs);
+    }
+
+    /**
+     * Ends compiled code with a tail call, which the caller of the code makes once the code has returned.
+     */
+    Value tailCall(PrototypeCell cell, int base, int numArgs) {
+        tailCallee = cell;
+        tailCallBase = base;
+        tailCallArgs = numArgs;
+        return CompiledFunction.TAIL_CALL;
+    }
+
+    /**
+     * Ends compiled code returning {@code count} values from {@code first}: moves them down to
+     * {@code base}, where the results of its call go.
+     */
+    Value results(int base, int first, int count) {
+        System.arraycopy(stack, first, stack, base, count);
+        if (count == 0) {
+            stack[base] = NIL;
+        }
+        top = base + count;
+        return CompiledFunction.RESULTS;
+    }
+
+    /**
+     * Interprets the rest of a compiled call whose code met a value it was not compiled for. The compiled
+     * code has written its registers and loop counters back to the stack.
+     */
+    Value resume(Prototype proto, int base, int pc) {
+        pushFrame(proto, base, program.getGlobalCells(proto, proto.getNames()));
+        framePcs[frameCount - 1] = pc;
+        run(frameCount - 1);
+        return CompiledFunction.RESULTS;
+    }
+
+    void define(Prototype function) {
+        getFunctionCell(function.getName()).setFunction(function);
+    }
+
+    private PrototypeCell getFunctionCell(String name) {
+        PrototypeCell cell = functions.get(name);
+        if (cell == null) {
+            cell = new PrototypeCell(name);
+            functions.put(name, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the cells of the functions {@code proto} may call, indexed like its names.
+     */
+    PrototypeCell[] getCallees(Prototype proto) {
+        if (proto != lastLinked) {
+            PrototypeCell[] cells = resolvedCallees.get(proto);
+            if (cells == null) {
+                String[] names = proto.getNames();
+                cells = new PrototypeCell[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    cells[i] = getFunctionCell(names[i]);
+                }
+                resolvedCallees.put(proto, cells);
+            }
+            lastLinked = proto;
+            lastLinkedCells = cells;
+        }
+        return lastLinkedCells;
+    }
+
+    //endregion
+
+    private static Value rk(Value[] stack, Value[] k, int base, int operand) {
+        return operand >= RK_CONSTANT ? k[operand - RK_CONSTANT] : stack[base + operand];
+    }
+
+    /**
+     * Reads a constant string key, trying the slot it was found at by this instruction before.
+     */
+    static Value getField(LuaTable table, Value key, int[] fieldSlots, int pc) {
+        int hint = fieldSlots[pc];
+        int slot = table.findField(key, hint);
+        if (slot < 0) {
+            return NIL;
+        } else if (slot != hint) {
+            fieldSlots[pc] = slot;
+        }
+        return table.getField(slot);
+    }
+
+    static void setField(LuaTable table, Value key, Value value, int[] fieldSlots, int pc) {
+        int hint = fieldSlots[pc];
+        int slot = table.findField(key, hint);
+        if (slot < 0) {
+            table.put(key, value);
+        } else {
+            if (slot != hint) {
+                fieldSlots[pc] = slot;
+            }
+            table.setField(slot, value);
+        }
+    }
+
+    /**
+     * Starts the loop at {@code a}. R(A) is replaced by whether the loop counts with integers; for those
+     * the shadow holds the index, the remaining repeats and the step, for float loops the raw bits of
+     * the index, limit and step.
+     */
+    boolean forPrep(Value[] stack, int a) {
+        NumberValue start = NumericFor.checkNumber(stack[a], "initial value");
+        NumberValue limit = NumericFor.checkNumber(stack[a + 1], "limit");
+        NumberValue step = NumericFor.checkNumber(stack[a + 2], "step");
+        long[] forState = this.forState;
+        if (start instanceof IntValue && step instanceof IntValue) {
+            long index = start.longValue();
+            long stepValue = step.longValue();
+            NumericFor.checkStep(stepValue);
+            if (!NumericFor.runs(index, limit, stepValue)) {
+                return false;
+            }
+            stack[a] = BooleanValue.TRUE;
+            forState[a] = index;
+            forState[a + 1] = NumericFor.repeats(index, limit, stepValue);
+            forState[a + 2] = stepValue;
+            return true;
+        }
+        double index = start.doubleValue();
+        double stepValue = step.doubleValue();
+        NumericFor.checkStep(stepValue);
+        if (!NumericFor.continues(index, limit.doubleValue(), stepValue)) {
+            return false;
+        }
+        stack[a] = BooleanValue.FALSE;
+        forState[a] = Double.doubleToRawLongBits(index);
+        forState[a + 1] = Double.doubleToRawLongBits(limit.doubleValue());
+        forState[a + 2] = Double.doubleToRawLongBits(stepValue);
+        return true;
+    }
+
+    boolean forLoop(Value[] stack, int a) {
+        long[] forState = this.forState;
+        if (stack[a] == BooleanValue.TRUE) {
+            if (forState[a + 1] == 0) {
+                return false;
+            }
+            forState[a + 1]--;
+            forState[a] += forState[a + 2];
+            return true;
+        }
+        double step = Double.longBitsToDouble(forState[a + 2]);
+        double index = Double.longBitsToDouble(forState[a]) + step;
+        if (!NumericFor.continues(index, Double.longBitsToDouble(forState[a + 1]), step)) {
+            return false;
+        }
+        forState[a] = Double.doubleToRawLongBits(index);
+        return true;
+    }
+
+    /**
+     * Returns the control variable of the running loop at {@code a}.
+     */
+    Value forIndex(int a) {
+        return stack[a] == BooleanValue.TRUE ?
+                IntValue.valueOf(forState[a]) :
+                new FloatValue(Double.longBitsToDouble(forState[a]));
+    }
+
+    /**
+     * Prepares the registers of a called function, whose arguments are already in place.
+     */
+    private void enter(Prototype function, int base, int numArgs) {
+        program.checkpoint();
+        ensureStack(base + function.getMaxStack());
+        Arrays.fill(stack, base + numArgs, base + Math.max(numArgs, function.getNumParams()), NIL);
+    }
+
+    /**
+     * Calls a Java function with the arguments in {@code stack[base]} to {@code stack[base + numArgs - 1]}.
+     * Lua functions are looked up first, so a script may replace a library function.
+     */
+    private Value callNative(String name, Value[] stack, int base, int numArgs) {
+        NativeFunction function = program.getNativeFunction(name);
+        program.checkpoint();
+        if (function == null) {
+            return program.callGlobal(name, stack, base, numArgs);
+        }
+        return program.callNative(function, name, stack, base, numArgs);
+    }
+
+    private void pushFrame(Prototype proto, int base, GlobalCell[] globals) {
+        if (frameCount + compiledDepth >= program.getMaxCallDepth()) {
+            throw new LuaError("stack overflow");
+        }
+        if (frameCount == frameProtos.length) {
+            int size = frameCount * 2;
+            frameProtos = Arrays.copyOf(frameProtos, size);
+            frameBases = Arrays.copyOf(frameBases, size);
+            framePcs = Arrays.copyOf(framePcs, size);
+            frameGlobals = Arrays.copyOf(frameGlobals, size);
+            frameCallees = Arrays.copyOf(frameCallees, size);
+        }
+        frameProtos[frameCount] = proto;
+        frameBases[frameCount] = base;
+        framePcs[frameCount] = 0;
+        frameGlobals[frameCount] = globals;
+        frameCallees[frameCount] = getCallees(proto);
+        frameCount++;
+    }
+
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+            forState = Arrays.copyOf(forState, stack.length);
+        }
+    }
+
+    /**
+     * Packs values like the results of a coroutine, see {@link Coroutine}.
+     */
+    private static Value pack(Value[] stack, int first, int count) {
+        if (count == 0) {
+            return NIL;
+        }
+        if (count == 1) {
+            return stack[first];
+        }
+        return new ValueList(Arrays.asList(Arrays.copyOfRange(stack, first, first + count)));
+    }
+}
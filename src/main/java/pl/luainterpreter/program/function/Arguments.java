@@ -0,0 +1,117 @@
+package pl.luainterpreter.program.function;
+
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.NumberValue;
+import pl.luainterpreter.program.value.StringValue;
+import pl.luainterpreter.program.value.Value;
+
+import java.util.Arrays;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * Arguments of a {@link NativeFunction} call: a view of the caller's values, so calls copy nothing.
+ * Arguments are numbered from 1 like in Lua; missing ones are {@code nil}. The {@code check} methods
+ * raise Lua's "bad argument" errors.
+ */
+public final class Arguments {
+    private static final Value[] NONE = new Value[0];
+
+    private String function;
+    private Value[] values;
+    private int first;
+    private int count;
+
+    /**
+     * Points this view at {@code values[first]} to {@code values[first + count - 1]}.
+     */
+    public Arguments set(String function, Value[] values, int first, int count) {
+        this.function = function;
+        this.values = values;
+        this.first = first;
+        this.count = count;
+        return this;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean isPresent(int n) {
+        return n <= count && values[first + n - 1] != NIL;
+    }
+
+    public Value get(int n) {
+        return n <= count ? values[first + n - 1] : NIL;
+    }
+
+    /**
+     * Copies the arguments from the {@code n}th on, for a function that runs Lua code with them.
+     */
+    public Value[] copyFrom(int n) {
+        return n > count ? NONE : Arrays.copyOfRange(values, first + n - 1, first + count);
+    }
+
+    public LuaTable checkTable(int n) {
+        Value value = get(n);
+        if (!(value instanceof LuaTable)) {
+            throw typeError(n, "table");
+        }
+        return (LuaTable) value;
+    }
+
+    public NumberValue checkNumber(int n) {
+        NumberValue number = get(n).toNumber();
+        if (number == null) {
+            throw typeError(n, "number");
+        }
+        return number;
+    }
+
+    public double checkDouble(int n) {
+        return checkNumber(n).doubleValue();
+    }
+
+    public long checkInteger(int n) {
+        NumberValue number = checkNumber(n);
+        if (number instanceof IntValue) {
+            return number.longValue();
+        }
+        double value = number.doubleValue();
+        if (value != Math.rint(value) || value < -0x1p63 || value >= 0x1p63) {
+            throw error(n, "number has no integer representation");
+        }
+        return (long) value;
+    }
+
+    public long optInteger(int n, long defaultValue) {
+        return isPresent(n) ? checkInteger(n) : defaultValue;
+    }
+
+    /**
+     * Returns a string argument; numbers are converted like in Lua.
+     */
+    public String checkString(int n) {
+        Value value = get(n);
+        if (!(value instanceof StringValue) && !(value instanceof NumberValue)) {
+            throw typeError(n, "string");
+        }
+        return value.toString();
+    }
+
+    public String optString(int n, String defaultValue) {
+        return isPresent(n) ? checkString(n) : defaultValue;
+    }
+
+    public LuaError error(int n, String message) {
+        String name = function.substring(function.lastIndexOf('.') + 1);
+        return new LuaError("bad argument #" + n + " to '" + name + "' (" + message + ")");
+    }
+
+    private LuaError typeError(int n, String expected) {
+        String actual = n > count ? "no value" : get(n).getTypeName();
+        return error(n, expected + " expected, got " + actual);
+    }
+}
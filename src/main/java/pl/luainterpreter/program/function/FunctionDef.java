@@ -1,28 +1,54 @@
 package pl.luainterpreter.program.function;
 
-import lua.LuaParser.BlockContext;
+import pl.luainterpreter.program.node.Block;
+
 import java.util.List;
 
 public class FunctionDef {
     private final String name;
-    private final BlockContext ctx;
+    private final Block body;
     private final List<String> argNames;
+    private final int frameSize;
+    private final String[] globalNames;
+    private final String[] calleeNames;
 
-    public FunctionDef(String name, List<String> argNames, BlockContext ctx) {
+    public FunctionDef(String name, List<String> argNames, Block body, int frameSize, String[] globalNames,
+                       String[] calleeNames) {
         this.name = name;
-        this.ctx = ctx;
+        this.body = body;
         this.argNames = argNames;
+        this.frameSize = frameSize;
+        this.globalNames = globalNames;
+        this.calleeNames = calleeNames;
     }
 
     public String getName() {
         return name;
     }
 
-    public BlockContext getCtx() {
-        return ctx;
+    public Block getBody() {
+        return body;
     }
 
     public List<String> getArgNames() {
         return argNames;
     }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the globals used by the body; global nodes refer to them by their index here.
+     */
+    public String[] getGlobalNames() {
+        return globalNames;
+    }
+
+    /**
+     * Returns the names of the functions the body calls; call nodes refer to them by their index here.
+     */
+    public String[] getCalleeNames() {
+        return calleeNames;
+    }
 }
@@ -0,0 +1,21 @@
+package pl.luainterpreter.program.function;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * Function implemented in Java and called from Lua by name, like {@code string.format} or
+ * {@code table.insert}. Lua functions of the same name take precedence.
+ */
+@FunctionalInterface
+public interface NativeFunction {
+
+    /**
+     * Returns the result of the call; several results are returned as a
+     * {@link pl.luainterpreter.program.value.ValueList}, which the engines spread into separate values
+     * like the results of a Lua function, and an empty one means no results.
+     *
+     * @param args arguments of the call, only valid until the function returns
+     */
+    Value call(Program program, Arguments args);
+}
@@ -0,0 +1,71 @@
+package pl.luainterpreter.program.library;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.Arguments;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.value.*;
+
+import java.util.Map;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+final class BaseLibrary {
+    private static final Map<String, StringValue> TYPE_NAMES = Map.of(
+            "nil", new StringValue("nil"),
+            "boolean", new StringValue("boolean"),
+            "number", new StringValue("number"),
+            "string", new StringValue("string"),
+            "table", new StringValue("table"),
+            "function", new StringValue("function"),
+            "thread", new StringValue("thread"));
+
+    private BaseLibrary() {
+    }
+
+    static void register(Map<String, NativeFunction> functions) {
+        functions.put("tostring", BaseLibrary::tostring);
+        functions.put("tonumber", BaseLibrary::tonumber);
+        functions.put("type", BaseLibrary::type);
+    }
+
+    private static Value tostring(Program program, Arguments args) {
+        Value value = args.get(1);
+        return value instanceof StringValue ? value : program.newString(value.toString());
+    }
+
+    private static Value tonumber(Program program, Arguments args) {
+        if (!args.isPresent(2)) {
+            NumberValue number = args.get(1).toNumber();
+            return number == null ? NIL : number;
+        }
+        long base = args.checkInteger(2);
+        if (base < 2 || base > 36) {
+            throw args.error(2, "base out of range");
+        }
+        String digits = args.checkString(1).trim().toLowerCase();
+        boolean negative = digits.startsWith("-");
+        if (negative) {
+            digits = digits.substring(1);
+        }
+        if (digits.isEmpty()) {
+            return NIL;
+        }
+        long value = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = Character.digit(digits.charAt(i), (int) base);
+            if (digit < 0) {
+                return NIL;
+            }
+            value = value * base + digit;
+        }
+        return IntValue.valueOf(negative ? -value : value);
+    }
+
+    private static Value type(Program program, Arguments args) {
+        if (args.count() == 0) {
+            throw args.error(1, "value expected");
+        }
+        StringValue name = TYPE_NAMES.get(args.get(1).getTypeName());
+        return name != null ? name : program.newString(args.get(1).getTypeName());
+    }
+}
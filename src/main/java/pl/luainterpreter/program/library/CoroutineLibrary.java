@@ -0,0 +1,89 @@
+package pl.luainterpreter.program.library;
+
+import pl.luainterpreter.program.Coroutine;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.Arguments;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.ValueList;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * The {@code coroutine} library. Functions are not values in this dialect, so {@code create} and
+ * {@code wrap} take the name of a Lua function, and the function {@code wrap} returns is called by the
+ * name of the global variable holding it. Only the bytecode engines run coroutines.
+ */
+final class CoroutineLibrary {
+
+    private CoroutineLibrary() {
+    }
+
+    static void register(Map<String, NativeFunction> functions) {
+        functions.put("coroutine.create", CoroutineLibrary::create);
+        functions.put("coroutine.resume", CoroutineLibrary::resume);
+        functions.put("coroutine.yield", CoroutineLibrary::yield);
+        functions.put("coroutine.status", CoroutineLibrary::status);
+        functions.put("coroutine.wrap", CoroutineLibrary::wrap);
+        functions.put("coroutine.isyieldable", CoroutineLibrary::isYieldable);
+        functions.put("coroutine.running", CoroutineLibrary::running);
+    }
+
+    private static Value create(Program program, Arguments args) {
+        return newCoroutine(program, args, false);
+    }
+
+    private static Value wrap(Program program, Arguments args) {
+        return newCoroutine(program, args, true);
+    }
+
+    private static Coroutine newCoroutine(Program program, Arguments args, boolean wrapped) {
+        String name = args.checkString(1);
+        Coroutine coroutine = program.newCoroutine(name, wrapped);
+        if (coroutine == null) {
+            throw args.error(1, "no Lua function named '" + name + "'");
+        }
+        return coroutine;
+    }
+
+    private static Value resume(Program program, Arguments args) {
+        Coroutine coroutine = checkCoroutine(args, 1);
+        // the coroutine's native calls reuse the arguments view
+        Value[] values = args.copyFrom(2);
+        return coroutine.resume(program, values, 0, values.length);
+    }
+
+    private static Value yield(Program program, Arguments args) {
+        Value values = switch (args.count()) {
+            case 0 -> NIL;
+            case 1 -> args.get(1);
+            default -> new ValueList(Arrays.asList(args.copyFrom(1)));
+        };
+        return Coroutine.yield(program, values);
+    }
+
+    private static Value status(Program program, Arguments args) {
+        return program.newString(checkCoroutine(args, 1).getStatus().toString());
+    }
+
+    private static Value isYieldable(Program program, Arguments args) {
+        return BooleanValue.valueOf(program.getRunningCoroutine() != null);
+    }
+
+    private static Value running(Program program, Arguments args) {
+        Coroutine running = program.getRunningCoroutine();
+        return running == null ? NIL : running;
+    }
+
+    private static Coroutine checkCoroutine(Arguments args, int n) {
+        Value value = args.get(n);
+        if (!(value instanceof Coroutine) || ((Coroutine) value).isWrapped()) {
+            throw args.error(n, "coroutine expected, got " + (n > args.count() ? "no value" : value.getTypeName()));
+        }
+        return (Coroutine) value;
+    }
+}
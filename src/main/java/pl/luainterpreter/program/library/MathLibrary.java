@@ -0,0 +1,220 @@
+package pl.luainterpreter.program.library;
+
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.Arguments;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.value.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * The {@code math} library. Integer arguments stay integers wherever Lua 5.4 keeps them, e.g. in
+ * {@code math.abs} or {@code math.max}.
+ */
+final class MathLibrary {
+    private static final double TWO_POW_63 = 0x1p63;
+    private static final StringValue INTEGER = new StringValue("integer");
+    private static final StringValue FLOAT = new StringValue("float");
+
+    private MathLibrary() {
+    }
+
+    static void register(Map<String, NativeFunction> functions) {
+        functions.put("math.floor", MathLibrary::floor);
+        functions.put("math.ceil", MathLibrary::ceil);
+        functions.put("math.abs", MathLibrary::abs);
+        functions.put("math.max", MathLibrary::max);
+        functions.put("math.min", MathLibrary::min);
+        functions.put("math.sqrt", (program, args) -> new FloatValue(Math.sqrt(args.checkDouble(1))));
+        functions.put("math.sin", (program, args) -> new FloatValue(Math.sin(args.checkDouble(1))));
+        functions.put("math.cos", (program, args) -> new FloatValue(Math.cos(args.checkDouble(1))));
+        functions.put("math.tan", (program, args) -> new FloatValue(Math.tan(args.checkDouble(1))));
+        functions.put("math.asin", (program, args) -> new FloatValue(Math.asin(args.checkDouble(1))));
+        functions.put("math.acos", (program, args) -> new FloatValue(Math.acos(args.checkDouble(1))));
+        functions.put("math.atan", MathLibrary::atan);
+        functions.put("math.exp", (program, args) -> new FloatValue(Math.exp(args.checkDouble(1))));
+        functions.put("math.log", MathLibrary::log);
+        functions.put("math.fmod", MathLibrary::fmod);
+        functions.put("math.modf", MathLibrary::modf);
+        functions.put("math.tointeger", MathLibrary::tointeger);
+        functions.put("math.type", MathLibrary::type);
+        functions.put("math.ult", MathLibrary::ult);
+        functions.put("math.random", MathLibrary::random);
+        functions.put("math.randomseed", MathLibrary::randomseed);
+    }
+
+    /**
+     * Sets the {@code math} global to a table of the library constants. The functions are resolved by
+     * name, so the table only holds {@code pi}, {@code huge}, {@code maxinteger} and {@code mininteger}.
+     */
+    static void openConstants(Program program) {
+        LuaTable math = program.newTable(0, 4);
+        math.put(new StringValue("pi"), new FloatValue(Math.PI));
+        math.put(new StringValue("huge"), new FloatValue(Double.POSITIVE_INFINITY));
+        math.put(new StringValue("maxinteger"), IntValue.valueOf(Long.MAX_VALUE));
+        math.put(new StringValue("mininteger"), IntValue.valueOf(Long.MIN_VALUE));
+        program.setGlobalVar("math", math);
+    }
+
+    private static Value floor(Program program, Arguments args) {
+        NumberValue number = args.checkNumber(1);
+        return number instanceof IntValue ? number : toInteger(Math.floor(number.doubleValue()));
+    }
+
+    private static Value ceil(Program program, Arguments args) {
+        NumberValue number = args.checkNumber(1);
+        return number instanceof IntValue ? number : toInteger(Math.ceil(number.doubleValue()));
+    }
+
+    private static Value abs(Program program, Arguments args) {
+        NumberValue number = args.checkNumber(1);
+        if (number instanceof IntValue) {
+            long value = number.longValue();
+            return value < 0 ? IntValue.valueOf(-value) : number;
+        }
+        return new FloatValue(Math.abs(number.doubleValue()));
+    }
+
+    private static Value max(Program program, Arguments args) {
+        NumberValue max = args.checkNumber(1);
+        for (int n = 2; n <= args.count(); n++) {
+            NumberValue number = args.checkNumber(n);
+            if (max.compareTo(number) < 0) {
+                max = number;
+            }
+        }
+        return max;
+    }
+
+    private static Value min(Program program, Arguments args) {
+        NumberValue min = args.checkNumber(1);
+        for (int n = 2; n <= args.count(); n++) {
+            NumberValue number = args.checkNumber(n);
+            if (number.compareTo(min) < 0) {
+                min = number;
+            }
+        }
+        return min;
+    }
+
+    private static Value atan(Program program, Arguments args) {
+        double x = args.isPresent(2) ? args.checkDouble(2) : 1;
+        return new FloatValue(Math.atan2(args.checkDouble(1), x));
+    }
+
+    private static Value log(Program program, Arguments args) {
+        double x = args.checkDouble(1);
+        if (!args.isPresent(2)) {
+            return new FloatValue(Math.log(x));
+        }
+        double base = args.checkDouble(2);
+        if (base == 2) {
+            return new FloatValue(Math.log(x) / Math.log(2));
+        } else if (base == 10) {
+            return new FloatValue(Math.log10(x));
+        }
+        return new FloatValue(Math.log(x) / Math.log(base));
+    }
+
+    private static Value fmod(Program program, Arguments args) {
+        NumberValue a = args.checkNumber(1);
+        NumberValue b = args.checkNumber(2);
+        if (a instanceof IntValue && b instanceof IntValue) {
+            long divisor = b.longValue();
+            if (divisor == 0) {
+                throw args.error(2, "zero");
+            }
+            return IntValue.valueOf(a.longValue() % divisor);
+        }
+        return new FloatValue(a.doubleValue() % b.doubleValue());
+    }
+
+    private static Value modf(Program program, Arguments args) {
+        NumberValue number = args.checkNumber(1);
+        if (number instanceof IntValue) {
+            return new ValueList(List.of(number, new FloatValue(0)));
+        }
+        double value = number.doubleValue();
+        double integral = value >= 0 ? Math.floor(value) : Math.ceil(value);
+        double fraction = Double.isInfinite(value) ? 0 : value - integral;
+        return new ValueList(List.of(new FloatValue(integral), new FloatValue(fraction)));
+    }
+
+    private static Value tointeger(Program program, Arguments args) {
+        Value value = args.get(1);
+        if (value instanceof IntValue) {
+            return value;
+        } else if (value instanceof FloatValue) {
+            double number = ((FloatValue) value).doubleValue();
+            if (number == Math.rint(number) && number >= -TWO_POW_63 && number < TWO_POW_63) {
+                return IntValue.valueOf((long) number);
+            }
+        }
+        return NIL;
+    }
+
+    private static Value type(Program program, Arguments args) {
+        if (args.count() == 0) {
+            throw args.error(1, "value expected");
+        }
+        Value value = args.get(1);
+        return value instanceof IntValue ? INTEGER : value instanceof FloatValue ? FLOAT : NIL;
+    }
+
+    private static Value ult(Program program, Arguments args) {
+        return BooleanValue.valueOf(Long.compareUnsigned(args.checkInteger(1), args.checkInteger(2)) < 0);
+    }
+
+    private static Value random(Program program, Arguments args) {
+        SplittableRandom random = program.getRandom();
+        long low;
+        long high;
+        switch (args.count()) {
+            case 0 -> {
+                return new FloatValue(random.nextDouble());
+            }
+            case 1 -> {
+                low = 1;
+                high = args.checkInteger(1);
+                if (high == 0) {
+                    // math.random(0) returns a random integer with all bits random
+                    return IntValue.valueOf(random.nextLong());
+                }
+            }
+            case 2 -> {
+                low = args.checkInteger(1);
+                high = args.checkInteger(2);
+            }
+            default -> throw new LuaError("wrong number of arguments");
+        }
+        if (low > high) {
+            throw args.error(args.count(), "interval is empty");
+        }
+        if (high - low + 1 > 0) {
+            return IntValue.valueOf(low + random.nextLong(high - low + 1));
+        }
+        // the interval has more than 2^63 numbers, its size does not fit a long
+        long value;
+        do {
+            value = random.nextLong();
+        } while (value < low || value > high);
+        return IntValue.valueOf(value);
+    }
+
+    private static Value randomseed(Program program, Arguments args) {
+        program.setRandom(args.count() > 0 ? new SplittableRandom(args.checkInteger(1)) : new SplittableRandom());
+        return NIL;
+    }
+
+    private static NumberValue toInteger(double value) {
+        if (value >= -TWO_POW_63 && value < TWO_POW_63) {
+            return IntValue.valueOf((long) value);
+        }
+        return new FloatValue(value);
+    }
+}
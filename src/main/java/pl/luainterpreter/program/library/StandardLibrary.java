@@ -0,0 +1,37 @@
+package pl.luainterpreter.program.library;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.NativeFunction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Native functions available to every script: {@code tostring}, {@code tonumber}, {@code type} and the
+ * {@code string}, {@code table}, {@code math} and {@code coroutine} libraries. Functions are called by
+ * their full name, e.g. {@code string.format}.
+ */
+public final class StandardLibrary {
+    public static final Map<String, NativeFunction> FUNCTIONS;
+
+    static {
+        Map<String, NativeFunction> functions = new HashMap<>();
+        BaseLibrary.register(functions);
+        StringLibrary.register(functions);
+        TableLibrary.register(functions);
+        MathLibrary.register(functions);
+        CoroutineLibrary.register(functions);
+        FUNCTIONS = Collections.unmodifiableMap(functions);
+    }
+
+    private StandardLibrary() {
+    }
+
+    /**
+     * Sets the globals holding the library constants, like {@code math.pi}.
+     */
+    public static void openConstants(Program program) {
+        MathLibrary.openConstants(program);
+    }
+}
@@ -0,0 +1,354 @@
+package pl.luainterpreter.program.library;
+
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.Arguments;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.value.*;
+
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * The {@code string} library. Strings are indexed by byte from 1, negative indexes count from
+ * the end. Case mapping only changes ASCII letters, like C Lua in the C locale. Patterns are not
+ * supported, {@code string.find} only searches for plain text.
+ */
+final class StringLibrary {
+    private static final StringValue EMPTY = new StringValue("");
+    private static final String PATTERN_SPECIALS = "^$*+?.([%-";
+    private static final String FORMAT_FLAGS = "-+ #0";
+    private static final int MAX_STRING_LENGTH = Integer.MAX_VALUE - 8;
+
+    private StringLibrary() {
+    }
+
+    static void register(Map<String, NativeFunction> functions) {
+        functions.put("string.len", StringLibrary::len);
+        functions.put("string.sub", StringLibrary::sub);
+        functions.put("string.upper", StringLibrary::upper);
+        functions.put("string.lower", StringLibrary::lower);
+        functions.put("string.rep", StringLibrary::rep);
+        functions.put("string.reverse", StringLibrary::reverse);
+        functions.put("string.byte", StringLibrary::byteCodes);
+        functions.put("string.char", StringLibrary::charCodes);
+        functions.put("string.find", StringLibrary::find);
+        functions.put("string.format", StringLibrary::format);
+    }
+
+    private static Value len(Program program, Arguments args) {
+        Value value = args.get(1);
+        if (value instanceof StringValue) {
+            return IntValue.valueOf(((StringValue) value).length());
+        }
+        return IntValue.valueOf(args.checkString(1).length());
+    }
+
+    private static Value sub(Program program, Arguments args) {
+        String text = args.checkString(1);
+        int from = start(args.optInteger(2, 1), text.length());
+        int to = end(args.optInteger(3, -1), text.length());
+        if (from > to) {
+            return EMPTY;
+        } else if (from == 1 && to == text.length() && args.get(1) instanceof StringValue) {
+            return args.get(1);
+        }
+        return program.newString(text.substring(from - 1, to));
+    }
+
+    private static Value upper(Program program, Arguments args) {
+        return program.newString(mapCase(args.checkString(1), 'a', 'A'));
+    }
+
+    private static Value lower(Program program, Arguments args) {
+        return program.newString(mapCase(args.checkString(1), 'A', 'a'));
+    }
+
+    private static String mapCase(String text, char from, char to) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= from && chars[i] <= from + ('z' - 'a')) {
+                chars[i] += to - from;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static Value rep(Program program, Arguments args) {
+        String text = args.checkString(1);
+        long count = args.checkInteger(2);
+        String separator = args.optString(3, "");
+        if (count <= 0) {
+            return EMPTY;
+        }
+        long length = count * text.length() + (count - 1) * separator.length();
+        if (length > MAX_STRING_LENGTH || length < 0 || count > MAX_STRING_LENGTH) {
+            throw new LuaError("resulting string too large");
+        }
+        // the size is known up front, so a script cannot build a string its memory limit does not allow
+        program.checkAllocation(length);
+        StringBuilder builder = new StringBuilder((int) length);
+        for (long i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(text);
+        }
+        return program.newString(builder.toString());
+    }
+
+    private static Value reverse(Program program, Arguments args) {
+        return program.newString(new StringBuilder(args.checkString(1)).reverse().toString());
+    }
+
+    private static Value byteCodes(Program program, Arguments args) {
+        String text = args.checkString(1);
+        long i = args.optInteger(2, 1);
+        int from = start(i, text.length());
+        int to = end(args.optInteger(3, i), text.length());
+        if (from > to) {
+            return NIL;
+        } else if (from == to) {
+            return IntValue.valueOf(text.charAt(from - 1));
+        }
+        List<Value> codes = new ArrayList<>(to - from + 1);
+        for (int index = from; index <= to; index++) {
+            codes.add(IntValue.valueOf(text.charAt(index - 1)));
+        }
+        return new ValueList(codes);
+    }
+
+    private static Value charCodes(Program program, Arguments args) {
+        char[] chars = new char[args.count()];
+        for (int n = 1; n <= chars.length; n++) {
+            long code = args.checkInteger(n);
+            if (code < 0 || code > 255) {
+                throw args.error(n, "value out of range");
+            }
+            chars[n - 1] = (char) code;
+        }
+        return program.newString(new String(chars));
+    }
+
+    private static Value find(Program program, Arguments args) {
+        String text = args.checkString(1);
+        String pattern = args.checkString(2);
+        int from = start(args.optInteger(3, 1), text.length());
+        if (!args.get(4).isTruthy() && pattern.chars().anyMatch(c -> PATTERN_SPECIALS.indexOf(c) >= 0)) {
+            throw args.error(2, "patterns are not supported, pass true as the 4th argument for a plain search");
+        }
+        int index = from > text.length() + 1 ? -1 : text.indexOf(pattern, from - 1);
+        if (index < 0) {
+            return NIL;
+        }
+        return new ValueList(List.of(IntValue.valueOf(index + 1), IntValue.valueOf(index + pattern.length())));
+    }
+
+    //=============================================
+    //================== FORMAT ===================
+    //=============================================
+    //region Format
+
+    /**
+     * Formats like C's {@code sprintf}. Plain {@code %d} and {@code %s} are appended directly, other
+     * conversions go through one {@link Formatter} per call.
+     */
+    private static Value format(Program program, Arguments args) {
+        String format = args.checkString(1);
+        StringBuilder out = new StringBuilder(format.length() + 16 * args.count());
+        Formatter formatter = null;
+        int arg = 1;
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i++);
+            if (c != '%') {
+                out.append(c);
+                continue;
+            } else if (i < format.length() && format.charAt(i) == '%') {
+                out.append('%');
+                i++;
+                continue;
+            }
+            int specStart = i - 1;
+            i = skipSpec(format, i);
+            if (i >= format.length()) {
+                throw new LuaError("invalid conversion '" + format.substring(specStart) + "' to 'format'");
+            }
+            String spec = format.substring(specStart, i);
+            char conversion = format.charAt(i++);
+            arg++;
+            if (conversion == 'd' || conversion == 'i') {
+                long value = args.checkInteger(arg);
+                if (spec.length() == 1) {
+                    out.append(value);
+                    continue;
+                }
+                conversion = 'd';
+            } else if (conversion == 's') {
+                if (args.count() < arg) {
+                    throw args.error(arg, "no value");
+                }
+                if (spec.length() == 1) {
+                    Value value = args.get(arg);
+                    if (value instanceof StringValue) {
+                        ((StringValue) value).appendTo(out);
+                    } else {
+                        out.append(value.toString());
+                    }
+                    continue;
+                }
+            } else if (conversion == 'c') {
+                out.append((char) (args.checkInteger(arg) & 0xFF));
+                continue;
+            } else if (conversion == 'q') {
+                quote(out, args, arg);
+                continue;
+            }
+            if (formatter == null) {
+                formatter = new Formatter(out, Locale.ROOT);
+            }
+            formatSpec(formatter, out, spec, conversion, args, arg);
+        }
+        return program.newString(out.toString());
+    }
+
+    private static int skipSpec(String format, int i) {
+        while (i < format.length() && FORMAT_FLAGS.indexOf(format.charAt(i)) >= 0) {
+            i++;
+        }
+        // like C Lua, widths and precisions have at most two digits
+        i = skipDigits(format, i);
+        if (i < format.length() && format.charAt(i) == '.') {
+            i = skipDigits(format, i + 1);
+        }
+        return i;
+    }
+
+    private static int skipDigits(String format, int i) {
+        int end = Math.min(format.length(), i + 2);
+        while (i < end && Character.isDigit(format.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void formatSpec(Formatter formatter, StringBuilder out, String spec, char conversion,
+                                   Arguments args, int arg) {
+        try {
+            switch (conversion) {
+                case 'd' -> formatter.format(spec + 'd', args.checkInteger(arg));
+                case 'x', 'X', 'o' -> formatter.format(spec + conversion, args.checkInteger(arg));
+                case 's' -> formatter.format(spec + 's', args.get(arg).toString());
+                case 'e', 'E', 'f', 'F', 'a', 'A' -> formatFloat(formatter, out, spec, conversion, args.checkDouble(arg));
+                case 'g', 'G' -> {
+                    int start = out.length();
+                    boolean alternate = spec.indexOf('#') >= 0;
+                    formatFloat(formatter, out, alternate ? spec.replace("#", "") : spec, conversion,
+                            args.checkDouble(arg));
+                    if (!alternate) {
+                        stripZeros(out, start);
+                    }
+                }
+                default -> throw new LuaError("invalid conversion '" + spec + conversion + "' to 'format'");
+            }
+        } catch (IllegalFormatException e) {
+            throw new LuaError("invalid conversion '" + spec + conversion + "' to 'format'");
+        }
+    }
+
+    private static void formatFloat(Formatter formatter, StringBuilder out, String spec, char conversion, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // C prints inf and nan where Java prints Infinity and NaN
+            String text = Double.isNaN(value) ? "nan" : value > 0 ? (spec.indexOf('+') >= 0 ? "+inf" : "inf") : "-inf";
+            int precision = spec.indexOf('.');
+            String width = (precision < 0 ? spec : spec.substring(0, precision)).replaceAll("[+ #0]", "");
+            formatter.format(width + 's', Character.isUpperCase(conversion) ? text.toUpperCase(Locale.ROOT) : text);
+            return;
+        }
+        boolean upper = conversion == 'F';
+        int start = out.length();
+        formatter.format(spec + (upper ? 'f' : conversion), value);
+        if (upper) {
+            out.replace(start, out.length(), out.substring(start).toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Removes the trailing zeros of a {@code %g} mantissa, which Java keeps and C drops.
+     */
+    private static void stripZeros(StringBuilder out, int start) {
+        int point = out.indexOf(".", start);
+        if (point < 0) {
+            return;
+        }
+        int exponent = point;
+        while (exponent < out.length() && out.charAt(exponent) != 'e' && out.charAt(exponent) != 'E'
+                && out.charAt(exponent) != ' ') {
+            exponent++;
+        }
+        int end = exponent;
+        while (out.charAt(end - 1) == '0') {
+            end--;
+        }
+        if (out.charAt(end - 1) == '.') {
+            end--;
+        }
+        out.delete(end, exponent);
+    }
+
+    private static void quote(StringBuilder out, Arguments args, int arg) {
+        Value value = args.get(arg);
+        if (!(value instanceof StringValue)) {
+            if (args.count() < arg) {
+                throw args.error(arg, "no value");
+            }
+            out.append(value.toString());
+            return;
+        }
+        String text = value.toString();
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"', '\\' -> out.append('\\').append(c);
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\0' -> out.append("\\0");
+                default -> out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    //endregion
+
+    /**
+     * Converts the start of a byte range to a 1 based index, up to {@code length + 1}.
+     */
+    private static int start(long index, int length) {
+        if (index > 0) {
+            return (int) Math.min(index, length + 1L);
+        } else if (index == 0) {
+            return 1;
+        }
+        return (int) Math.max(length + index + 1, 1);
+    }
+
+    /**
+     * Converts the end of a byte range to a 1 based index, down to 0.
+     */
+    private static int end(long index, int length) {
+        if (index > length) {
+            return length;
+        } else if (index >= 0) {
+            return (int) index;
+        }
+        return (int) Math.max(length + index + 1, 0);
+    }
+}
@@ -0,0 +1,157 @@
+package pl.luainterpreter.program.library;
+
+import pl.luainterpreter.program.LuaError;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.Arguments;
+import pl.luainterpreter.program.function.NativeFunction;
+import pl.luainterpreter.program.value.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * The {@code table} library, working on the array part of tables directly. Functions are not values
+ * in this interpreter, so {@code table.sort} takes no comparison function.
+ */
+final class TableLibrary {
+    private static final int MAX_UNPACK = 1_000_000;
+
+    private static final Comparator<Value> INTEGER_ORDER =
+            (left, right) -> Long.compare(((IntValue) left).longValue(), ((IntValue) right).longValue());
+    private static final Comparator<Value> STRING_ORDER =
+            (left, right) -> left.toString().compareTo(right.toString());
+
+    private TableLibrary() {
+    }
+
+    static void register(Map<String, NativeFunction> functions) {
+        functions.put("table.insert", TableLibrary::insert);
+        functions.put("table.remove", TableLibrary::remove);
+        functions.put("table.concat", TableLibrary::concat);
+        functions.put("table.sort", TableLibrary::sort);
+        functions.put("table.unpack", TableLibrary::unpack);
+    }
+
+    private static Value insert(Program program, Arguments args) {
+        LuaTable table = args.checkTable(1);
+        long length = table.length();
+        switch (args.count()) {
+            case 2 -> table.insertAt(length + 1, args.get(2));
+            case 3 -> {
+                long pos = args.checkInteger(2);
+                if (pos < 1 || pos > length + 1) {
+                    throw args.error(2, "position out of bounds");
+                }
+                table.insertAt(pos, args.get(3));
+            }
+            default -> throw new LuaError("wrong number of arguments to 'insert'");
+        }
+        return NIL;
+    }
+
+    private static Value remove(Program program, Arguments args) {
+        LuaTable table = args.checkTable(1);
+        long length = table.length();
+        long pos = args.optInteger(2, length);
+        if (pos >= 1 && pos <= length) {
+            return table.removeAt(pos);
+        } else if (pos != length && pos != length + 1) {
+            throw args.error(2, "position out of bounds");
+        }
+        // an empty table at 0 or the slot right after the sequence, which are not moved
+        Value value = table.get(pos);
+        table.put(pos, NIL);
+        return value;
+    }
+
+    private static Value concat(Program program, Arguments args) {
+        LuaTable table = args.checkTable(1);
+        String separator = args.optString(2, "");
+        long first = args.optInteger(3, 1);
+        long last = args.isPresent(4) ? args.checkInteger(4) : table.length();
+        if (first > last) {
+            return program.newString("");
+        }
+        // measure first, so the result is built in a single buffer of the right size
+        long length = (last - first) * separator.length();
+        for (long i = first; i <= last; i++) {
+            Value value = table.get(i);
+            if (value instanceof StringValue) {
+                length += ((StringValue) value).length();
+            } else if (value instanceof NumberValue) {
+                length += 24;
+            } else {
+                throw new LuaError("invalid value (at index " + i + ") in table for 'concat'");
+            }
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new LuaError("resulting string too large");
+        }
+        program.checkAllocation(length);
+        StringValue.Builder builder = new StringValue.Builder((int) length);
+        for (long i = first; i <= last; i++) {
+            if (i > first) {
+                builder.append(separator);
+            }
+            builder.append(table.get(i));
+        }
+        return program.newString(builder);
+    }
+
+    private static Value sort(Program program, Arguments args) {
+        LuaTable table = args.checkTable(1);
+        if (args.isPresent(2)) {
+            throw args.error(2, "comparison functions are not supported");
+        }
+        try {
+            table.sort(orderOf(table));
+        } catch (IllegalArgumentException e) {
+            // TimSort detected an inconsistent order, e.g. NaN among the numbers
+            throw new LuaError("invalid order function for sorting");
+        }
+        return NIL;
+    }
+
+    /**
+     * Picks the cheapest comparison that orders all elements, so sorting integers or strings skips the
+     * generic {@link Value#compareTo(Value)} dispatch.
+     */
+    private static Comparator<Value> orderOf(LuaTable table) {
+        boolean integers = true;
+        boolean strings = true;
+        long length = table.length();
+        for (long i = 1; i <= length && (integers || strings); i++) {
+            Value value = table.get(i);
+            integers &= value instanceof IntValue;
+            strings &= value instanceof StringValue;
+        }
+        if (integers) {
+            return INTEGER_ORDER;
+        } else if (strings) {
+            return STRING_ORDER;
+        }
+        return Value::compareTo;
+    }
+
+    private static Value unpack(Program program, Arguments args) {
+        LuaTable table = args.checkTable(1);
+        long first = args.optInteger(2, 1);
+        long last = args.isPresent(3) ? args.checkInteger(3) : table.length();
+        if (first > last) {
+            return NIL;
+        } else if (first == last) {
+            return table.get(first);
+        } else if (last - first >= MAX_UNPACK || last - first < 0) {
+            throw new LuaError("too many results to unpack");
+        }
+        List<Value> values = new ArrayList<>((int) (last - first + 1));
+        for (long i = first; i <= last; i++) {
+            values.add(table.get(i));
+        }
+        return new ValueList(values);
+    }
+}
@@ -0,0 +1,56 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.profile.Profiler;
+
+public class Block extends Statement {
+    private final Statement[] statements;
+    private final Statement retStat;
+    private final int[] lines;
+
+    /**
+     * @param lines source line of each statement, followed by the line of {@code retStat} if there is one
+     */
+    public Block(Statement[] statements, Statement retStat, int[] lines) {
+        this.statements = statements;
+        this.retStat = retStat;
+        this.lines = lines;
+    }
+
+    public boolean isEmpty() {
+        return statements.length == 0 && retStat == null;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        Profiler profiler = program.getProfiler();
+        if (profiler != null) {
+            return executeProfiled(program, profiler);
+        }
+        for (Statement statement : statements) {
+            Completion completion = statement.execute(program);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        if (retStat != null) {
+            return retStat.execute(program);
+        }
+        return Completion.NORMAL;
+    }
+
+    private Completion executeProfiled(Program program, Profiler profiler) {
+        for (int i = 0; i < statements.length; i++) {
+            profiler.line(lines[i]);
+            Completion completion = statements[i].execute(program);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        if (retStat != null) {
+            profiler.line(lines[statements.length]);
+            return retStat.execute(program);
+        }
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,11 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class BreakStat extends Statement {
+
+    @Override
+    public Completion execute(Program program) {
+        return Completion.BREAK;
+    }
+}
@@ -0,0 +1,70 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.FunctionCell;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.FunctionDef;
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * Calls a function by its callee slot in the enclosing function, see {@link FunctionDef#getCalleeNames()}.
+ * The arguments are pushed onto the program's value stack, where the callee's frame starts and where its
+ * results end up.
+ */
+public class CallExp extends Expression {
+    private final String funcName;
+    private final int callee;
+    private final ExpList args;
+
+    public CallExp(String funcName, int callee, ExpList args) {
+        this.funcName = funcName;
+        this.callee = callee;
+        this.args = args;
+    }
+
+    public String getFuncName() {
+        return funcName;
+    }
+
+    public int getCallee() {
+        return callee;
+    }
+
+    public ExpList getArgs() {
+        return args;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        int base = program.getTop();
+        return program.popResults(base, call(program, base));
+    }
+
+    @Override
+    public int push(Program program) {
+        return call(program, program.getTop());
+    }
+
+    /**
+     * Makes the call with its arguments pushed from {@code base} on, leaves the results there and returns
+     * their number.
+     */
+    private int call(Program program, int base) {
+        int numArgs = args.push(program);
+        FunctionCell cell = program.getCallee(callee);
+        while (true) {
+            program.checkpoint();
+            FunctionDef functionDef = cell.getFunction();
+            if (functionDef == null) {
+                return program.callNative(cell.getName(), base, numArgs);
+            }
+            program.callFunction(functionDef, base, numArgs);
+            Completion completion = program.executeFunction(functionDef);
+            program.endFunction();
+            if (completion != Completion.TAIL_CALL) {
+                return program.takeReturnValues(base, completion == Completion.RETURN);
+            }
+            cell = program.takeTailCallee();
+            numArgs = program.moveTailCallArgs(base);
+        }
+    }
+}
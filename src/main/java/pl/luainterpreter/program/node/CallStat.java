@@ -0,0 +1,17 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class CallStat extends Statement {
+    private final Expression call;
+
+    public CallStat(Expression call) {
+        this.call = call;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        call.evaluate(program);
+        return Completion.NORMAL;
+    }
+}
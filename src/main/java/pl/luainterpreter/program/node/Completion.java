@@ -0,0 +1,13 @@
+package pl.luainterpreter.program.node;
+
+/**
+ * How a {@link Statement} finished. Anything but {@link #NORMAL} makes the enclosing blocks stop
+ * and hand the completion on until a loop ({@link #BREAK}) or a call ({@link #RETURN},
+ * {@link #TAIL_CALL}) consumes it; returned values and tail call targets wait in the program.
+ */
+public enum Completion {
+    NORMAL,
+    BREAK,
+    RETURN,
+    TAIL_CALL
+}
@@ -0,0 +1,24 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * A whole chain of concatenations, {@code a .. b .. c} builds its result in one pass.
+ */
+public class ConcatExp extends Expression {
+    private final Expression[] operands;
+
+    public ConcatExp(Expression[] operands) {
+        this.operands = operands;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        Value[] values = new Value[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            values[i] = operands[i].evaluate(program);
+        }
+        return program.concat(values, 0, values.length);
+    }
+}
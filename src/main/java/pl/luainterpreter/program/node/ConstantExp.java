@@ -0,0 +1,21 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public class ConstantExp extends Expression {
+    private final Value value;
+
+    public ConstantExp(Value value) {
+        this.value = value;
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        return value;
+    }
+}
@@ -0,0 +1,24 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class DoLoop extends LoopStat {
+    private final Block block;
+
+    public DoLoop(Block block) {
+        this.block = block;
+    }
+
+    /**
+     * {@code do ... end} only opens a scope, a {@code break} inside leaves the enclosing loop.
+     */
+    @Override
+    public Completion execute(Program program) {
+        return loop(program);
+    }
+
+    @Override
+    protected Completion loop(Program program) {
+        return block.execute(program);
+    }
+}
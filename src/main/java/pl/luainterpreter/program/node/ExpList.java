@@ -0,0 +1,31 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class ExpList extends Node {
+    private final Expression[] exps;
+
+    public ExpList(Expression[] exps) {
+        this.exps = exps;
+    }
+
+    public int size() {
+        return exps.length;
+    }
+
+    public Expression get(int index) {
+        return exps[index];
+    }
+
+    /**
+     * Pushes the values onto the program's value stack and returns their number. The last expression
+     * pushes all its values, the others one each.
+     */
+    public int push(Program program) {
+        int last = exps.length - 1;
+        for (int i = 0; i < last; i++) {
+            program.push(exps[i].evaluate(program));
+        }
+        return last < 0 ? 0 : last + exps[last].push(program);
+    }
+}
@@ -0,0 +1,18 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public abstract class Expression extends Node {
+
+    public abstract Value evaluate(Program program);
+
+    /**
+     * Pushes the values of the expression onto the program's value stack and returns their number. Only a
+     * call has other than one value, it pushes all its results.
+     */
+    public int push(Program program) {
+        program.push(evaluate(program));
+        return 1;
+    }
+}
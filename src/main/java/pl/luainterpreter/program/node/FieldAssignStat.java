@@ -0,0 +1,39 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.Value;
+
+/**
+ * Assigns a field with a constant string key, like {@code a.x = 1}, with the slot hint of {@link FieldExp}.
+ */
+public class FieldAssignStat extends Statement {
+    private final Expression table;
+    private final Value key;
+    private final Expression exp;
+    private int slot;
+
+    public FieldAssignStat(Expression table, Value key, Expression exp) {
+        this.table = table;
+        this.key = key;
+        this.exp = exp;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        Value target = table.evaluate(program);
+        Value value = exp.evaluate(program);
+        LuaTable tableValue = target.checkTable();
+        int hint = slot;
+        int found = tableValue.findField(key, hint);
+        if (found < 0) {
+            tableValue.put(key, value);
+        } else {
+            if (found != hint) {
+                slot = found;
+            }
+            tableValue.setField(found, value);
+        }
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,36 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.Value;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+/**
+ * Reads a field with a constant string key, like {@code a.x}. The node remembers the hash slot the key
+ * was last found at; the slot is checked against the key before use, so it is only a hint and may be
+ * shared by all programs running the node.
+ */
+public class FieldExp extends Expression {
+    private final Expression table;
+    private final Value key;
+    private int slot;
+
+    public FieldExp(Expression table, Value key) {
+        this.table = table;
+        this.key = key;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        LuaTable tableValue = table.evaluate(program).checkTable();
+        int hint = slot;
+        int found = tableValue.findField(key, hint);
+        if (found < 0) {
+            return NIL;
+        } else if (found != hint) {
+            slot = found;
+        }
+        return tableValue.getField(found);
+    }
+}
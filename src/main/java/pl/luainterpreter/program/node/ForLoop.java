@@ -0,0 +1,87 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.NumericFor;
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.FloatValue;
+import pl.luainterpreter.program.value.IntValue;
+import pl.luainterpreter.program.value.NumberValue;
+
+/**
+ * Numeric {@code for}. The counter is a Java primitive and the limit and step are evaluated once; the
+ * control variable gets a copy of the counter at the start of every iteration, so assigning to it
+ * does not change the iterations. A loop whose variable is never read does not materialize it at all.
+ */
+public class ForLoop extends LoopStat {
+    private static final NumberValue DEFAULT_STEP = IntValue.valueOf(1);
+
+    private final int controlSlot;
+    private final boolean controlUsed;
+    private final Expression start;
+    private final Expression stop;
+    private final Expression step;
+    private final Block block;
+
+    public ForLoop(int controlSlot, boolean controlUsed, Expression start, Expression stop, Expression step,
+                   Block block) {
+        this.controlSlot = controlSlot;
+        this.controlUsed = controlUsed;
+        this.start = start;
+        this.stop = stop;
+        this.step = step;
+        this.block = block;
+    }
+
+    @Override
+    protected Completion loop(Program program) {
+        NumberValue startValue = NumericFor.checkNumber(start.evaluate(program), "initial value");
+        NumberValue stopValue = NumericFor.checkNumber(stop.evaluate(program), "limit");
+        NumberValue stepValue = step == null ? DEFAULT_STEP : NumericFor.checkNumber(step.evaluate(program), "step");
+        if (startValue instanceof IntValue && stepValue instanceof IntValue) {
+            return integerLoop(program, startValue.longValue(), stopValue, stepValue.longValue());
+        }
+        return floatLoop(program, startValue.doubleValue(), stopValue.doubleValue(), stepValue.doubleValue());
+    }
+
+    private Completion integerLoop(Program program, long index, NumberValue limit, long step) {
+        NumericFor.checkStep(step);
+        if (!NumericFor.runs(index, limit, step)) {
+            return Completion.NORMAL;
+        }
+        long repeats = NumericFor.repeats(index, limit, step);
+        if (block.isEmpty() && !controlUsed) {
+            // nothing to run, the iterations only count as steps
+            program.checkpoint(repeats);
+            program.checkpoint();
+            return Completion.NORMAL;
+        }
+        while (true) {
+            if (controlUsed) {
+                program.setLocalVar(controlSlot, IntValue.valueOf(index));
+            }
+            Completion completion = block.execute(program);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+            program.checkpoint();
+            if (repeats-- == 0) {
+                return Completion.NORMAL;
+            }
+            index += step;
+        }
+    }
+
+    private Completion floatLoop(Program program, double index, double limit, double step) {
+        NumericFor.checkStep(step);
+        for (; NumericFor.continues(index, limit, step); index += step) {
+            if (controlUsed) {
+                program.setLocalVar(controlSlot, new FloatValue(index));
+            }
+            Completion completion = block.execute(program);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+            program.checkpoint();
+        }
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,18 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.function.FunctionDef;
+
+public class FuncDefStat extends Statement {
+    private final FunctionDef functionDef;
+
+    public FuncDefStat(FunctionDef functionDef) {
+        this.functionDef = functionDef;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        program.addFunctionDef(functionDef);
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,19 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class GlobalAssignStat extends Statement {
+    private final int slot;
+    private final Expression exp;
+
+    public GlobalAssignStat(int slot, Expression exp) {
+        this.slot = slot;
+        this.exp = exp;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        program.setGlobalVar(slot, exp.evaluate(program));
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,17 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public class GlobalExp extends Expression {
+    private final int slot;
+
+    public GlobalExp(int slot) {
+        this.slot = slot;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        return program.getGlobalVar(slot);
+    }
+}
@@ -0,0 +1,28 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class IfStat extends Statement {
+    private final Expression[] conditions;
+    private final Block[] blocks;
+    private final Block elseBlock;
+
+    public IfStat(Expression[] conditions, Block[] blocks, Block elseBlock) {
+        this.conditions = conditions;
+        this.blocks = blocks;
+        this.elseBlock = elseBlock;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        for (int i = 0; i < conditions.length; i++) {
+            if (conditions[i].evaluate(program).isTruthy()) {
+                return blocks[i].execute(program);
+            }
+        }
+        if (elseBlock != null) {
+            return elseBlock.execute(program);
+        }
+        return Completion.NORMAL;
+    }
+}
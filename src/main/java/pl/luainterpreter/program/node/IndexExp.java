@@ -0,0 +1,20 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public class IndexExp extends Expression {
+    private final Expression table;
+    private final Expression index;
+
+    public IndexExp(Expression table, Expression index) {
+        this.table = table;
+        this.index = index;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        Value tableValue = table.evaluate(program);
+        return program.getTableVar(tableValue, index.evaluate(program));
+    }
+}
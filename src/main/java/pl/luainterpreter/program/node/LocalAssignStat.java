@@ -0,0 +1,19 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class LocalAssignStat extends Statement {
+    private final int slot;
+    private final Expression exp;
+
+    public LocalAssignStat(int slot, Expression exp) {
+        this.slot = slot;
+        this.exp = exp;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        program.setLocalVar(slot, exp.evaluate(program));
+        return Completion.NORMAL;
+    }
+}
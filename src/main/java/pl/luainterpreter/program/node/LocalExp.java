@@ -0,0 +1,17 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public class LocalExp extends Expression {
+    private final int slot;
+
+    public LocalExp(int slot) {
+        this.slot = slot;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        return program.getLocalVar(slot);
+    }
+}
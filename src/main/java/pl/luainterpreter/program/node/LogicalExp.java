@@ -0,0 +1,32 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.BooleanValue;
+import pl.luainterpreter.program.value.Value;
+
+import static lua.LuaParser.AND;
+import static lua.LuaParser.OR;
+
+public class LogicalExp extends Expression {
+    private final int op;
+    private final Expression left;
+    private final Expression right;
+
+    public LogicalExp(int op, Expression left, Expression right) {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        boolean leftValue = left.evaluate(program).isTruthy();
+        boolean rightValue = right.evaluate(program).isTruthy();
+
+        return switch (op) {
+            case AND -> BooleanValue.valueOf(leftValue && rightValue);
+            case OR -> BooleanValue.valueOf(leftValue || rightValue);
+            default -> throw new IllegalStateException("Unexpected logical operation: " + op);
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public abstract class LoopStat extends Statement {
+
+    /**
+     * A loop consumes the {@code break} of its body; returns pass on to the enclosing call.
+     */
+    @Override
+    public Completion execute(Program program) {
+        Completion completion = loop(program);
+        return completion == Completion.BREAK ? Completion.NORMAL : completion;
+    }
+
+    protected abstract Completion loop(Program program);
+}
@@ -0,0 +1,4 @@
+package pl.luainterpreter.program.node;
+
+public abstract class Node {
+}
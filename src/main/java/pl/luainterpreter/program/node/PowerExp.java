@@ -0,0 +1,20 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.Value.ValueOperations;
+
+public class PowerExp extends Expression {
+    private final Expression left;
+    private final Expression right;
+
+    public PowerExp(Expression left, Expression right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        return ValueOperations.calculatePower(left.evaluate(program), right.evaluate(program));
+    }
+}
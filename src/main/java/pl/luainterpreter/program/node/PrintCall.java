@@ -0,0 +1,22 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+import static pl.luainterpreter.program.value.Value.NIL;
+
+public class PrintCall extends Expression {
+    private final ExpList args;
+
+    public PrintCall(ExpList args) {
+        this.args = args;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        int base = program.getTop();
+        args.push(program);
+        program.print(base);
+        return NIL;
+    }
+}
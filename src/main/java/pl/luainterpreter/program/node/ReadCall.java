@@ -0,0 +1,17 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public class ReadCall extends Expression {
+    private final String valueType;
+
+    public ReadCall(String valueType) {
+        this.valueType = valueType;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        return program.read(valueType);
+    }
+}
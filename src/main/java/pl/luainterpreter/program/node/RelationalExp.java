@@ -0,0 +1,23 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+import static pl.luainterpreter.program.value.Value.ValueOperations.compare;
+
+public class RelationalExp extends Expression {
+    private final int op;
+    private final Expression left;
+    private final Expression right;
+
+    public RelationalExp(int op, Expression left, Expression right) {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        return compare(op, left.evaluate(program), right.evaluate(program));
+    }
+}
@@ -0,0 +1,25 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class RepeatLoop extends LoopStat {
+    private final Block block;
+    private final Expression condition;
+
+    public RepeatLoop(Block block, Expression condition) {
+        this.block = block;
+        this.condition = condition;
+    }
+
+    @Override
+    protected Completion loop(Program program) {
+        do {
+            Completion completion = block.execute(program);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+            program.checkpoint();
+        } while (!condition.evaluate(program).isTruthy());
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,18 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class RetStat extends Statement {
+    private final ExpList exps;
+
+    public RetStat(ExpList exps) {
+        this.exps = exps;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        int first = program.getTop();
+        program.setReturnValues(first, exps.push(program));
+        return Completion.RETURN;
+    }
+}
@@ -0,0 +1,8 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public abstract class Statement extends Node {
+
+    public abstract Completion execute(Program program);
+}
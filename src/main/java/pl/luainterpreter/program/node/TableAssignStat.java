@@ -0,0 +1,24 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+
+public class TableAssignStat extends Statement {
+    private final Expression table;
+    private final Expression index;
+    private final Expression exp;
+
+    public TableAssignStat(Expression table, Expression index, Expression exp) {
+        this.table = table;
+        this.index = index;
+        this.exp = exp;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        Value tableValue = table.evaluate(program);
+        Value indexValue = index.evaluate(program);
+        program.setTableVar(tableValue, indexValue, exp.evaluate(program));
+        return Completion.NORMAL;
+    }
+}
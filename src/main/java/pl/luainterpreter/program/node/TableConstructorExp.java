@@ -0,0 +1,26 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.LuaTable;
+import pl.luainterpreter.program.value.Value;
+
+public class TableConstructorExp extends Expression {
+    private final Value[] keys;
+    private final Expression[] values;
+    private final int arraySize;
+
+    public TableConstructorExp(Value[] keys, Expression[] values, int arraySize) {
+        this.keys = keys;
+        this.values = values;
+        this.arraySize = arraySize;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        LuaTable table = program.newTable(arraySize, keys.length - arraySize);
+        for (int i = 0; i < keys.length; i++) {
+            table.put(keys[i], values[i].evaluate(program));
+        }
+        return table;
+    }
+}
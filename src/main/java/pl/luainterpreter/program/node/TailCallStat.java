@@ -0,0 +1,21 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class TailCallStat extends Statement {
+    private final int callee;
+    private final ExpList args;
+
+    public TailCallStat(int callee, ExpList args) {
+        this.callee = callee;
+        this.args = args;
+    }
+
+    @Override
+    public Completion execute(Program program) {
+        int base = program.getTop();
+        int numArgs = args.push(program);
+        program.setTailCall(program.getCallee(callee), base, numArgs);
+        return Completion.TAIL_CALL;
+    }
+}
@@ -0,0 +1,28 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+import pl.luainterpreter.program.value.Value;
+import pl.luainterpreter.program.value.Value.ValueOperations;
+
+import static lua.LuaParser.*;
+
+public class UnaryExp extends Expression {
+    private final int op;
+    private final Expression exp;
+
+    public UnaryExp(int op, Expression exp) {
+        this.op = op;
+        this.exp = exp;
+    }
+
+    @Override
+    public Value evaluate(Program program) {
+        Value value = exp.evaluate(program);
+        return switch (op) {
+            case NOT -> ValueOperations.not(value);
+            case SUB -> ValueOperations.negate(value);
+            case LEN -> ValueOperations.length(value);
+            default -> throw new IllegalStateException("Unexpected unary operation: " + op);
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package pl.luainterpreter.program.node;
+
+import pl.luainterpreter.program.Program;
+
+public class WhileLoop extends LoopStat {
+    private final Expression condition;
+    private final Block block;
+
+    public WhileLoop(Expression condition, Block block) {
+        this.condition = condition;
+        this.block = block;
+    }
+
+    @Override
+    protected Completion loop(Program program) {
+        while (condition.evaluate(program).isTruthy()) {
+            Completion completion = block.execute(program);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+            program.checkpoint();
+        }
+        return Completion.NORMAL;
+    }
+}
@@ -0,0 +1,385 @@
+package pl.luainterpreter.program.profile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records where a Lua script spends its time, per function, per call stack and per source line.
+ * <p>
+ * The engines report every call ({@link #enter}, {@link #exit}) and every new line ({@link #line})
+ * while a profiler is attached to the state; without one they skip all hooks. The profiler keeps a
+ * shadow stack of the calls and a call tree with one node per distinct stack.
+ * <ul>
+ *     <li>{@link Mode#INSTRUMENTING} reads the clock at every hook and charges the time since the
+ *     previous one to the current function and line. Counts and times are exact, but the clock reads
+ *     make the script several times slower.</li>
+ *     <li>{@link Mode#SAMPLING} only counts. A timer thread ticks every interval and the next hook
+ *     records the current stack and line once per tick since the last sample, so time is estimated
+ *     by samples.</li>
+ * </ul>
+ * Hooks must come from the thread running the script, one state at a time.
+ */
+public final class Profiler {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(1);
+
+    private static final int INITIAL_DEPTH = 64;
+
+    public enum Mode {
+        SAMPLING,
+        INSTRUMENTING
+    }
+
+    private final Mode mode;
+    private final long intervalNanos;
+    private final CallNode root = new CallNode(null, null);
+    private final Map<String, FunctionStats> functions = new HashMap<>();
+
+    private CallNode[] stack = new CallNode[INITIAL_DEPTH];
+    private int[] lines = new int[INITIAL_DEPTH];
+    private long[] enterTimes = new long[INITIAL_DEPTH];
+    private int depth;
+    private long lastTime;
+    private long sampleCount;
+    private long sampledTicks;
+    private volatile long ticks;
+    private Thread sampler;
+
+    private Profiler(Mode mode, Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Sampling interval must be positive: " + interval);
+        }
+        this.mode = mode;
+        this.intervalNanos = interval.toNanos();
+        stack[0] = root;
+    }
+
+    public static Profiler sampling() {
+        return sampling(DEFAULT_INTERVAL);
+    }
+
+    public static Profiler sampling(Duration interval) {
+        return new Profiler(Mode.SAMPLING, interval);
+    }
+
+    public static Profiler instrumenting() {
+        return new Profiler(Mode.INSTRUMENTING, DEFAULT_INTERVAL);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Starts recording a chunk. Results of all chunks run between {@code start} and {@code stop} add up.
+     */
+    public void start() {
+        lastTime = System.nanoTime();
+        sampledTicks = ticks;
+        if (mode == Mode.SAMPLING && sampler == null) {
+            sampler = new Thread(this::tick, "lua-profiler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    /**
+     * Stops recording. Calls left open by a script that failed are closed here.
+     */
+    public void stop() {
+        while (depth > 0) {
+            exit();
+        }
+        if (sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+    }
+
+    private void tick() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(intervalNanos);
+            // only this thread writes the counter
+            ticks++;
+        }
+    }
+
+    //=============================================
+    //=================== HOOKS ===================
+    //=============================================
+    //region Hooks
+
+    public void enter(String function) {
+        long now = charge();
+        CallNode parent = stack[depth];
+        CallNode node = parent.child(function);
+        if (node == null) {
+            node = parent.addChild(function, functions.computeIfAbsent(function, FunctionStats::new));
+        }
+        if (++depth == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * depth);
+            lines = Arrays.copyOf(lines, 2 * depth);
+            enterTimes = Arrays.copyOf(enterTimes, 2 * depth);
+        }
+        stack[depth] = node;
+        lines[depth] = 0;
+        enterTimes[depth] = now;
+        node.calls++;
+        node.stats.calls++;
+        node.stats.active++;
+        if (ticks != sampledTicks) {
+            sample();
+        }
+    }
+
+    public void exit() {
+        long now = charge();
+        if (ticks != sampledTicks) {
+            // a native function has no hooks inside, the ticks it spans are counted when it returns
+            sample();
+        }
+        CallNode node = stack[depth];
+        long elapsed = now - enterTimes[depth];
+        node.totalNanos += elapsed;
+        // a recursive function's time counts once, for its outermost call
+        if (--node.stats.active == 0) {
+            node.stats.totalNanos += elapsed;
+        }
+        stack[depth--] = null;
+    }
+
+    /**
+     * Reports that the current function starts executing {@code line}, or executes it again.
+     */
+    public void line(int line) {
+        if (mode == Mode.INSTRUMENTING) {
+            charge();
+            stack[depth].stats.lineCounts(line)[line]++;
+        }
+        lines[depth] = line;
+        if (ticks != sampledTicks) {
+            sample();
+        }
+    }
+
+    /**
+     * Charges the time since the previous hook to the current function and line, and returns the time.
+     */
+    private long charge() {
+        if (mode != Mode.INSTRUMENTING) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastTime;
+        lastTime = now;
+        if (depth > 0) {
+            CallNode node = stack[depth];
+            node.selfNanos += elapsed;
+            node.stats.selfNanos += elapsed;
+            node.stats.lineNanos(lines[depth])[lines[depth]] += elapsed;
+        }
+        return now;
+    }
+
+    /**
+     * Records the current stack once for every tick since the previous sample.
+     */
+    private void sample() {
+        long now = ticks;
+        long weight = now - sampledTicks;
+        sampledTicks = now;
+        if (depth == 0) {
+            return;
+        }
+        sampleCount++;
+        CallNode node = stack[depth];
+        node.samples += weight;
+        node.stats.selfSamples += weight;
+        node.stats.lineSamples(lines[depth])[lines[depth]] += weight;
+        for (int i = depth; i > 0; i--) {
+            FunctionStats stats = stack[i].stats;
+            if (stats.lastSample != sampleCount) {
+                stats.lastSample = sampleCount;
+                stats.totalSamples += weight;
+            }
+        }
+    }
+
+    //endregion
+    //=============================================
+    //================== REPORTS ==================
+    //=============================================
+    //region Reports
+
+    /**
+     * Writes one line per call stack, frames separated by {@code ;}, followed by its self time in
+     * nanoseconds or its sample count. This is the input format of {@code flamegraph.pl} and speedscope.
+     */
+    public void writeCollapsedStacks(Appendable out) throws IOException {
+        StringBuilder path = new StringBuilder();
+        for (CallNode child : root.children) {
+            writeCollapsed(child, path, out);
+        }
+    }
+
+    private void writeCollapsed(CallNode node, StringBuilder path, Appendable out) throws IOException {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        path.append(node.function);
+        long value = mode == Mode.INSTRUMENTING ? node.selfNanos : node.samples;
+        if (value > 0) {
+            out.append(path).append(' ').append(Long.toString(value)).append('\n');
+        }
+        for (CallNode child : node.children) {
+            writeCollapsed(child, path, out);
+        }
+        path.setLength(length);
+    }
+
+    /**
+     * Writes a table of the functions and of the source lines with the most self time (or samples).
+     */
+    public void writeSummary(Appendable out, int maxRows) throws IOException {
+        boolean exact = mode == Mode.INSTRUMENTING;
+        List<FunctionStats> byFunction = new ArrayList<>(functions.values());
+        byFunction.sort(Comparator.comparingLong((FunctionStats stats) -> exact ? stats.selfNanos : stats.selfSamples)
+                .reversed());
+        long all = 0;
+        for (FunctionStats stats : byFunction) {
+            all += exact ? stats.selfNanos : stats.selfSamples;
+        }
+        String unit = exact ? "ms" : "samples";
+        out.append(String.format("%-32s %12s %14s %14s %7s%n", "Function", "Calls", "Total " + unit,
+                "Self " + unit, "Self %"));
+        for (FunctionStats stats : byFunction.subList(0, Math.min(maxRows, byFunction.size()))) {
+            long self = exact ? stats.selfNanos : stats.selfSamples;
+            out.append(String.format("%-32s %12d %14s %14s %6.1f%%%n", stats.function, stats.calls,
+                    amount(exact, exact ? stats.totalNanos : stats.totalSamples), amount(exact, self),
+                    all == 0 ? 0.0 : 100.0 * self / all));
+        }
+
+        List<LineRow> byLine = new ArrayList<>();
+        for (FunctionStats stats : functions.values()) {
+            int size = Math.max(stats.counts.length, Math.max(stats.nanos.length, stats.samples.length));
+            for (int line = 1; line < size; line++) {
+                long count = line < stats.counts.length ? stats.counts[line] : 0;
+                long self = exact ?
+                        (line < stats.nanos.length ? stats.nanos[line] : 0) :
+                        (line < stats.samples.length ? stats.samples[line] : 0);
+                if (count > 0 || self > 0) {
+                    byLine.add(new LineRow(stats.function + ":" + line, count, self));
+                }
+            }
+        }
+        byLine.sort(Comparator.comparingLong((LineRow row) -> row.self).thenComparingLong(row -> row.count)
+                .reversed());
+        out.append(String.format("%n%-32s %12s %14s %7s%n", "Line", exact ? "Count" : "", "Self " + unit, "Self %"));
+        for (LineRow row : byLine.subList(0, Math.min(maxRows, byLine.size()))) {
+            out.append(String.format("%-32s %12s %14s %6.1f%%%n", row.location, exact ? Long.toString(row.count) : "",
+                    amount(exact, row.self), all == 0 ? 0.0 : 100.0 * row.self / all));
+        }
+    }
+
+    private static String amount(boolean nanos, long value) {
+        return nanos ? String.format("%.3f", value / 1e6) : Long.toString(value);
+    }
+
+    //endregion
+
+    /**
+     * One distinct call stack: its function, called from the stack of its parent.
+     */
+    private static final class CallNode {
+        private final String function;
+        private final FunctionStats stats;
+        private final List<CallNode> children = new ArrayList<>(2);
+        private CallNode lastChild;
+        private long calls;
+        private long selfNanos;
+        private long totalNanos;
+        private long samples;
+
+        private CallNode(String function, FunctionStats stats) {
+            this.function = function;
+            this.stats = stats;
+        }
+
+        private CallNode child(String function) {
+            // a call site mostly calls the same function as last time, and names are shared constants
+            if (lastChild != null && lastChild.function == function) {
+                return lastChild;
+            }
+            for (CallNode child : children) {
+                if (child.function.equals(function)) {
+                    return lastChild = child;
+                }
+            }
+            return null;
+        }
+
+        private CallNode addChild(String function, FunctionStats stats) {
+            CallNode child = new CallNode(function, stats);
+            children.add(child);
+            return lastChild = child;
+        }
+    }
+
+    /**
+     * Totals of one function over all its call stacks, with counts, times and samples per line.
+     */
+    private static final class FunctionStats {
+        private static final long[] NONE = new long[0];
+
+        private final String function;
+        private long calls;
+        private long selfNanos;
+        private long totalNanos;
+        private long selfSamples;
+        private long totalSamples;
+        private int active;
+        private long lastSample;
+        private long[] counts = NONE;
+        private long[] nanos = NONE;
+        private long[] samples = NONE;
+
+        private FunctionStats(String function) {
+            this.function = function;
+        }
+
+        private long[] lineCounts(int line) {
+            return line < counts.length ? counts : (counts = grow(counts, line));
+        }
+
+        private long[] lineNanos(int line) {
+            return line < nanos.length ? nanos : (nanos = grow(nanos, line));
+        }
+
+        private long[] lineSamples(int line) {
+            return line < samples.length ? samples : (samples = grow(samples, line));
+        }
+
+        private static long[] grow(long[] array, int line) {
+            return Arrays.copyOf(array, Math.max(2 * array.length, line + 16));
+        }
+    }
+
+    private static final class LineRow {
+        private final String location;
+        private final long count;
+        private final long self;
+
+        private LineRow(String location, long count, long self) {
+            this.location = location;
+            this.count = count;
+            this.self = self;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package pl.luainterpreter.program.value;
+
+public final class BooleanValue extends Value {
+    public static final BooleanValue TRUE = new BooleanValue(true);
+    public static final BooleanValue FALSE = new BooleanValue(false);
+
+    private final boolean value;
+
+    private BooleanValue(boolean value) {
+        this.value = value;
+    }
+
+    public static BooleanValue valueOf(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    @Override
+    public String getTypeName() {
+        return "boolean";
+    }
+
+    @Override
+    public boolean isTruthy() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return Boolean.toString(value);
+    }
+}
@@ -0,0 +1,125 @@
+package pl.luainterpreter.program.value;
+
+import java.util.Locale;
+
+public final class FloatValue extends NumberValue {
+    private static final int PRECISION = 14;
+
+    private final double value;
+
+    public FloatValue(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public long longValue() {
+        return (long) value;
+    }
+
+    @Override
+    public double doubleValue() {
+        return value;
+    }
+
+    @Override
+    public boolean isNaN() {
+        return Double.isNaN(value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof FloatValue
+                && Double.doubleToLongBits(((FloatValue) obj).value) == Double.doubleToLongBits(value);
+    }
+
+    /**
+     * Formats like Lua's {@code "%.14g"}, keeping a {@code ".0"} suffix on integral values.
+     */
+    @Override
+    public String toString() {
+        if (Double.isNaN(value)) {
+            return "nan";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        String text = formatShortest(value);
+        return text != null ? text : formatRounded(value);
+    }
+
+    /**
+     * Formats values whose shortest representation has at most 14 significant digits, which {@code %.14g}
+     * prints unchanged, without going through {@link String#format}. Returns {@code null} for other values.
+     */
+    private static String formatShortest(double value) {
+        String shortest = Double.toString(Math.abs(value));
+        int exponentStart = shortest.indexOf('E');
+        String mantissa = exponentStart < 0 ? shortest : shortest.substring(0, exponentStart);
+        int exponent = exponentStart < 0 ? 0 : Integer.parseInt(shortest.substring(exponentStart + 1));
+        int point = mantissa.indexOf('.');
+        StringBuilder digits = new StringBuilder(mantissa.length())
+                .append(mantissa, 0, point).append(mantissa, point + 1, mantissa.length());
+        exponent += point - 1;
+        int leadingZeros = 0;
+        while (leadingZeros < digits.length() - 1 && digits.charAt(leadingZeros) == '0') {
+            leadingZeros++;
+        }
+        digits.delete(0, leadingZeros);
+        exponent -= leadingZeros;
+        while (digits.length() > 1 && digits.charAt(digits.length() - 1) == '0') {
+            digits.setLength(digits.length() - 1);
+        }
+        if (digits.length() > PRECISION) {
+            return null;
+        }
+
+        StringBuilder text = new StringBuilder(24);
+        if (value < 0 || value == 0 && 1 / value < 0) {
+            text.append('-');
+        }
+        if (digits.charAt(0) == '0') {
+            return text.append("0.0").toString();
+        } else if (exponent < -4 || exponent >= PRECISION) {
+            text.append(digits.charAt(0));
+            if (digits.length() > 1) {
+                text.append('.').append(digits, 1, digits.length());
+            }
+            text.append(exponent < 0 ? "e-" : "e+");
+            if (Math.abs(exponent) < 10) {
+                text.append('0');
+            }
+            return text.append(Math.abs(exponent)).toString();
+        } else if (exponent < 0) {
+            text.append("0.");
+            for (int i = -1; i > exponent; i--) {
+                text.append('0');
+            }
+            return text.append(digits).toString();
+        }
+        for (int i = 0; i <= exponent; i++) {
+            text.append(i < digits.length() ? digits.charAt(i) : '0');
+        }
+        text.append('.');
+        return exponent + 1 < digits.length() ?
+                text.append(digits, exponent + 1, digits.length()).toString() :
+                text.append('0').toString();
+    }
+
+    private static String formatRounded(double value) {
+        String text = String.format(Locale.ROOT, "%.14g", value);
+        int exponent = text.indexOf('e');
+        String mantissa = exponent < 0 ? text : text.substring(0, exponent);
+        if (mantissa.indexOf('.') >= 0) {
+            mantissa = mantissa.replaceAll("0+$", "");
+            mantissa = mantissa.endsWith(".") ? mantissa.substring(0, mantissa.length() - 1) : mantissa;
+        }
+        if (exponent >= 0) {
+            return mantissa + text.substring(exponent);
+        }
+        return mantissa.indexOf('.') < 0 ? mantissa + ".0" : mantissa;
+    }
+}
@@ -0,0 +1,56 @@
+package pl.luainterpreter.program.value;
+
+public final class IntValue extends NumberValue {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+    private static final IntValue[] CACHE = new IntValue[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new IntValue(i + CACHE_LOW);
+        }
+    }
+
+    private final long value;
+
+    private IntValue(long value) {
+        this.value = value;
+    }
+
+    public static IntValue valueOf(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return CACHE[(int) value - CACHE_LOW];
+        }
+        return new IntValue(value);
+    }
+
+    @Override
+    public long longValue() {
+        return value;
+    }
+
+    @Override
+    public double doubleValue() {
+        return value;
+    }
+
+    @Override
+    public boolean isNaN() {
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof IntValue && ((IntValue) obj).value == value;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
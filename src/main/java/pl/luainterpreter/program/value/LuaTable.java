@@ -0,0 +1,345 @@
+package pl.luainterpreter.program.value;
+
+import pl.luainterpreter.program.LuaError;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Lua table split into a dense array part holding the integer keys {@code 1..array.length} and an
+ * open addressing hash part (linear probing, backward shift deletion) for all other keys.
+ * <p>
+ * {@link #top} is a border of the array part: every slot at or above it is empty and the slot
+ * right below it is not, so {@code #t} is answered without scanning in the common case.
+ */
+public final class LuaTable extends Value {
+    private static final Value[] EMPTY = new Value[0];
+    private static final int MIN_ARRAY_CAPACITY = 4;
+    private static final int MIN_HASH_CAPACITY = 4;
+    private static final int HEADER_BYTES = 64;
+    private static final int ARRAY_SLOT_BYTES = 8;
+    private static final int HASH_SLOT_BYTES = 16;
+
+    private final MemoryMeter meter;
+
+    private Value[] array;
+    private int top;
+
+    private Value[] keys = EMPTY;
+    private Value[] values = EMPTY;
+    private int hashCount;
+
+    public LuaTable() {
+        this(0, 0);
+    }
+
+    public LuaTable(int arrayCapacity, int hashCapacity) {
+        this(MemoryMeter.NONE, arrayCapacity, hashCapacity);
+    }
+
+    /**
+     * Creates a table reporting its own size and every growth of its parts to {@code meter}.
+     */
+    public LuaTable(MemoryMeter meter, int arrayCapacity, int hashCapacity) {
+        this.meter = meter;
+        meter.allocate(HEADER_BYTES + (long) arrayCapacity * ARRAY_SLOT_BYTES);
+        array = arrayCapacity > 0 ? new Value[arrayCapacity] : EMPTY;
+        if (hashCapacity > 0) {
+            resizeHash(hashCapacityFor(hashCapacity));
+        }
+    }
+
+    public Value get(Value key) {
+        if (key instanceof IntValue) {
+            return get(((IntValue) key).longValue());
+        } else if (key instanceof FloatValue && isIntegral(((FloatValue) key).doubleValue())) {
+            return get((long) ((FloatValue) key).doubleValue());
+        }
+        int slot = findSlot(key);
+        return slot < 0 ? NIL : values[slot];
+    }
+
+    public Value get(long index) {
+        if (index >= 1 && index <= array.length) {
+            Value value = array[(int) index - 1];
+            return value == null ? NIL : value;
+        }
+        int slot = findSlot(index);
+        return slot < 0 ? NIL : values[slot];
+    }
+
+    public void put(Value key, Value value) {
+        if (key instanceof IntValue) {
+            put(((IntValue) key).longValue(), value);
+            return;
+        } else if (key instanceof FloatValue) {
+            double number = ((FloatValue) key).doubleValue();
+            if (Double.isNaN(number)) {
+                throw new LuaError("table index is NaN");
+            } else if (isIntegral(number)) {
+                put((long) number, value);
+                return;
+            }
+        } else if (key == NIL) {
+            throw new LuaError("table index is nil");
+        }
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            hashSet(slot, value);
+        } else if (value != NIL) {
+            insert(key, value);
+        }
+    }
+
+    public void put(long index, Value value) {
+        if (index >= 1 && index <= array.length) {
+            arraySet((int) index - 1, value);
+            return;
+        } else if (index == array.length + 1 && top == array.length && value != NIL) {
+            growArray();
+            arraySet((int) index - 1, value);
+            return;
+        }
+        int slot = findSlot(index);
+        if (slot >= 0) {
+            hashSet(slot, value);
+        } else if (value != NIL) {
+            insert(IntValue.valueOf(index), value);
+        }
+    }
+
+    /**
+     * Finds a string key in the hash part and returns its slot, or -1 if the key is absent. The slot
+     * {@code hint} is tried first, so a field access that remembers where it found its key last time
+     * skips hashing for every table with the same layout.
+     */
+    public int findField(Value key, int hint) {
+        if (hint < keys.length) {
+            Value hintKey = keys[hint];
+            if (hintKey == key || (hintKey != null && hintKey.equals(key))) {
+                return hint;
+            }
+        }
+        return findSlot(key);
+    }
+
+    /**
+     * Returns the value at a slot returned by {@link #findField(Value, int)}.
+     */
+    public Value getField(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Replaces the value at a slot returned by {@link #findField(Value, int)}; {@code nil} removes the key.
+     */
+    public void setField(int slot, Value value) {
+        hashSet(slot, value);
+    }
+
+    /**
+     * Returns a border of the table, like Lua's {@code #} operator.
+     */
+    public long length() {
+        // the sequence continues in the hash part, pull it into the array part first
+        while (top == array.length && findSlot(top + 1L) >= 0) {
+            growArray();
+        }
+        return top;
+    }
+
+    /**
+     * Inserts a value at {@code pos} of the sequence {@code 1..length()}, moving the following elements
+     * up by one. {@code pos} must be in {@code 1..length() + 1}.
+     */
+    public void insertAt(long pos, Value value) {
+        int n = (int) length();
+        if (n == array.length) {
+            growArray();
+        }
+        int slot = (int) pos - 1;
+        System.arraycopy(array, slot, array, slot + 1, n - slot);
+        array[slot] = null;
+        top = Math.max(top, n + 1);
+        arraySet(slot, value);
+    }
+
+    /**
+     * Removes the value at {@code pos} of the sequence {@code 1..length()}, moving the following elements
+     * down by one. {@code pos} must be in {@code 1..length()}.
+     */
+    public Value removeAt(long pos) {
+        int n = (int) length();
+        int slot = (int) pos - 1;
+        Value value = array[slot];
+        System.arraycopy(array, slot + 1, array, slot, n - slot - 1);
+        arraySet(n - 1, NIL);
+        return value == null ? NIL : value;
+    }
+
+    /**
+     * Sorts the sequence {@code 1..length()} in place.
+     */
+    public void sort(Comparator<Value> comparator) {
+        int n = (int) length();
+        for (int i = 0; i < n; i++) {
+            if (array[i] == null) {
+                Value other = n > 1 ? array[i == 0 ? 1 : 0] : null;
+                throw new LuaError("attempt to compare nil with "
+                        + (other == null ? "nil" : other.getTypeName()));
+            }
+        }
+        Arrays.sort(array, 0, n, comparator);
+    }
+
+    private void arraySet(int slot, Value value) {
+        if (value == NIL) {
+            array[slot] = null;
+            if (slot == top - 1) {
+                while (top > 0 && array[top - 1] == null) {
+                    top--;
+                }
+            }
+        } else {
+            array[slot] = value;
+            if (slot >= top) {
+                top = slot + 1;
+            }
+        }
+    }
+
+    private void growArray() {
+        int oldCapacity = array.length;
+        int capacity = Math.max(MIN_ARRAY_CAPACITY, oldCapacity * 2);
+        meter.allocate((long) (capacity - oldCapacity) * ARRAY_SLOT_BYTES);
+        array = Arrays.copyOf(array, capacity);
+        for (int i = oldCapacity; i < array.length && hashCount > 0; i++) {
+            int slot = findSlot(i + 1L);
+            if (slot >= 0) {
+                Value value = values[slot];
+                remove(slot);
+                arraySet(i, value);
+            }
+        }
+    }
+
+    /**
+     * Float keys with an integral value are the same key as the equal integer.
+     */
+    private static boolean isIntegral(double number) {
+        long index = (long) number;
+        return index == number && index != Long.MAX_VALUE;
+    }
+
+    //=============================================
+    //================ HASH PART ==================
+    //=============================================
+    //region Hash part
+
+    private int findSlot(Value key) {
+        if (hashCount == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(key.hashCode()) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            // short string keys are pooled, so a hit is usually the same instance
+            if (keys[slot] == key || keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int findSlot(long index) {
+        if (hashCount == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(Long.hashCode(index)) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            Value key = keys[slot];
+            if (key instanceof IntValue && ((IntValue) key).longValue() == index) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void hashSet(int slot, Value value) {
+        if (value == NIL) {
+            remove(slot);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    private void insert(Value key, Value value) {
+        if ((hashCount + 1) * 4 > keys.length * 3) {
+            resizeHash(Math.max(MIN_HASH_CAPACITY, keys.length * 2));
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key.hashCode()) & mask;
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        hashCount++;
+    }
+
+    private void remove(int slot) {
+        int mask = keys.length - 1;
+        hashCount--;
+        // shift back the following entries of the cluster so lookups never stop at the hole
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next].hashCode()) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+    }
+
+    private void resizeHash(int capacity) {
+        meter.allocate((long) (capacity - keys.length) * HASH_SLOT_BYTES);
+        Value[] oldKeys = keys;
+        Value[] oldValues = values;
+        keys = new Value[capacity];
+        values = new Value[capacity];
+        hashCount = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hashCapacityFor(int count) {
+        return Math.max(MIN_HASH_CAPACITY, Integer.highestOneBit(count * 4 / 3 + 1) << 1);
+    }
+
+    private static int hash(int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    //endregion
+
+    @Override
+    public String getTypeName() {
+        return "table";
+    }
+
+    @Override
+    public LuaTable checkTable() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "table: 0x" + String.format("%08x", System.identityHashCode(this));
+    }
+}
@@ -0,0 +1,12 @@
+package pl.luainterpreter.program.value;
+
+/**
+ * Receives the approximate size of every table and string a script allocates and may refuse it by
+ * throwing.
+ */
+@FunctionalInterface
+public interface MemoryMeter {
+    MemoryMeter NONE = bytes -> { };
+
+    void allocate(long bytes);
+}
@@ -0,0 +1,19 @@
+package pl.luainterpreter.program.value;
+
+final class NilValue extends Value {
+
+    @Override
+    public String getTypeName() {
+        return "nil";
+    }
+
+    @Override
+    public boolean isTruthy() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "nil";
+    }
+}
@@ -0,0 +1,89 @@
+package pl.luainterpreter.program.value;
+
+import java.util.regex.Pattern;
+
+public abstract class NumberValue extends Value {
+    private static final Pattern DECIMAL = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final Pattern HEXADECIMAL = Pattern.compile("[+-]?0[xX][0-9a-fA-F]+");
+    private static final double TWO_POW_63 = 0x1p63;
+
+    public abstract long longValue();
+
+    public abstract double doubleValue();
+
+    public abstract boolean isNaN();
+
+    @Override
+    public String getTypeName() {
+        return "number";
+    }
+
+    @Override
+    public NumberValue toNumber() {
+        return this;
+    }
+
+    @Override
+    public int compareTo(Value other) {
+        if (other instanceof NumberValue) {
+            return compare(this, (NumberValue) other);
+        }
+        return super.compareTo(other);
+    }
+
+    /**
+     * Compares integers and floats exactly, without rounding the integer to a double.
+     */
+    static int compare(NumberValue left, NumberValue right) {
+        if (left instanceof IntValue && right instanceof IntValue) {
+            return Long.compare(left.longValue(), right.longValue());
+        } else if (left instanceof IntValue) {
+            return compareIntFloat(left.longValue(), right.doubleValue());
+        } else if (right instanceof IntValue) {
+            return -compareIntFloat(right.longValue(), left.doubleValue());
+        }
+        return Double.compare(left.doubleValue(), right.doubleValue());
+    }
+
+    private static int compareIntFloat(long left, double right) {
+        if (right >= TWO_POW_63) {
+            return -1;
+        } else if (right < -TWO_POW_63) {
+            return 1;
+        }
+        double floor = Math.floor(right);
+        int comparison = Long.compare(left, (long) floor);
+        if (comparison == 0 && floor != right) {
+            return -1;
+        }
+        return comparison;
+    }
+
+    /**
+     * Converts a numeral to an integer or a float, returns {@code null} when the text is not a number.
+     */
+    public static NumberValue parse(String text) {
+        String numeral = text.trim();
+        if (HEXADECIMAL.matcher(numeral).matches()) {
+            boolean negative = numeral.startsWith("-");
+            int digitsStart = Math.max(numeral.indexOf('x'), numeral.indexOf('X')) + 1;
+            // like Lua, hexadecimal integers wrap around modulo 2^64
+            long value = 0;
+            for (int i = digitsStart; i < numeral.length(); i++) {
+                value = value * 16 + Character.digit(numeral.charAt(i), 16);
+            }
+            return IntValue.valueOf(negative ? -value : value);
+        }
+        if (!DECIMAL.matcher(numeral).matches()) {
+            return null;
+        }
+        if (numeral.indexOf('.') < 0 && numeral.indexOf('e') < 0 && numeral.indexOf('E') < 0) {
+            try {
+                return IntValue.valueOf(Long.parseLong(numeral));
+            } catch (NumberFormatException e) {
+                // integer numerals that do not fit are read as floats
+            }
+        }
+        return new FloatValue(Double.parseDouble(numeral));
+    }
+}
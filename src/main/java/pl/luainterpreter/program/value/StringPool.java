@@ -0,0 +1,39 @@
+package pl.luainterpreter.program.value;
+
+/**
+ * Pool of short strings shared by the chunks a {@code LuaEngine} compiles and the states it creates, so
+ * equal short strings, whether constants of any chunk or strings built while scripts run, are usually one
+ * instance and table keys compare by reference.
+ * <p>
+ * The pool is a fixed array indexed by hash: a string takes the slot of its hash, replacing the string
+ * that was there, so the pool never grows and a lookup costs one hash and at most one {@code equals}.
+ * Interning is best effort; equal strings that are not one instance still compare equal.
+ * <p>
+ * Threads share the pool without locks. A string is immutable apart from its cached hash, which every
+ * thread computes to the same value, so reading a slot another thread has just written is safe.
+ */
+public final class StringPool {
+    /** Longest string interned, in bytes. */
+    public static final int MAX_LENGTH = 40;
+
+    private static final int SLOTS = 4096;
+
+    private final StringValue[] slots = new StringValue[SLOTS];
+
+    /**
+     * Returns the pooled string equal to {@code string}, or pools {@code string} and returns it.
+     */
+    public StringValue intern(StringValue string) {
+        if (string.length() > MAX_LENGTH) {
+            return string;
+        }
+        int hash = string.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        StringValue pooled = slots[slot];
+        if (pooled != null && pooled.equals(string)) {
+            return pooled;
+        }
+        slots[slot] = string;
+        return string;
+    }
+}
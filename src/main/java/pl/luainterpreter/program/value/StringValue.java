@@ -0,0 +1,211 @@
+package pl.luainterpreter.program.value;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lua string: a sequence of bytes with no encoding of its own. Java code sees it as a {@link String}
+ * with one char per byte, from 0 to 255 ({@link #toString()}, {@link #StringValue(String)}), so the
+ * string library indexes bytes like Lua does. Text from outside, like source literals and input lines,
+ * comes in as UTF-8 ({@link #fromText}) and the printed bytes go out unchanged.
+ * <p>
+ * The hash is computed once. Short strings, constants and strings built at runtime alike, go through
+ * the {@link StringPool} of their engine, so equal table keys usually compare by reference.
+ * <p>
+ * A string built by appending to a long string shares its array: it is the first {@code length}
+ * bytes of a {@link Builder} that later appends extend.
+ */
+public final class StringValue extends Value {
+    private final byte[] bytes;
+    private final int length;
+    private final Builder builder;
+    private int hash;
+
+    /**
+     * Creates a string of the bytes {@code value}'s chars stand for; chars above 255 become {@code '?'}.
+     */
+    public StringValue(String value) {
+        this(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Creates a string owning {@code bytes}.
+     */
+    public StringValue(byte[] bytes) {
+        this(bytes, bytes.length, null);
+    }
+
+    private StringValue(byte[] bytes, int length, Builder builder) {
+        this.bytes = bytes;
+        this.length = length;
+        this.builder = builder;
+    }
+
+    /**
+     * Returns the string holding {@code text} encoded as UTF-8.
+     */
+    public static StringValue fromText(String text) {
+        return new StringValue(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Returns a builder holding this string that the caller may append to. The last string appended to a
+     * builder shares its array with the result, so a string grown by repeated appends is not copied each time.
+     */
+    public Builder appendBuffer() {
+        if (builder != null && builder.size == length) {
+            return builder;
+        }
+        return new Builder(Math.max(16, 2 * length)).append(this);
+    }
+
+    public void appendTo(StringBuilder out) {
+        for (int i = 0; i < length; i++) {
+            out.append((char) (bytes[i] & 0xFF));
+        }
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.put(bytes, 0, length);
+    }
+
+    /**
+     * Returns the bytes decoded as UTF-8, the text a script that handles UTF-8 means.
+     */
+    public String toText() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getTypeName() {
+        return "string";
+    }
+
+    @Override
+    public NumberValue toNumber() {
+        return NumberValue.parse(toString());
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            // the hash of the String with the same chars
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + (bytes[i] & 0xFF);
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (!(obj instanceof StringValue)) {
+            return false;
+        }
+        StringValue other = (StringValue) obj;
+        return other.length == length && other.hashCode() == hashCode()
+                && Arrays.equals(bytes, 0, length, other.bytes, 0, length);
+    }
+
+    @Override
+    public int compareTo(Value other) {
+        if (other instanceof StringValue) {
+            StringValue string = (StringValue) other;
+            return Arrays.compareUnsigned(bytes, 0, length, string.bytes, 0, string.length);
+        }
+        return super.compareTo(other);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Growable byte array that strings are built in.
+     */
+    public static final class Builder {
+        private byte[] array;
+        private int size;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int capacity) {
+            array = new byte[Math.max(1, capacity)];
+        }
+
+        public int length() {
+            return size;
+        }
+
+        public Builder append(StringValue string) {
+            ensureCapacity(string.length);
+            System.arraycopy(string.bytes, 0, array, size, string.length);
+            size += string.length;
+            return this;
+        }
+
+        /**
+         * Appends the bytes {@code value}'s chars stand for, see {@link StringValue#StringValue(String)}.
+         */
+        public Builder append(String value) {
+            int length = value.length();
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                array[size++] = (byte) (c <= 0xFF ? c : '?');
+            }
+            return this;
+        }
+
+        public Builder append(Value value) {
+            return value instanceof StringValue ? append((StringValue) value) : append(value.toString());
+        }
+
+        public Builder append(byte value) {
+            ensureCapacity(1);
+            array[size++] = value;
+            return this;
+        }
+
+        /**
+         * Returns a string with the current content that shares the array, see {@link #appendBuffer()}.
+         */
+        public StringValue share() {
+            return new StringValue(array, size, this);
+        }
+
+        /**
+         * Writes the bytes with a single call, so they do not mix with other writes to the stream.
+         */
+        public void writeTo(PrintStream out) {
+            out.write(array, 0, size);
+        }
+
+        public StringValue toStringValue() {
+            return new StringValue(Arrays.copyOf(array, size));
+        }
+
+        private void ensureCapacity(int more) {
+            if (array.length - size < more) {
+                array = Arrays.copyOf(array, Math.max(2 * array.length, size + more));
+            }
+        }
+    }
+}
@@ -1,138 +1,160 @@
 package pl.luainterpreter.program.value;
 
-import java.util.Objects;
+import pl.luainterpreter.program.LuaError;
 
 import static lua.LuaParser.*;
-public class Value implements Comparable<Value> {
-    public static final Value NIL = new Value(null, null);
 
-    private Object value;
-    private Class type;
-    private boolean isReturn;
+public abstract class Value implements Comparable<Value> {
+    public static final Value NIL = new NilValue();
 
-    public Value(Object value, Class type) {
-        this.value = value;
-        this.type = type;
-    }
-
-    public Value(Value other) {
-        this.value = other.value;
-        this.type = other.type;
-        this.isReturn = false;
-    }
-
-    public <T> T get(Class<T> type) {
-        return type.cast(value);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(value, type);
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-        if(!(obj instanceof Value)) {
-            return false;
-        }
-        Value other = (Value) obj;
-        if (other.type == null) {
-            return this.type == null;
-        }
-        if (other.type == this.type) {
-            switch (type.getSimpleName()) {
-                case "Integer":
-                case "Float":
-                case "String":
-                    return other.value.equals(this.value);
-            }
-        }
-        return other.toString().equals(this.toString());
-    }
+    public abstract String getTypeName();
 
-    public Class getType() {
-        return type;
+    public boolean isTruthy() {
+        return true;
     }
 
-    public void setReturn(boolean isReturn) {
-        this.isReturn = isReturn;
+    public NumberValue toNumber() {
+        return null;
     }
 
-    public boolean isReturn() {
-        return isReturn;
-    }
-
-    @Override
-    public String toString() {
-        return value == null ? "nil" : value.toString();
+    public LuaTable checkTable() {
+        throw new LuaError("attempt to index a " + getTypeName() + " value");
     }
 
+    /**
+     * Orders numbers by value and strings by content; any other pair is not comparable in Lua.
+     */
     @Override
     public int compareTo(Value other) {
-        if (other.type == this.type) {
-            switch (type.getSimpleName()) {
-                case "Integer":
-                    return Integer.compare(get(Integer.class), other.get(Integer.class));
-                case "Float":
-                    return Float.compare(get(Float.class), other.get(Float.class));
-                case "String":
-            }
-        }
-        return other.toString().compareTo(this.toString());
+        String otherType = other.getTypeName();
+        throw new LuaError(getTypeName().equals(otherType) ?
+                "attempt to compare two " + otherType + " values" :
+                "attempt to compare " + getTypeName() + " with " + otherType);
     }
 
     public static class ValueOperations {
 
         public static Value compare(int opType, Value left, Value right) {
-            return switch (opType) {
-                case EQ -> new Value(left.equals(right), Boolean.class);
-                case NEQ -> new Value(!left.equals(right), Boolean.class);
-                case GT -> new Value(left.compareTo(right) > 0, Boolean.class);
-                case GTE -> new Value(left.compareTo(right) >= 0, Boolean.class);
-                case LT -> new Value(left.compareTo(right) < 0, Boolean.class);
-                case LTE -> new Value(left.compareTo(right) <= 0, Boolean.class);
+            if (left instanceof IntValue && right instanceof IntValue) {
+                long leftValue = ((IntValue) left).longValue();
+                long rightValue = ((IntValue) right).longValue();
+                return BooleanValue.valueOf(switch (opType) {
+                    case EQ -> leftValue == rightValue;
+                    case NEQ -> leftValue != rightValue;
+                    case GT -> leftValue > rightValue;
+                    case GTE -> leftValue >= rightValue;
+                    case LT -> leftValue < rightValue;
+                    case LTE -> leftValue <= rightValue;
+                    default -> throw new IllegalStateException("Unexpected relational operation: " + opType);
+                });
+            }
+            if (left instanceof NumberValue && right instanceof NumberValue) {
+                return compareNumbers(opType, (NumberValue) left, (NumberValue) right);
+            }
+            return BooleanValue.valueOf(switch (opType) {
+                case EQ -> left.equals(right);
+                case NEQ -> !left.equals(right);
+                case GT -> left.compareTo(right) > 0;
+                case GTE -> left.compareTo(right) >= 0;
+                case LT -> left.compareTo(right) < 0;
+                case LTE -> left.compareTo(right) <= 0;
                 default -> throw new IllegalStateException("Unexpected relational operation: " + opType);
-            };
+            });
+        }
+
+        private static Value compareNumbers(int opType, NumberValue left, NumberValue right) {
+            if (left.isNaN() || right.isNaN()) {
+                return BooleanValue.valueOf(opType == NEQ);
+            }
+            int comparison = NumberValue.compare(left, right);
+            return BooleanValue.valueOf(switch (opType) {
+                case EQ -> comparison == 0;
+                case NEQ -> comparison != 0;
+                case GT -> comparison > 0;
+                case GTE -> comparison >= 0;
+                case LT -> comparison < 0;
+                case LTE -> comparison <= 0;
+                default -> throw new IllegalStateException("Unexpected relational operation: " + opType);
+            });
         }
 
         public static Value negate(Value value) {
-            if (value.type == Integer.class) {
-                value.value = -value.get(Integer.class);
-            } else if (value.type == Float.class) {
-                value.value = -value.get(Float.class);
+            if (value instanceof IntValue) {
+                return IntValue.valueOf(-((IntValue) value).longValue());
             }
-            return value;
+            NumberValue number = arithmeticOperand(value);
+            if (number instanceof IntValue) {
+                return IntValue.valueOf(-number.longValue());
+            }
+            return new FloatValue(-number.doubleValue());
+        }
+
+        public static Value not(Value value) {
+            return BooleanValue.valueOf(!value.isTruthy());
+        }
+
+        public static Value length(Value value) {
+            if (value instanceof StringValue) {
+                return IntValue.valueOf(((StringValue) value).length());
+            } else if (value instanceof LuaTable) {
+                return IntValue.valueOf(((LuaTable) value).length());
+            } else if (value instanceof ValueList) {
+                return IntValue.valueOf(((ValueList) value).getList().size());
+            }
+            throw new LuaError("attempt to get length of a " + value.getTypeName() + " value");
         }
 
         public static Value calculate(int opType, Value left, Value right) {
-            if (left.type == Integer.class && right.type == Integer.class) {
-                return new Value(calculateInt(opType, left.get(Integer.class), right.get(Integer.class)), Integer.class);
-            } else {
-                return new Value(calculateFloat(opType, Float.parseFloat(left.toString()), Float.parseFloat(right.toString())), Float.class);
+            if (left instanceof IntValue && right instanceof IntValue && opType != DIV) {
+                return IntValue.valueOf(calculateInt(opType,
+                        ((IntValue) left).longValue(), ((IntValue) right).longValue()));
+            }
+            NumberValue leftNumber = arithmeticOperand(left);
+            NumberValue rightNumber = arithmeticOperand(right);
+            if (leftNumber instanceof IntValue && rightNumber instanceof IntValue && opType != DIV) {
+                return IntValue.valueOf(calculateInt(opType, leftNumber.longValue(), rightNumber.longValue()));
             }
+            return new FloatValue(calculateFloat(opType, leftNumber.doubleValue(), rightNumber.doubleValue()));
         }
 
         public static Value calculatePower(Value left, Value right) {
-            Integer power = right.get(Integer.class);
-            return new Value(Double.valueOf(Math.pow(Float.parseFloat(left.toString()), power)).floatValue(), Float.class);
+            return new FloatValue(Math.pow(arithmeticOperand(left).doubleValue(),
+                    arithmeticOperand(right).doubleValue()));
         }
 
-        private static int calculateInt(int opType, int left, int right) {
+        private static NumberValue arithmeticOperand(Value value) {
+            NumberValue number = value.toNumber();
+            if (number == null) {
+                throw new LuaError("attempt to perform arithmetic on a " + value.getTypeName() + " value");
+            }
+            return number;
+        }
+
+        private static long calculateInt(int opType, long left, long right) {
             return switch (opType) {
                 case ADD -> left + right;
                 case SUB -> left - right;
                 case MUL -> left * right;
-                case DIV -> left / right;
+                case MOD -> {
+                    if (right == 0) {
+                        throw new LuaError("attempt to perform 'n%0'");
+                    }
+                    yield Math.floorMod(left, right);
+                }
                 default -> throw new IllegalStateException("Unexpected arithmetic operation: " + opType);
             };
         }
 
-        private static float calculateFloat(int opType, float left, float right) {
+        private static double calculateFloat(int opType, double left, double right) {
             return switch (opType) {
                 case ADD -> left + right;
                 case SUB -> left - right;
                 case MUL -> left * right;
                 case DIV -> left / right;
+                case MOD -> {
+                    double mod = left % right;
+                    yield mod != 0 && (mod < 0) != (right < 0) ? mod + right : mod;
+                }
                 default -> throw new IllegalStateException("Unexpected arithmetic operation: " + opType);
             };
         }
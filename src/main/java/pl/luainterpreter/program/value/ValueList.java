@@ -8,7 +8,6 @@ public class ValueList extends Value implements Iterable<Value> {
     private List<Value> values;
 
     public ValueList(List<Value> valueList) {
-        super(valueList, List.class);
         this.values = valueList;
     }
 
@@ -20,8 +19,18 @@ public class ValueList extends Value implements Iterable<Value> {
         this.values = values;
     }
 
+    @Override
+    public String getTypeName() {
+        return values.isEmpty() ? "nil" : values.get(0).getTypeName();
+    }
+
     @Override
     public Iterator<Value> iterator() {
         return values.iterator();
     }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
 }
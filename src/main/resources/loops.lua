@@ -60,7 +60,7 @@ end
 for i = 10, 1, -1
 do
     print(i)
-    i = i - 1 -- print only even
+    i = i - 1 -- changes only this iteration's copy, every number is printed
 end
 
 print("finished for")